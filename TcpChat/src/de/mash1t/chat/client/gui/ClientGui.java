@@ -27,10 +27,27 @@ import de.mash1t.networklib.packets.*;
 import de.mash1t.chat.client.gui.tabs.ChatTab;
 import de.mash1t.chat.client.gui.tabs.ChatType;
 import de.mash1t.chat.client.gui.tabs.TabController;
+import de.mash1t.chat.client.gui.userlist.RosterListModel;
 import de.mash1t.chat.client.gui.userlist.UserListController;
+import de.mash1t.chat.config.ConfigController;
 import de.mash1t.chat.config.ConfigParam;
-import de.mash1t.networklib.methods.NetworkBasics;
-import de.mash1t.networklib.methods.NetworkProtocol;
+import de.mash1t.chat.core.RoleType;
+import de.mash1t.networklib.AbstractNetworkProtocol;
+import de.mash1t.networklib.AckPacket;
+import de.mash1t.networklib.Capability;
+import de.mash1t.networklib.ChannelJoinPacket;
+import de.mash1t.networklib.ChannelLeavePacket;
+import de.mash1t.networklib.ChannelMessagePacket;
+import de.mash1t.networklib.ConversationLeavePacket;
+import de.mash1t.networklib.ConversationMessagePacket;
+import de.mash1t.networklib.ConversationPacket;
+import de.mash1t.networklib.CreditWindow;
+import de.mash1t.networklib.FramedTCP;
+import de.mash1t.networklib.HelloPacket;
+import de.mash1t.networklib.ResumePacket;
+import de.mash1t.networklib.RosterPageRequestPacket;
+import de.mash1t.networklib.RosterRequestPacket;
+import de.mash1t.networklib.WireFormat;
 import java.awt.event.KeyEvent;
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -38,6 +55,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import javax.swing.DefaultListModel;
 import static javax.swing.JList.*;
@@ -50,9 +69,21 @@ import static javax.swing.ListSelectionModel.SINGLE_SELECTION;
  */
 public final class ClientGui extends javax.swing.JFrame {
 
+    // Features offered to the server, it selects those it supports
+    private static final int CAPABILITIES = Capability.of(Capability.BinaryCodec, Capability.Compression, Capability.Batching, Capability.Heartbeat, Capability.FlowControl, Capability.Resume);
+
+    // Optional config file of the client, only tcp_nodelay is read from it
+    private static final String CONFIG_FILE = "ClientConfig.ini";
+
     // Socket
     protected Socket clientSocket = null;
-    protected NetworkProtocol networkObj = null;
+    private final boolean tcpNoDelay;
+    protected AbstractNetworkProtocol networkObj = null;
+    // Chat messages are sent as far as the server has granted credit
+    protected CreditWindow creditWindow = null;
+    // Resume token of the session, the window of a lost connection until the server has told which of its messages arrived
+    protected volatile String sessionToken = null;
+    protected volatile CreditWindow lostWindow = null;
 
     // Streams
     protected ObjectOutputStream objOutStream = null;
@@ -82,9 +113,29 @@ public final class ClientGui extends javax.swing.JFrame {
     public ClientGui() {
         initComponents();
 
+        // The client reads its optional config file like the server, missing values keep their defaults
+        ConfigController conf = new ConfigController(CONFIG_FILE);
+        conf.readConfigFile();
+        this.tcpNoDelay = Boolean.parseBoolean(conf.getConfigValueOrDefault(ConfigParam.TcpNoDelay));
+
         // Set up controllers
         this.tabController = new TabController(this.tabbedPane);
         this.userListController = new UserListController(this.lbUsers, tabController);
+        this.tabController.setTabListener(new TabController.TabListener() {
+            @Override
+            public void channelTabClosed(String channel) {
+                if (isConnected) {
+                    networkObj.send(new ChannelLeavePacket(channel, null));
+                }
+            }
+
+            @Override
+            public void conversationTabClosed(long id) {
+                if (isConnected) {
+                    networkObj.send(new ConversationLeavePacket(id));
+                }
+            }
+        });
 
         // Set fields to default value
         tbPort.setText(ConfigParam.Port.getDefaultValue());
@@ -122,7 +173,7 @@ public final class ClientGui extends javax.swing.JFrame {
         tbMessage = new javax.swing.JTextField();
         jPanel1 = new javax.swing.JPanel();
         jScrollPane1 = new javax.swing.JScrollPane();
-        lbUsers = new javax.swing.JList();
+        lbUsers = new javax.swing.JList<>();
         jLabel4 = new javax.swing.JLabel();
         tabbedPane = new javax.swing.JTabbedPane();
 
@@ -258,7 +309,7 @@ public final class ClientGui extends javax.swing.JFrame {
                 .addComponent(tbMessage, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
         );
 
-        lbUsers.setModel(new DefaultListModel());
+        lbUsers.setModel(new DefaultListModel<String>());
         lbUsers.setLayoutOrientation(VERTICAL);
         lbUsers.setSelectionMode(SINGLE_SELECTION);
         lbUsers.setVisibleRowCount(-1);
@@ -375,7 +426,8 @@ public final class ClientGui extends javax.swing.JFrame {
     // TODO Add userlist programmatically
     private void lbUsersValueChanged(javax.swing.event.ListSelectionEvent evt) {//GEN-FIRST:event_lbUsersValueChanged
         List<String> selectedElements = this.lbUsers.getSelectedValuesList();
-        if (!evt.getValueIsAdjusting() && selectedElements.size() > 0) {
+        // Rows of a page which is still loading have no user yet
+        if (!evt.getValueIsAdjusting() && selectedElements.size() > 0 && !selectedElements.contains(RosterListModel.LOADING)) {
             boolean addTab = true;
             int index = -1;
 
@@ -427,11 +479,34 @@ public final class ClientGui extends javax.swing.JFrame {
             try {
                 // Set up socket and streams
                 clientSocket = new Socket(host, port);
-                networkObj = NetworkBasics.makeNetworkProtocolObject(clientSocket);
+                // On by default, every message is flushed as one frame right away, waiting for an ACK would only delay it
+                clientSocket.setTcpNoDelay(tcpNoDelay);
+                FramedTCP framedTCP = new FramedTCP(clientSocket, RoleType.Client);
+                framedTCP.setWireFormat(WireFormat.Binary);
+                networkObj = framedTCP;
+                creditWindow = new CreditWindow(networkObj);
+                userListController.setPageLoader(new RosterListModel.PageLoader() {
+                    @Override
+                    public void requestPage(String prefix, int offset, int limit) {
+                        networkObj.send(new RosterPageRequestPacket(prefix, offset, limit));
+                    }
+                });
 
                 // Create a thread to read from the server
                 new Thread(new ClientGuiThread(this)).start();
 
+                // The server answers with the features it has selected for this connection
+                networkObj.send(new HelloPacket(HelloPacket.VERSION, CAPABILITIES, 0));
+
+                // Asks the server to acknowledge the chat messages of this connection
+                networkObj.send(new AckPacket(0));
+
+                // Roster of the last connection, the server only sends the changes since then
+                RosterRequestPacket rosterRequest = userListController.reconnectRequest();
+                if (rosterRequest != null) {
+                    networkObj.send(rosterRequest);
+                }
+
                 // Send clientName
                 if (networkObj.send(new ConnectPacket(this.clientName))) {
 
@@ -455,6 +530,38 @@ public final class ClientGui extends javax.swing.JFrame {
         return false;
     }
 
+    /**
+     * Continues the session on a new connection after the old one has been lost, the reading thread goes on with the new one
+     *
+     * @param received chat messages received on the lost connection
+     * @return false if the server could not be reached
+     */
+    protected boolean resume(long received) {
+        try {
+            Socket socket = new Socket(host, port);
+            socket.setTcpNoDelay(tcpNoDelay);
+            FramedTCP framedTCP = new FramedTCP(socket, RoleType.Client);
+            framedTCP.setWireFormat(WireFormat.Binary);
+            clientSocket = socket;
+            networkObj = framedTCP;
+            // Messages which the server has not confirmed are sent again once it tells how many it has
+            lostWindow = creditWindow;
+            creditWindow = new CreditWindow(networkObj);
+
+            networkObj.send(new HelloPacket(HelloPacket.VERSION, CAPABILITIES, 0));
+            networkObj.send(new AckPacket(0));
+            RosterRequestPacket rosterRequest = userListController.resumeRequest();
+            if (rosterRequest != null) {
+                networkObj.send(rosterRequest);
+            }
+            networkObj.send(new ResumePacket(sessionToken, received));
+            return networkObj.send(new ConnectPacket(this.clientName));
+        } catch (IOException ex) {
+            de.mash1t.chat.logging.Counters.exception();
+            return false;
+        }
+    }
+
     /**
      * Disconnects the client to the server
      */
@@ -500,13 +607,35 @@ public final class ClientGui extends javax.swing.JFrame {
         //Check if line is empty
         if (!message.equals("")) {
             ChatTab currentChatTab = this.tabController.getCurrentChatTab();
-            if (currentChatTab.getChatType() == ChatType.Private) {
-                // TODO Implement group messages for private chatrooms
+            String title = currentChatTab.getPersons().get(0);
+            if (message.startsWith("/talk ")) {
+                // Private conversation with several users, which the server keeps
+                List<String> invited = new ArrayList<>(Arrays.asList(message.substring(6).trim().split("\\s+")));
+                networkObj.send(new ConversationPacket(0, invited));
+            } else if (message.equals("/leave") && currentChatTab.getConversationId() != 0) {
+                networkObj.send(new ConversationLeavePacket(currentChatTab.getConversationId()));
+            } else if (message.startsWith("/join ")) {
+                networkObj.send(new ChannelJoinPacket(message.substring(6).trim(), null));
+            } else if (message.equals("/leave") || message.startsWith("/leave ")) {
+                // Without a name the channel of the current tab
+                String channel = message.length() > 6 ? message.substring(7).trim() : title;
+                if (TabController.isChannel(channel)) {
+                    networkObj.send(new ChannelLeavePacket(channel, null));
+                }
+            } else if (currentChatTab.getConversationId() != 0) {
+                // Uploaded once, the server sends it to every member
+                creditWindow.send(new ConversationMessagePacket(currentChatTab.getConversationId(), message, this.clientName));
+            } else if (currentChatTab.getChatType() == ChatType.Private) {
+                // One frame for all persons of the tab
+                List<Packet> messages = new ArrayList<>();
                 for (String person : currentChatTab.getPersons()) {
-                    networkObj.send(new PrivateMessagePacket(message, this.clientName, person));
+                    messages.add(new PrivateMessagePacket(message, this.clientName, person));
                 }
+                creditWindow.sendAll(messages);
+            } else if (currentChatTab.getChatType() == ChatType.Group && TabController.isChannel(title)) {
+                creditWindow.send(new ChannelMessagePacket(title, message, this.clientName));
             } else if (currentChatTab.getChatType() == ChatType.Group) {
-                networkObj.send(new GroupMessagePacket(message, this.clientName));
+                creditWindow.send(new GroupMessagePacket(message, this.clientName));
             }
         }
         tbMessage.setText("");
@@ -538,7 +667,7 @@ public final class ClientGui extends javax.swing.JFrame {
             tbMessage.requestFocus();
         } else {
             tabController.terminate();
-            userListController.clearList();
+            userListController.suspend();
             bConnect.setText(connectButtonText.Connect.toString());
         }
 
@@ -615,7 +744,7 @@ public final class ClientGui extends javax.swing.JFrame {
     private javax.swing.JLabel jLabel4;
     private javax.swing.JPanel jPanel1;
     private javax.swing.JScrollPane jScrollPane1;
-    private javax.swing.JList lbUsers;
+    private javax.swing.JList<String> lbUsers;
     private javax.swing.JPanel sendPanel;
     private javax.swing.JTabbedPane tabbedPane;
     private javax.swing.JTextField tbMessage;
@@ -26,7 +26,32 @@ package de.mash1t.chat.client.gui;
 import de.mash1t.networklib.packets.*;
 import de.mash1t.chat.client.gui.tabs.TabController;
 import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.AckPacket;
+import de.mash1t.networklib.AckTracker;
+import de.mash1t.networklib.BatchPacket;
+import de.mash1t.networklib.Capability;
+import de.mash1t.networklib.ChannelJoinPacket;
+import de.mash1t.networklib.ChannelLeavePacket;
+import de.mash1t.networklib.ChannelMessagePacket;
+import de.mash1t.networklib.ConversationMessagePacket;
+import de.mash1t.networklib.ConversationPacket;
+import de.mash1t.networklib.CreditPacket;
+import de.mash1t.networklib.CreditWindow;
+import de.mash1t.networklib.ExtendedPacket;
+import de.mash1t.networklib.HashedTimerWheel;
+import de.mash1t.networklib.HelloPacket;
+import de.mash1t.networklib.PingPacket;
+import de.mash1t.networklib.PongPacket;
+import de.mash1t.networklib.RosterPacket;
+import de.mash1t.networklib.RosterPagePacket;
+import de.mash1t.networklib.RosterRequestPacket;
+import de.mash1t.networklib.SessionPacket;
+import de.mash1t.networklib.UserListDeltaPacket;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This class serves as an outsourced thread, as the gui can only handle one thread (itself)
@@ -38,7 +63,26 @@ public class ClientGuiThread implements Runnable {
     // Current gui thread
     protected ClientGui gui = null;
 
-    protected boolean exitListening = false;
+    protected volatile boolean exitListening = false;
+
+    // Heartbeat, the server may tell another interval in its first pong
+    private static final long DEFAULT_HEARTBEAT_INTERVAL = 15000;
+    private static final int HEARTBEAT_MISSES = 3;
+    private volatile long heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
+    private volatile long lastReceived = System.nanoTime();
+    private final HashedTimerWheel heartbeatTimer = new HashedTimerWheel(250, TimeUnit.MILLISECONDS, 64, "Heartbeat");
+
+    // Chat messages are acknowledged after this many or, at the latest, after the delay
+    private static final int ACK_EVERY = 16;
+    private static final long ACK_DELAY_MILLIS = 250;
+    // Chat messages received on this connection, only changed by the reading thread
+    private volatile long received = 0;
+    private volatile long acknowledged = 0;
+    private final AtomicBoolean ackScheduled = new AtomicBoolean(false);
+
+    // A lost connection is replaced by a new one which resumes the session, the server keeps it for a minute by default
+    private static final int RESUME_ATTEMPTS = 5;
+    private static final long RESUME_DELAY_MILLIS = 2000;
 
     /**
      * Constructor
@@ -66,62 +110,327 @@ public class ClientGuiThread implements Runnable {
             Counters.exception();
         }
 
+        scheduleHeartbeat();
+
         /*
          * Keep on reading from the socket untill "Bye" is received from the
          * server
          */
         Packet responsePacket;
-        PacketType ptype;
-
-        String message, sender, receiver;
         do {
-            responsePacket = null;
             responsePacket = gui.networkObj.read();
-            ptype = responsePacket.getType();
+            lastReceived = System.nanoTime();
+            this.handlePacket(responsePacket);
+            this.acknowledge();
+        } while (!exitListening);
+        heartbeatTimer.stop();
+        // Close the connection as it is no longer needed
+        gui.closeConnection();
+    }
 
-            switch (ptype) {
-                case Disconnect:
-                    exitListening = true;
-                    break;
-                case GM:
-                    GroupMessagePacket gm = ((GroupMessagePacket) responsePacket);
-                    message = gm.getMessage();
-                    sender = gm.getSender();
-
-                    // Always output groupmessage on first tab ("Group Chat")
-                    gui.tabController.outputLineOnGui("<" + sender + "> " + message, 0);
-                    break;
-                case Kick:
-                    // TODO dialog?
-                    gui.tabController.outputLineOnGui(((KickPacket) responsePacket).getMessage());
+    /**
+     * Handles a packet received from the server
+     *
+     * @param responsePacket received packet
+     */
+    private void handlePacket(Packet responsePacket) {
+        if (AckTracker.isSequenced(responsePacket)) {
+            received++;
+        }
+        if (responsePacket instanceof ExtendedPacket) {
+            this.handleExtendedPacket((ExtendedPacket) responsePacket);
+            return;
+        }
+        PacketType ptype = responsePacket.getType();
+        String message, sender, receiver;
+
+        switch (ptype) {
+            case Disconnect:
+                exitListening = true;
+                break;
+            case GM:
+                GroupMessagePacket gm = ((GroupMessagePacket) responsePacket);
+                message = gm.getMessage();
+                sender = gm.getSender();
+
+                // Always output groupmessage on first tab ("Group Chat")
+                gui.tabController.outputLineOnGui("<" + sender + "> " + message, 0);
+                break;
+            case Kick:
+                // TODO dialog?
+                gui.tabController.outputLineOnGui(((KickPacket) responsePacket).getMessage());
+                exitListening = true;
+                break;
+            case PM:
+                PrivateMessagePacket pm = ((PrivateMessagePacket) responsePacket);
+                message = pm.getMessage();
+                sender = pm.getSender();
+                receiver = pm.getReceiver();
+
+                // Get name of other person
+                String person = (gui.clientName.equals(receiver)) ? sender : receiver;
+
+                // TODO fix bug where sender is this client
+                if (gui.tabController.outputLineOnGui("<" + sender + "> " + message, person)) {
+                    if (gui.clientName.equals(sender)) {
+                        gui.tabController.setFocusAt(receiver);
+                    }
+                }
+                break;
+
+            case Userlist:
+                UserListPacket ulPacket = (UserListPacket) responsePacket;
+                gui.userListController.updateUserList(ulPacket);
+                break;
+            case Info:
+                gui.tabController.outputLineOnGui(((MessagePacket) responsePacket).getMessage());
+                break;
+            case Invalid:
+                if (gui.networkObj.isLost() && !exitListening && !this.resume()) {
+                    gui.tabController.outputLineOnGui("*** Connection to the server lost ***");
                     exitListening = true;
-                    break;
-                case PM:
-                    PrivateMessagePacket pm = ((PrivateMessagePacket) responsePacket);
-                    message = pm.getMessage();
-                    sender = pm.getSender();
-                    receiver = pm.getReceiver();
-
-                    // Get name of other person
-                    String person = (gui.clientName.equals(receiver)) ? sender : receiver;
-
-                    // TODO fix bug where sender is this client
-                    if (gui.tabController.outputLineOnGui("<" + sender + "> " + message, person)) {
-                        if (gui.clientName.equals(sender)) {
-                            gui.tabController.setFocusAt(receiver);
-                        }
+                }
+        }
+    }
+
+    /**
+     * Handles a packet which is not part of PacketType
+     *
+     * @param packet received packet
+     */
+    private void handleExtendedPacket(ExtendedPacket packet) {
+        switch (packet.getExtendedType()) {
+            case Ping:
+                gui.networkObj.send(new PongPacket(0));
+                break;
+            case Credit:
+                gui.creditWindow.update((CreditPacket) packet);
+                break;
+            case Hello:
+                // Features the server has selected for this connection
+                HelloPacket hello = (HelloPacket) packet;
+                gui.networkObj.setCapabilities(hello.getCapabilities());
+                if (hello.getHeartbeatInterval() > 0) {
+                    heartbeatInterval = hello.getHeartbeatInterval();
+                }
+                if (!Capability.FlowControl.isIn(hello.getCapabilities())) {
+                    // No credit will come
+                    gui.creditWindow.unlimited();
+                }
+                break;
+            case Session:
+                SessionPacket session = (SessionPacket) packet;
+                gui.sessionToken = session.getToken();
+                CreditWindow lost = gui.lostWindow;
+                gui.lostWindow = null;
+                if (session.isResumed() && lost != null) {
+                    gui.tabController.outputLineOnGui("*** Connection restored ***");
+                    gui.creditWindow.sendAll(lost.takeUnsent(session.getAcknowledged()));
+                }
+                break;
+            case Pong:
+                int interval = ((PongPacket) packet).getInterval();
+                if (interval > 0) {
+                    heartbeatInterval = interval;
+                }
+                break;
+            case UserListDelta:
+                if (!gui.userListController.updateUserList((UserListDeltaPacket) packet)) {
+                    RosterRequestPacket request = gui.userListController.resyncRequest();
+                    if (request != null) {
+                        gui.networkObj.send(request);
+                    }
+                }
+                break;
+            case Roster:
+                gui.userListController.updateUserList((RosterPacket) packet);
+                break;
+            case RosterPage:
+                gui.userListController.updateUserList((RosterPagePacket) packet);
+                break;
+            case ChannelJoin:
+                ChannelJoinPacket join = (ChannelJoinPacket) packet;
+                if (gui.clientName.equals(join.getUser())) {
+                    int index = gui.tabController.openChannelTab(join.getChannel());
+                    gui.tabController.setFocusAt(index);
+                    gui.tabController.outputLineOnGui("*** You joined " + join.getChannel() + " ***", index);
+                } else {
+                    outputOnChannel("*** User \"" + join.getUser() + "\" joined ***", join.getChannel());
+                }
+                break;
+            case ChannelLeave:
+                ChannelLeavePacket leave = (ChannelLeavePacket) packet;
+                if (gui.clientName.equals(leave.getUser())) {
+                    // Confirmation of a leave, the tab may already have been closed by the user
+                    gui.tabController.removeTab(leave.getChannel());
+                } else {
+                    outputOnChannel("*** User \"" + leave.getUser() + "\" left ***", leave.getChannel());
+                }
+                break;
+            case ChannelMessage:
+                ChannelMessagePacket channelMessage = (ChannelMessagePacket) packet;
+                outputOnChannel("<" + channelMessage.getSender() + "> " + channelMessage.getMessage(), channelMessage.getChannel());
+                break;
+            case Conversation:
+                updateConversation((ConversationPacket) packet);
+                break;
+            case ConversationMessage:
+                ConversationMessagePacket conversationMessage = (ConversationMessagePacket) packet;
+                int index = gui.tabController.getConversationTabIndex(conversationMessage.getId());
+                if (index != -1) {
+                    gui.tabController.outputLineOnGui("<" + conversationMessage.getSender() + "> " + conversationMessage.getMessage(), index);
+                }
+                break;
+            case Batch:
+                for (Packet nested : ((BatchPacket) packet).getPackets()) {
+                    if (exitListening) {
+                        break;
                     }
-                    break;
-
-                case Userlist:
-                    UserListPacket ulPacket = (UserListPacket) responsePacket;
-                    gui.userListController.updateUserList(ulPacket);
-                    break;
-                case Info:
-                    gui.tabController.outputLineOnGui(((MessagePacket) responsePacket).getMessage());
+                    this.handlePacket(nested);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Opens, updates or closes the tab of a private conversation after its members have changed
+     *
+     * @param conversation members sent by the server
+     */
+    private void updateConversation(ConversationPacket conversation) {
+        List<String> others = new ArrayList<>(conversation.getMembers());
+        if (!others.remove(gui.clientName)) {
+            // This client has left
+            int index = gui.tabController.getConversationTabIndex(conversation.getId());
+            if (index != -1) {
+                gui.tabController.removeTab(index);
             }
-        } while (!exitListening);
-        // Close the connection as it is no longer needed
-        gui.closeConnection();
+            return;
+        }
+        int index = gui.tabController.getConversationTabIndex(conversation.getId());
+        if (index == -1) {
+            index = gui.tabController.openConversationTab(conversation.getId(), others);
+            StringBuilder names = new StringBuilder();
+            for (String name : others) {
+                names.append(names.length() == 0 ? "" : ", ").append(name);
+            }
+            gui.tabController.outputLineOnGui("*** Conversation with " + names + " ***", index);
+            return;
+        }
+        List<String> before = new ArrayList<>(gui.tabController.getTabAt(index).getPersons());
+        gui.tabController.openConversationTab(conversation.getId(), others);
+        for (String name : before) {
+            if (!others.contains(name)) {
+                gui.tabController.outputLineOnGui("*** User \"" + name + "\" left ***", index);
+            }
+        }
+    }
+
+    /**
+     * Writes a line to the tab of a channel, if it is still open
+     *
+     * @param message line to write
+     * @param channel name of the channel
+     */
+    private void outputOnChannel(String message, String channel) {
+        int index = gui.tabController.getTabIndexByTitle(channel);
+        if (index != -1) {
+            gui.tabController.outputLineOnGui(message, index);
+        }
+    }
+
+    /**
+     * Connects again after the connection has been lost and resumes the session, the server sends the missed messages again
+     *
+     * @return false if there is no session or the server could not be reached
+     */
+    private boolean resume() {
+        if (gui.sessionToken == null) {
+            return false;
+        }
+        for (int attempt = 0; attempt < RESUME_ATTEMPTS; attempt++) {
+            try {
+                Thread.sleep(attempt * RESUME_DELAY_MILLIS);
+            } catch (InterruptedException ex) {
+                Counters.exception();
+                return false;
+            }
+            // A pending ack must not reach the new connection with the count of the old one
+            synchronized (this) {
+                if (gui.resume(received)) {
+                    received = 0;
+                    acknowledged = 0;
+                    lastReceived = System.nanoTime();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Acknowledges the received chat messages, right away after several of them or otherwise a little later
+     */
+    private void acknowledge() {
+        if (!gui.networkObj.supports(Capability.FlowControl)) {
+            return;
+        }
+        if (received - acknowledged >= ACK_EVERY) {
+            sendAck();
+        } else if (received > acknowledged && ackScheduled.compareAndSet(false, true)) {
+            heartbeatTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ackScheduled.set(false);
+                    sendAck();
+                }
+            }, ACK_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Tells the server how many chat messages have been received
+     */
+    private synchronized void sendAck() {
+        long sequence = received;
+        if (sequence > acknowledged && !exitListening) {
+            acknowledged = sequence;
+            gui.networkObj.send(new AckPacket(sequence));
+        }
+    }
+
+    /**
+     * Runs the next heartbeat check after half an interval
+     */
+    private void scheduleHeartbeat() {
+        heartbeatTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                heartbeat();
+            }
+        }, heartbeatInterval / 2, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pings the server when nothing has been sent for an interval and gives up when nothing has been received for several
+     *
+     * Messages typed by the user are heartbeats as well, so a busy connection never sends a ping
+     */
+    private void heartbeat() {
+        if (exitListening) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (TimeUnit.NANOSECONDS.toMillis(now - lastReceived) >= HEARTBEAT_MISSES * heartbeatInterval) {
+            gui.tabController.outputLineOnGui("*** Connection to the server timed out ***");
+            exitListening = true;
+            // Ends the blocked read
+            gui.networkObj.close();
+            return;
+        }
+        if (TimeUnit.NANOSECONDS.toMillis(now - gui.networkObj.getLastSent()) >= heartbeatInterval) {
+            gui.networkObj.send(new PingPacket());
+        }
+        scheduleHeartbeat();
     }
 }
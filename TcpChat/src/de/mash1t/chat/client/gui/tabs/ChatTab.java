@@ -47,6 +47,8 @@ public final class ChatTab {
     private final int index;
     private final String title;
     private final List<String> persons;
+    // Id of the private conversation on the server, 0 for a chat with one person
+    private long conversationId = 0;
 
     /**
      * Constructor
@@ -139,6 +141,24 @@ public final class ChatTab {
         return persons;
     }
 
+    /**
+     * Getter of the id of the private conversation
+     *
+     * @return id or 0 if the tab is no conversation
+     */
+    public long getConversationId() {
+        return conversationId;
+    }
+
+    /**
+     * Setter of the id of the private conversation
+     *
+     * @param conversationId id on the server
+     */
+    public void setConversationId(long conversationId) {
+        this.conversationId = conversationId;
+    }
+
     /**
      * Scrolls to the bottom of the chatArea
      */
@@ -150,7 +170,7 @@ public final class ChatTab {
      * Removes this ChatTab from the tabbedPane
      */
     public void remove() {
-        tabController.removeTab(index);
+        tabController.closeTab(this);
     }
 
     /**
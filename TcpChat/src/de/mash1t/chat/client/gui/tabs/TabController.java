@@ -42,6 +42,27 @@ public final class TabController {
     private final int persistentTabs = 1;
 
     private int activeChatTab = 0;
+    private TabListener tabListener = null;
+
+    /**
+     * Gets told when the user closes a tab which has to be left on the server
+     */
+    public interface TabListener {
+
+        /**
+         * Called after the tab of a channel has been closed by the user
+         *
+         * @param channel name of the channel
+         */
+        void channelTabClosed(String channel);
+
+        /**
+         * Called after the tab of a private conversation has been closed by the user
+         *
+         * @param id id of the conversation
+         */
+        void conversationTabClosed(long id);
+    }
 
     /**
      * Constructor
@@ -52,6 +73,25 @@ public final class TabController {
         this.tabbedPane = tabPane;
     }
 
+    /**
+     * Setter for the listener of closed channel and conversation tabs
+     *
+     * @param tabListener listener, null for none
+     */
+    public void setTabListener(TabListener tabListener) {
+        this.tabListener = tabListener;
+    }
+
+    /**
+     * Checks if a tab title is the name of a channel
+     *
+     * @param title title of the tab
+     * @return true for channels, their names start with '#'
+     */
+    public static boolean isChannel(String title) {
+        return title.startsWith("#");
+    }
+
     /**
      * Initialize components
      */
@@ -93,14 +133,10 @@ public final class TabController {
         // Create new ChatTab
         ChatTab chatTab = new ChatTab(chatType, tabbedPane, this, persons);
         // Add ChatTab to tabbedPane
-        if (persons.size() > 1) {
-            // TODO group chats?
-            //tabbedPane.add(persons[0] + ", ...", chatTab.getScrollPane());
-        } else {
-            tabbedPane.add(persons.get(0), chatTab.getScrollPane());
-        }
+        tabbedPane.add(titleOf(persons), chatTab.getScrollPane());
 
-        if (chatType.hasCloseElement()) {
+        // Group tabs after the persistent ones are channels, which can be left
+        if (chatType.hasCloseElement() || (chatType == ChatType.Group && chatTabs.size() >= persistentTabs)) {
             // Initialize new closing element for the tab if set in the type
             tabbedPane.setTabComponentAt(chatTab.getIndex(), new ButtonTabComponent(chatTab));
         }
@@ -117,15 +153,105 @@ public final class TabController {
      * @return boolean if tab was removed
      */
     public boolean removeTab(String title) {
-        for (int i = persistentTabs; i < tabbedPane.getTabCount(); i++) {
-            String tabTitle = tabbedPane.getTitleAt(i);
-            if (title.equals(tabTitle)) {
-                tabbedPane.remove(i);
-                chatTabs.remove(i);
-                return true;
+        int index = getTabIndexByTitle(title);
+        if (index == -1) {
+            return false;
+        }
+        removeTab(index);
+        return true;
+    }
+
+    /**
+     * Removes a tab the user has closed, tells the listener if it was a channel
+     *
+     * @param chatTab tab to close
+     */
+    public void closeTab(ChatTab chatTab) {
+        int index = chatTabs.indexOf(chatTab);
+        if (index < persistentTabs) {
+            return;
+        }
+        removeTab(index);
+        if (tabListener == null) {
+            return;
+        }
+        if (chatTab.getConversationId() != 0) {
+            tabListener.conversationTabClosed(chatTab.getConversationId());
+        } else if (chatTab.getChatType() == ChatType.Group) {
+            tabListener.channelTabClosed(chatTab.getPersons().get(0));
+        }
+    }
+
+    /**
+     * Opens the tab of a private conversation or updates the persons of an open one
+     *
+     * @param id id of the conversation
+     * @param others members of the conversation except this client
+     * @return index of the tab
+     */
+    public synchronized int openConversationTab(long id, List<String> others) {
+        int index = getConversationTabIndex(id);
+        if (index == -1) {
+            index = addTab(new ArrayList<>(others), ChatType.Private);
+            chatTabs.get(index).setConversationId(id);
+        } else if (!others.isEmpty()) {
+            List<String> persons = chatTabs.get(index).getPersons();
+            persons.clear();
+            persons.addAll(others);
+            tabbedPane.setTitleAt(index, titleOf(persons));
+        }
+        return index;
+    }
+
+    /**
+     * Getter for the index of the tab of a private conversation
+     *
+     * @param id id of the conversation
+     * @return index of tab or -1 if not found
+     */
+    public int getConversationTabIndex(long id) {
+        for (int i = persistentTabs; i < chatTabs.size(); i++) {
+            if (chatTabs.get(i).getConversationId() == id) {
+                return i;
             }
         }
-        return false;
+        return -1;
+    }
+
+    /**
+     * Title of a tab with the given persons
+     *
+     * @param persons persons of the tab
+     * @return names separated by commas, at most three of them
+     */
+    private static String titleOf(List<String> persons) {
+        if (persons.isEmpty()) {
+            return "Conversation";
+        }
+        StringBuilder title = new StringBuilder(persons.get(0));
+        for (int i = 1; i < persons.size() && i < 3; i++) {
+            title.append(", ").append(persons.get(i));
+        }
+        if (persons.size() > 3) {
+            title.append(", ...");
+        }
+        return title.toString();
+    }
+
+    /**
+     * Opens the tab of a channel, if it is not open yet
+     *
+     * @param channel name of the channel
+     * @return index of the tab
+     */
+    public synchronized int openChannelTab(String channel) {
+        int index = getTabIndexByTitle(channel);
+        if (index == -1) {
+            List<String> chat = new ArrayList<>();
+            chat.add(channel);
+            index = addTab(chat, ChatType.Group);
+        }
+        return index;
     }
 
     /**
@@ -179,7 +305,8 @@ public final class TabController {
     public int getTabIndexByTitle(String title) {
         for (int i = persistentTabs; i < tabbedPane.getTabCount(); i++) {
             String tabTitle = tabbedPane.getTitleAt(i);
-            if (title.equals(tabTitle)) {
+            // Conversations are found by their id, one with a single other person has the same title as a private chat
+            if (title.equals(tabTitle) && chatTabs.get(i).getConversationId() == 0) {
                 return i;
             }
         }
@@ -0,0 +1,289 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.client.gui.userlist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.swing.AbstractListModel;
+
+/**
+ * Sorted list model of the userlist
+ *
+ * A small roster is held completely. A large one is only known by its size, pages are requested from the server when the JList asks for a row which has not been loaded and only the last MAX_PAGES
+ * pages are kept, so memory does not grow with the room. The list is updated by the thread which reads from the server and painted by the event dispatch thread, so every access is synchronized
+ *
+ * @author Manuel Schmid
+ */
+public final class RosterListModel extends AbstractListModel<String> {
+
+    /**
+     * Shown for rows whose page is still loading, too short to be a nickname
+     */
+    public static final String LOADING = "...";
+
+    /**
+     * Rows per requested page
+     */
+    public static final int PAGE_SIZE = 100;
+
+    private static final int MAX_PAGES = 20;
+
+    /**
+     * Requests pages of a large roster
+     */
+    public interface PageLoader {
+
+        /**
+         * Asks the server for a page, the answer is passed to putPage()
+         *
+         * @param prefix only names with this prefix, empty for all
+         * @param offset first row
+         * @param limit count of rows
+         */
+        void requestPage(String prefix, int offset, int limit);
+    }
+
+    // All names while the roster is small, kept sorted
+    private final List<String> names = new ArrayList<>();
+    private boolean paged = false;
+    private String prefix = "";
+    private int total = 0;
+    // Loaded pages by their number, least recently used first
+    private final Map<Integer, String[]> pages = new LinkedHashMap<Integer, String[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    private final Set<Integer> requested = new HashSet<>();
+    private PageLoader loader = null;
+
+    /**
+     * Setter for the loader of the pages
+     *
+     * @param loader loader, null while there is no connection
+     */
+    public synchronized void setPageLoader(PageLoader loader) {
+        this.loader = loader;
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return paged ? total : names.size();
+    }
+
+    @Override
+    public synchronized String getElementAt(int index) {
+        if (!paged) {
+            return names.get(index);
+        }
+        int page = index / PAGE_SIZE;
+        String[] rows = pages.get(page);
+        if (rows == null) {
+            request(page);
+            return LOADING;
+        }
+        int row = index % PAGE_SIZE;
+        return row < rows.length ? rows[row] : LOADING;
+    }
+
+    /**
+     * Checks if only the size of the roster is known
+     *
+     * @return true for a large roster which is loaded page by page
+     */
+    public synchronized boolean isPaged() {
+        return paged;
+    }
+
+    /**
+     * Holds all names of a small roster
+     *
+     * @param all names in any order
+     */
+    public synchronized void setNames(List<String> all) {
+        int oldSize = getSize();
+        paged = false;
+        clearPages();
+        names.clear();
+        names.addAll(all);
+        Collections.sort(names);
+        changed(oldSize);
+    }
+
+    /**
+     * Switches to a large roster, of which only the first rows are known
+     *
+     * @param size count of all names
+     * @param first names of the first page, sorted
+     */
+    public synchronized void setPaged(int size, List<String> first) {
+        int oldSize = getSize();
+        names.clear();
+        clearPages();
+        paged = true;
+        prefix = "";
+        total = size;
+        storePage(0, first);
+        changed(oldSize);
+    }
+
+    /**
+     * Shows only names with a prefix, the rows are loaded again
+     *
+     * @param filter prefix, empty for all names
+     */
+    public synchronized void setPrefix(String filter) {
+        if (!paged || filter.equals(prefix)) {
+            return;
+        }
+        prefix = filter;
+        clearPages();
+        fireContentsChanged(this, 0, Math.max(total - 1, 0));
+    }
+
+    /**
+     * Stores a page sent by the server, pages of an old prefix are dropped
+     *
+     * @param pagePrefix prefix of the query
+     * @param offset first row of the page
+     * @param size count of all names matching the prefix
+     * @param rows names of the page, sorted
+     */
+    public synchronized void putPage(String pagePrefix, int offset, int size, List<String> rows) {
+        if (!paged || !pagePrefix.equals(prefix) || offset % PAGE_SIZE != 0) {
+            return;
+        }
+        int oldSize = total;
+        total = size;
+        storePage(offset / PAGE_SIZE, rows);
+        if (oldSize != total) {
+            changed(oldSize);
+        } else if (total > 0) {
+            fireContentsChanged(this, offset, Math.min(offset + PAGE_SIZE, total) - 1);
+        }
+    }
+
+    /**
+     * Forgets the loaded pages after the roster has changed, the visible ones are requested again when they are painted
+     */
+    public synchronized void invalidate() {
+        if (paged) {
+            clearPages();
+            if (total > 0) {
+                fireContentsChanged(this, 0, total - 1);
+            }
+        }
+    }
+
+    /**
+     * Adds a name to a small roster
+     *
+     * @param name nickname
+     * @return false if it is already listed
+     */
+    public synchronized boolean add(String name) {
+        int index = Collections.binarySearch(names, name);
+        if (paged || index >= 0) {
+            return false;
+        }
+        index = -index - 1;
+        names.add(index, name);
+        fireIntervalAdded(this, index, index);
+        return true;
+    }
+
+    /**
+     * Removes a name from a small roster
+     *
+     * @param name nickname
+     * @return false if it has not been listed
+     */
+    public synchronized boolean remove(String name) {
+        int index = Collections.binarySearch(names, name);
+        if (paged || index < 0) {
+            return false;
+        }
+        names.remove(index);
+        fireIntervalRemoved(this, index, index);
+        return true;
+    }
+
+    /**
+     * Getter for all names of a small roster
+     *
+     * @return copy of the names, empty for a large roster
+     */
+    public synchronized List<String> getNames() {
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Removes all names
+     */
+    public synchronized void clear() {
+        int oldSize = getSize();
+        paged = false;
+        names.clear();
+        clearPages();
+        total = 0;
+        changed(oldSize);
+    }
+
+    private void request(int page) {
+        if (loader != null && requested.add(page)) {
+            loader.requestPage(prefix, page * PAGE_SIZE, PAGE_SIZE);
+        }
+    }
+
+    private void storePage(int page, List<String> rows) {
+        requested.remove(page);
+        pages.put(page, rows.toArray(new String[rows.size()]));
+    }
+
+    private void clearPages() {
+        pages.clear();
+        requested.clear();
+    }
+
+    /**
+     * Tells the JList that all rows may have changed
+     *
+     * @param oldSize size before the change
+     */
+    private void changed(int oldSize) {
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+        int size = getSize();
+        if (size > 0) {
+            fireIntervalAdded(this, 0, size - 1);
+        }
+    }
+}
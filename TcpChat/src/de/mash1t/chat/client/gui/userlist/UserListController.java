@@ -24,11 +24,12 @@
 package de.mash1t.chat.client.gui.userlist;
 
 import de.mash1t.chat.client.gui.tabs.TabController;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
-import javax.swing.DefaultListModel;
 import javax.swing.JList;
+import de.mash1t.networklib.RosterPacket;
+import de.mash1t.networklib.RosterPagePacket;
+import de.mash1t.networklib.RosterRequestPacket;
+import de.mash1t.networklib.UserListDeltaPacket;
 import de.mash1t.networklib.packets.UserListPacket;
 
 /**
@@ -38,27 +39,119 @@ import de.mash1t.networklib.packets.UserListPacket;
  */
 public final class UserListController {
 
-    private final JList lbUsers;
-    private final DefaultListModel listModel;
+    // Longest nickname the server accepts, every cell gets its size so the list never measures all rows
+    private static final String PROTOTYPE_NAME = "WWWWWWWWWWWWWWW";
+
+    private final JList<String> lbUsers;
+    private final RosterListModel listModel = new RosterListModel();
     private final TabController tabController;
 
+    // Version of the roster shown by the list, kept over a reconnect together with the names
+    private long rosterEpoch = 0;
+    private long rosterVersion = -1;
+    private List<String> suspendedNames = null;
+    private boolean resyncRequested = false;
+
     /**
      * Constructor
      *
      * @param lbUsers userlist on gui
      * @param tabController
      */
-    public UserListController(JList lbUsers, TabController tabController) {
+    public UserListController(JList<String> lbUsers, TabController tabController) {
         this.lbUsers = lbUsers;
         this.tabController = tabController;
-        this.listModel = ((DefaultListModel) lbUsers.getModel());
+        lbUsers.setModel(listModel);
+        lbUsers.setPrototypeCellValue(PROTOTYPE_NAME);
+    }
+
+    /**
+     * Setter for the loader of the pages of a large roster
+     *
+     * @param loader loader which sends the requests, null without a connection
+     */
+    public void setPageLoader(RosterListModel.PageLoader loader) {
+        listModel.setPageLoader(loader);
     }
 
     /**
      * Removes all entries from the list
      */
     public void clearList() {
-        listModel.removeAllElements();
+        listModel.clear();
+    }
+
+    /**
+     * Empties the list after the connection has been closed, but remembers the names and the roster version for a reconnect
+     *
+     * Of a large roster only some pages are known, so it is loaded again after the reconnect
+     */
+    public void suspend() {
+        if (listModel.isPaged()) {
+            rosterVersion = -1;
+            suspendedNames = null;
+        } else if (rosterVersion >= 0) {
+            suspendedNames = listModel.getNames();
+        }
+        resyncRequested = false;
+        clearList();
+    }
+
+    /**
+     * Creates the request a reconnecting client sends in front of its ConnectPacket
+     *
+     * @return request for the changes since the remembered roster, null if there is none
+     */
+    public RosterRequestPacket reconnectRequest() {
+        return suspendedNames == null ? null : new RosterRequestPacket(rosterEpoch, rosterVersion);
+    }
+
+    /**
+     * Creates the request a client sends in front of its ConnectPacket when it resumes its session, the list is still shown
+     *
+     * @return request for the changes since the shown roster, null if only some pages of it are known
+     */
+    public RosterRequestPacket resumeRequest() {
+        return listModel.isPaged() || rosterVersion < 0 ? null : new RosterRequestPacket(rosterEpoch, rosterVersion);
+    }
+
+    /**
+     * Creates the request after a missed delta, only once until the answer has arrived
+     *
+     * @return request or null if one is already on its way
+     */
+    public RosterRequestPacket resyncRequest() {
+        if (resyncRequested) {
+            return null;
+        }
+        resyncRequested = true;
+        return new RosterRequestPacket(rosterEpoch, rosterVersion);
+    }
+
+    /**
+     * Replaces the list with the whole roster
+     *
+     * @param roster roster sent by the server
+     */
+    public void updateUserList(RosterPacket roster) {
+        suspendedNames = null;
+        resyncRequested = false;
+        rosterEpoch = roster.getEpoch();
+        rosterVersion = roster.getVersion();
+        if (roster.isPaged()) {
+            listModel.setPaged(roster.getTotal(), roster.getNames());
+        } else {
+            listModel.setNames(roster.getNames());
+        }
+    }
+
+    /**
+     * Shows a page of a large roster
+     *
+     * @param page page sent by the server
+     */
+    public void updateUserList(RosterPagePacket page) {
+        listModel.putPage(page.getPrefix(), page.getOffset(), page.getTotal(), page.getNames());
     }
 
     /**
@@ -70,24 +163,57 @@ public final class UserListController {
         String name = ulPacket.getUser();
         switch (ulPacket.getUserListType()) {
             case Connected:
-                listModel.addElement(name);
+                listModel.add(name);
                 appendInfoMessage("*** User \"" + name + "\" joined ***", name);
-                sortUserList();
                 break;
             case Disconnected:
-                listModel.removeElement(name);
+                listModel.remove(name);
                 appendInfoMessage("*** User \"" + name + "\" left ***", name);
                 break;
 
             case Full:
-                clearList();
-                // TODO sort users
-                List<String> userlist = ulPacket.getUserList();
-                Collections.sort(userlist);
-                for (String user : userlist) {
-                    listModel.addElement(user);
-                }
+                // Not versioned, a reconnect has to start from scratch
+                rosterVersion = -1;
+                suspendedNames = null;
+                listModel.setNames(ulPacket.getUserList());
+        }
+    }
+
+    /**
+     * Applies all joins and leaves of a presence window at once
+     *
+     * Joins of listed users and leaves of unlisted ones are ignored, the server may send them to a client which has logged in during the window. A delta which does not start at the version of the list
+     * is ignored, as a delta before it has been missed. A large roster only loads its visible pages again
+     *
+     * @param delta changes of the window
+     * @return false if a delta has been missed and the roster has to be requested again
+     */
+    public boolean updateUserList(UserListDeltaPacket delta) {
+        if (delta.getFromVersion() != rosterVersion) {
+            return false;
+        }
+        if (suspendedNames != null) {
+            // First delta after a reconnect, it starts at the remembered roster
+            listModel.setNames(suspendedNames);
+            suspendedNames = null;
+        }
+        rosterVersion = delta.getToVersion();
+        resyncRequested = false;
+        boolean paged = listModel.isPaged();
+        for (String name : delta.getLeft()) {
+            if (paged || listModel.remove(name)) {
+                appendInfoMessage("*** User \"" + name + "\" left ***", name);
+            }
+        }
+        for (String name : delta.getJoined()) {
+            if (paged || listModel.add(name)) {
+                appendInfoMessage("*** User \"" + name + "\" joined ***", name);
+            }
+        }
+        if (paged && (!delta.getJoined().isEmpty() || !delta.getLeft().isEmpty())) {
+            listModel.invalidate();
         }
+        return true;
     }
 
     /**
@@ -102,19 +228,4 @@ public final class UserListController {
             tabController.appendTextToChat(message, index);
         }
     }
-
-    /**
-     * Sort the userlist alphabetically
-     */
-    private void sortUserList() {
-        String[] names = new String[listModel.getSize()];
-        for (int i = 0; i < names.length; i++) {
-            names[i] = listModel.getElementAt(i).toString();
-        }
-        Arrays.sort(names);
-        clearList();
-        for (String name : names) {
-            listModel.addElement(name);
-        }
-    }
 }
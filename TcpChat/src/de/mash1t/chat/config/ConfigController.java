@@ -49,7 +49,16 @@ public final class ConfigController {
      * Constructor, directly loads configurations from file into internal variable
      */
     public ConfigController() {
-        this.fileName = "ServerConfig.ini";
+        this("ServerConfig.ini");
+    }
+
+    /**
+     * Constructor for another config file
+     *
+     * @param fileName name of the config file
+     */
+    public ConfigController(String fileName) {
+        this.fileName = fileName;
     }
 
     /**
@@ -83,6 +92,17 @@ public final class ConfigController {
         return properties.getProperty(param.getConfigString());
     }
 
+    /**
+     * Getter for a parameter which may be missing, e.g. in the optional config file of the client
+     *
+     * @param param the param to get the configuration from
+     * @return configuration set in file, the default value if it is missing or invalid
+     */
+    public String getConfigValueOrDefault(ConfigParam param) {
+        String value = getConfigValue(param);
+        return value != null && validateParam(param, value) ? value : param.getDefaultValue();
+    }
+
     /**
      * Validates all set values
      *
@@ -111,13 +131,40 @@ public final class ConfigController {
      * @return
      */
     private boolean validateParam(ConfigParam param, String temp) {
-        switch (param) {
-            case Port:
-                int port = Integer.parseInt(temp);
-                if (port < 1 || port > 65535) {
-                    return false;
-                }
-                break;
+        if (!param.isAllowedValue(temp)) {
+            return false;
+        }
+        try {
+            switch (param) {
+                case Port:
+                    int port = Integer.parseInt(temp);
+                    if (port < 1 || port > 65535) {
+                        return false;
+                    }
+                    break;
+                case EventLoops:
+                case OutboundBudget:
+                case StreamResetPackets:
+                case StreamResetSize:
+                case FlushWindow:
+                case HandshakeTimeout:
+                case LoginTimeout:
+                case HeartbeatInterval:
+                case PresenceWindow:
+                case PresenceWindowMax:
+                case RosterPageThreshold:
+                case ConversationRetention:
+                case FlowWindow:
+                case FlowBacklog:
+                case ResumeGrace:
+                case CompressionThreshold:
+                    if (Integer.parseInt(temp) < 0) {
+                        return false;
+                    }
+                    break;
+            }
+        } catch (NumberFormatException ex) {
+            return false;
         }
         return true;
     }
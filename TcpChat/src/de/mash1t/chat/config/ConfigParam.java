@@ -33,19 +33,60 @@ public enum ConfigParam {
     Port("port", "8000"),
     LogFiles("log_to_files", "true"),
     LogConsole("log_to_console", "false"),
-    CleanLogsOnStartup("clean_logs_on_start", "false");
+    CleanLogsOnStartup("clean_logs_on_start", "false"),
+    ServerEngine("server_engine", "classic", "classic", "nio"),
+    ThreadMode("thread_mode", "platform", "platform", "virtual"),
+    // 0 = one event loop per available processor
+    EventLoops("event_loops", "0"),
+    // Kilobytes which may wait for a slow client, 0 = no limit
+    OutboundBudget("outbound_budget_kb", "256"),
+    SlowConsumerPolicy("slow_consumer_policy", "drop_oldest", "drop_oldest", "kick", "catch_up"),
+    // Object streams of legacy clients are reset after this many packets or kilobytes, 0 = no limit
+    StreamResetPackets("stream_reset_packets", "256"),
+    StreamResetSize("stream_reset_kb", "64"),
+    // Reports pooled buffers of the nio engine which are never released, costs a stack trace per buffer
+    BufferPoolDebug("buffer_pool_debug", "false", "true", "false"),
+    // Microseconds a writer waits for further packets before flushing, 0 = flush as soon as the queue is empty
+    FlushWindow("flush_window_us", "0"),
+    TcpNoDelay("tcp_nodelay", "true", "true", "false"),
+    // Milliseconds a client of the classic engine has to send its first bytes, 0 = no limit
+    HandshakeTimeout("handshake_timeout_ms", "5000"),
+    // Milliseconds a client has to log in after the handshake, 0 = no limit
+    LoginTimeout("login_timeout_ms", "10000"),
+    // Milliseconds of silence after which a client sends a ping, a client which pings is dropped after 3 silent intervals, 0 = no eviction
+    HeartbeatInterval("heartbeat_interval_ms", "15000"),
+    // Milliseconds joins and leaves are collected before they are sent, 0 = send each right away
+    PresenceWindow("presence_window_ms", "50"),
+    // Limit of the presence window, which grows while many clients join or leave
+    PresenceWindowMax("presence_window_max_ms", "1000"),
+    // Users from which clients get only the first page of the roster and load the rest while scrolling, 0 = always the whole roster
+    RosterPageThreshold("roster_page_threshold", "1000"),
+    // Milliseconds a private conversation is kept after its last member has gone offline
+    ConversationRetention("conversation_retention_ms", "600000"),
+    // Chat messages a client may send ahead of their acknowledgment, 0 = no limit
+    FlowWindow("flow_window", "64"),
+    // Packets waiting per recipient at which senders get no more credit, 0 = never throttle
+    FlowBacklog("flow_backlog", "256"),
+    // Milliseconds the session of a client whose connection has been lost is kept for it to resume, 0 = no resumption
+    ResumeGrace("resume_grace_ms", "60000"),
+    // Bytes from which on payloads are deflated for clients which support it, 0 = no compression
+    CompressionThreshold("compression_threshold", "1024");
 
     private final String configString;
     private final String defaultValue;
+    private final String[] allowedValues;
 
     /**
      * Constructor
      *
-     * @param name
+     * @param configString key in the config file
+     * @param defaultValue value for the default config file
+     * @param allowedValues values which are accepted, empty for any value
      */
-    ConfigParam(String configString, String defaultValue) {
+    ConfigParam(String configString, String defaultValue, String... allowedValues) {
         this.configString = configString;
         this.defaultValue = defaultValue;
+        this.allowedValues = allowedValues;
     }
 
     /**
@@ -65,4 +106,22 @@ public enum ConfigParam {
     public String getDefaultValue() {
         return defaultValue;
     }
+
+    /**
+     * Checks if a value is allowed for this parameter
+     *
+     * @param value value to check
+     * @return true if allowed or if the parameter accepts any value
+     */
+    public boolean isAllowedValue(String value) {
+        if (allowedValues.length == 0) {
+            return true;
+        }
+        for (String allowedValue : allowedValues) {
+            if (allowedValue.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
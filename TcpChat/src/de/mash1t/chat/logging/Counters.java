@@ -23,6 +23,11 @@
  */
 package de.mash1t.chat.logging;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 /**
  * Contains all counters
  *
@@ -107,6 +112,970 @@ public final class Counters {
 
     }
 
+    /**
+     * Contains the load of the event loop shards of the non-blocking engine
+     */
+    public static class Shards {
+
+        /**
+         * connections currently served by each shard
+         */
+        public static AtomicIntegerArray connections = new AtomicIntegerArray(0);
+
+        /**
+         * selected read/write events handled by each shard
+         */
+        public static AtomicLongArray events = new AtomicLongArray(0);
+    }
+
+    /**
+     * Contains the outbound queues of all connections
+     */
+    public static class Outbound {
+
+        /**
+         * Buckets of the queue depth histogram, the last one counts all deeper queues
+         */
+        public static final int DEPTH_BUCKETS = 16;
+
+        /**
+         * packets currently waiting in outbound queues
+         */
+        public static AtomicInteger queued = new AtomicInteger(0);
+
+        /**
+         * highest depth a single outbound queue has reached
+         */
+        public static AtomicInteger maxDepth = new AtomicInteger(0);
+
+        /**
+         * connections by the current depth of their outbound queue, bucket i counts depths from 2^i to 2^(i+1)-1, the last bucket all deeper ones, empty queues are not counted
+         */
+        public static AtomicIntegerArray depths = new AtomicIntegerArray(DEPTH_BUCKETS);
+
+        /**
+         * flushes of buffered packets to blocking sockets
+         */
+        public static AtomicLong flushes = new AtomicLong(0);
+    }
+
+    /**
+     * Contains how often the slow consumer policy has been triggered
+     */
+    public static class SlowConsumers {
+
+        /**
+         * group messages dropped by the DropOldest policy
+         */
+        public static AtomicInteger dropped = new AtomicInteger(0);
+
+        /**
+         * clients dropped by the Kick policy
+         */
+        public static AtomicInteger kicked = new AtomicInteger(0);
+
+        /**
+         * pauses of the CatchUp policy
+         */
+        public static AtomicInteger paused = new AtomicInteger(0);
+    }
+
+    /**
+     * Contains counters of the object streams of legacy connections
+     */
+    public static class Streams {
+
+        /**
+         * resets of back-reference tables
+         */
+        public static AtomicLong resets = new AtomicLong(0);
+
+        /**
+         * bytes all open object streams keep reachable for back references, should stay flat during long runs
+         */
+        public static AtomicLong retainedBytes = new AtomicLong(0);
+
+        /**
+         * most bytes one object stream has kept reachable between two resets
+         */
+        public static AtomicLong maxRetainedBytes = new AtomicLong(0);
+    }
+
+    /**
+     * Contains the usage of the pooled direct buffers
+     */
+    public static class Buffers {
+
+        /**
+         * buffers taken from the pool
+         */
+        public static AtomicLong hits = new AtomicLong(0);
+
+        /**
+         * buffers which had to be allocated
+         */
+        public static AtomicLong misses = new AtomicLong(0);
+
+        /**
+         * buffers currently in use
+         */
+        public static AtomicInteger outstanding = new AtomicInteger(0);
+
+        /**
+         * buffers which have been collected without being released
+         */
+        public static AtomicInteger leaks = new AtomicInteger(0);
+    }
+
+    /**
+     * Contains the accepted sockets and their handshakes, rates are derived by comparing two readings
+     */
+    public static class Handshakes {
+
+        /**
+         * sockets accepted by the accept loop
+         */
+        public static AtomicLong accepted = new AtomicLong(0);
+
+        /**
+         * handshakes which have been completed
+         */
+        public static AtomicLong completed = new AtomicLong(0);
+
+        /**
+         * sockets closed because the handshake missed its deadline
+         */
+        public static AtomicInteger timedOut = new AtomicInteger(0);
+
+        /**
+         * sockets closed because the handshake failed
+         */
+        public static AtomicInteger failed = new AtomicInteger(0);
+
+        /**
+         * sum of the times from accept to completed handshake, divided by completed it gives the average
+         */
+        public static AtomicLong totalNanos = new AtomicLong(0);
+
+        /**
+         * longest time from accept to completed handshake
+         */
+        public static AtomicLong maxNanos = new AtomicLong(0);
+
+        /**
+         * connections which have agreed on their features with a HelloPacket
+         */
+        public static AtomicLong negotiated = new AtomicLong(0);
+
+        /**
+         * negotiated connections by selected feature, indexed by the bit of the capability
+         */
+        public static AtomicLongArray capabilities = new AtomicLongArray(32);
+    }
+
+    /**
+     * Contains the timeouts of the timer wheel
+     */
+    public static class Timers {
+
+        /**
+         * timeouts which have been scheduled
+         */
+        public static AtomicLong scheduled = new AtomicLong(0);
+
+        /**
+         * timeouts which have fired
+         */
+        public static AtomicLong expired = new AtomicLong(0);
+
+        /**
+         * timeouts which have been cancelled in time
+         */
+        public static AtomicLong cancelled = new AtomicLong(0);
+
+        /**
+         * connections closed because the client has not logged in within the deadline
+         */
+        public static AtomicInteger loginTimeouts = new AtomicInteger(0);
+    }
+
+    /**
+     * Contains the heartbeats of idle connections
+     */
+    public static class Heartbeats {
+
+        /**
+         * pings received from clients
+         */
+        public static AtomicLong pings = new AtomicLong(0);
+
+        /**
+         * pongs sent to clients
+         */
+        public static AtomicLong pongs = new AtomicLong(0);
+
+        /**
+         * pings answered by other traffic instead of a pong
+         */
+        public static AtomicLong suppressed = new AtomicLong(0);
+
+        /**
+         * clients dropped because nothing has been received for several intervals
+         */
+        public static AtomicInteger evicted = new AtomicInteger(0);
+    }
+
+    /**
+     * Contains the coalesced joins and leaves
+     */
+    public static class Presence {
+
+        /**
+         * joins and leaves
+         */
+        public static AtomicLong changes = new AtomicLong(0);
+
+        /**
+         * users who have left within the window they joined in, or the other way round
+         */
+        public static AtomicLong cancelled = new AtomicLong(0);
+
+        /**
+         * windows which have been sent
+         */
+        public static AtomicLong batches = new AtomicLong(0);
+
+        /**
+         * current length of the window
+         */
+        public static AtomicLong windowMillis = new AtomicLong(0);
+
+        /**
+         * clients which have got the changes since their roster version
+         */
+        public static AtomicLong caughtUp = new AtomicLong(0);
+
+        /**
+         * clients which have got the whole roster
+         */
+        public static AtomicLong rosters = new AtomicLong(0);
+
+        /**
+         * pages of large rosters which have been sent
+         */
+        public static AtomicLong pages = new AtomicLong(0);
+    }
+
+    /**
+     * Contains the named channels, the counters of a single channel are kept by the channel
+     */
+    public static class Channels {
+
+        /**
+         * currently open channels
+         */
+        public static AtomicInteger open = new AtomicInteger(0);
+
+        /**
+         * joins of all channels
+         */
+        public static AtomicLong joins = new AtomicLong(0);
+
+        /**
+         * leaves of all channels, including those of disconnected clients
+         */
+        public static AtomicLong leaves = new AtomicLong(0);
+
+        /**
+         * messages sent to channels
+         */
+        public static AtomicLong messages = new AtomicLong(0);
+
+        /**
+         * packets written to members of channels
+         */
+        public static AtomicLong deliveries = new AtomicLong(0);
+    }
+
+    /**
+     * Contains the private conversations
+     */
+    public static class Conversations {
+
+        /**
+         * currently existing conversations
+         */
+        public static AtomicInteger open = new AtomicInteger(0);
+
+        /**
+         * conversations dropped because no member has come back
+         */
+        public static AtomicLong expired = new AtomicLong(0);
+
+        /**
+         * messages sent to conversations
+         */
+        public static AtomicLong messages = new AtomicLong(0);
+
+        /**
+         * packets written to members of conversations
+         */
+        public static AtomicLong deliveries = new AtomicLong(0);
+    }
+
+    /**
+     * Contains the batches of several packets in one frame
+     */
+    public static class Batches {
+
+        /**
+         * batches written
+         */
+        public static AtomicLong sent = new AtomicLong(0);
+
+        /**
+         * packets written inside of batches
+         */
+        public static AtomicLong packetsSent = new AtomicLong(0);
+
+        /**
+         * batches read
+         */
+        public static AtomicLong received = new AtomicLong(0);
+
+        /**
+         * packets read inside of batches
+         */
+        public static AtomicLong packetsReceived = new AtomicLong(0);
+    }
+
+    /**
+     * Contains the acknowledgments and the credit of chat messages
+     */
+    public static class Flow {
+
+        /**
+         * Buckets of the ack latency histogram, the last one counts everything slower
+         */
+        public static final int LATENCY_BUCKETS = 16;
+
+        /**
+         * acks by latency, bucket 0 below 1 ms and bucket i from 2^(i-1) up to 2^i ms
+         */
+        public static AtomicLongArray ackLatency = new AtomicLongArray(LATENCY_BUCKETS);
+
+        /**
+         * acks which advanced the acknowledged messages
+         */
+        public static AtomicLong acks = new AtomicLong(0);
+
+        /**
+         * chat messages written to clients and not acknowledged yet
+         */
+        public static AtomicLong outstanding = new AtomicLong(0);
+
+        /**
+         * credit packets sent to clients
+         */
+        public static AtomicLong credits = new AtomicLong(0);
+
+        /**
+         * credits with a smaller window because the recipients are behind
+         */
+        public static AtomicLong throttled = new AtomicLong(0);
+
+        /**
+         * clients kicked for sending beyond their credit
+         */
+        public static AtomicInteger overruns = new AtomicInteger(0);
+    }
+
+    /**
+     * Contains the sessions which have lost their connection
+     */
+    public static class Sessions {
+
+        /**
+         * sessions kept after their connection has been lost
+         */
+        public static AtomicInteger suspended = new AtomicInteger(0);
+
+        /**
+         * sessions continued on a new connection
+         */
+        public static AtomicInteger resumed = new AtomicInteger(0);
+
+        /**
+         * sessions which have not been resumed within the grace period or could not be resumed
+         */
+        public static AtomicInteger expired = new AtomicInteger(0);
+
+        /**
+         * packets written again to resumed sessions
+         */
+        public static AtomicLong replayed = new AtomicLong(0);
+    }
+
+    /**
+     * Contains the compression of large payloads, a broadcast is deflated once but sent to all recipients
+     */
+    public static class Compression {
+
+        /**
+         * payloads which have been deflated
+         */
+        public static AtomicLong deflated = new AtomicLong(0);
+
+        /**
+         * deflated payloads which have been sent as they were because they did not get smaller
+         */
+        public static AtomicLong incompressible = new AtomicLong(0);
+
+        /**
+         * time spent deflating
+         */
+        public static AtomicLong deflateNanos = new AtomicLong(0);
+
+        /**
+         * compressed frames written to connections
+         */
+        public static AtomicLong sent = new AtomicLong(0);
+
+        /**
+         * bytes the compressed frames have saved on the wire
+         */
+        public static AtomicLong saved = new AtomicLong(0);
+
+        /**
+         * received payloads which have been inflated
+         */
+        public static AtomicLong inflated = new AtomicLong(0);
+
+        /**
+         * time spent inflating
+         */
+        public static AtomicLong inflateNanos = new AtomicLong(0);
+    }
+
+    /**
+     * Sets up the shard counters
+     *
+     * @param count number of shards
+     */
+    public static void initShards(int count) {
+        Shards.connections = new AtomicIntegerArray(count);
+        Shards.events = new AtomicLongArray(count);
+    }
+
+    /**
+     * Increase connection count of a shard
+     *
+     * @param shard number of the shard
+     */
+    public static void shardConnected(int shard) {
+        Shards.connections.incrementAndGet(shard);
+    }
+
+    /**
+     * Decrease connection count of a shard
+     *
+     * @param shard number of the shard
+     */
+    public static void shardDisconnected(int shard) {
+        Shards.connections.decrementAndGet(shard);
+    }
+
+    /**
+     * Increase event count of a shard
+     *
+     * @param shard number of the shard
+     */
+    public static void shardEvent(int shard) {
+        Shards.events.incrementAndGet(shard);
+    }
+
+    /**
+     * Increase count of queued outbound packets
+     *
+     * @param depth depth of the queue after adding the packet
+     */
+    public static void queued(int depth) {
+        Outbound.queued.incrementAndGet();
+        int max = Outbound.maxDepth.get();
+        while (depth > max && !Outbound.maxDepth.compareAndSet(max, depth)) {
+            max = Outbound.maxDepth.get();
+        }
+        depthChanged(depth - 1, depth);
+    }
+
+    /**
+     * Decrease count of queued outbound packets
+     *
+     * @param depth depth of the queue after removing the packet
+     */
+    public static void dequeued(int depth) {
+        Outbound.queued.decrementAndGet();
+        depthChanged(depth + 1, depth);
+    }
+
+    /**
+     * Moves a connection to the bucket of its new queue depth
+     *
+     * @param from depth before the change
+     * @param to depth after the change
+     */
+    private static void depthChanged(int from, int to) {
+        int fromBucket = depthBucket(from);
+        int toBucket = depthBucket(to);
+        if (fromBucket != toBucket) {
+            if (fromBucket >= 0) {
+                Outbound.depths.decrementAndGet(fromBucket);
+            }
+            if (toBucket >= 0) {
+                Outbound.depths.incrementAndGet(toBucket);
+            }
+        }
+    }
+
+    /**
+     * Finds the bucket of a queue depth in Outbound.depths
+     *
+     * @param depth depth of a queue
+     * @return index of the bucket, -1 for an empty queue
+     */
+    public static int depthBucket(int depth) {
+        if (depth <= 0) {
+            return -1;
+        }
+        return Math.min(31 - Integer.numberOfLeadingZeros(depth), Outbound.DEPTH_BUCKETS - 1);
+    }
+
+    /**
+     * Increase counter of group messages dropped for slow clients
+     */
+    public static void slowConsumerDropped() {
+        SlowConsumers.dropped.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of slow clients which have been kicked
+     */
+    public static void slowConsumerKicked() {
+        SlowConsumers.kicked.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of flushes to blocking sockets
+     */
+    public static void outboundFlushed() {
+        Outbound.flushes.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of slow clients whose group messages have been paused
+     */
+    public static void slowConsumerPaused() {
+        SlowConsumers.paused.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of object stream resets
+     */
+    public static void streamReset() {
+        Streams.resets.incrementAndGet();
+    }
+
+    /**
+     * Changes the bytes object streams keep reachable
+     *
+     * @param change difference since the last call of the same stream
+     * @param retained bytes the stream keeps reachable now
+     */
+    public static void streamRetained(long change, long retained) {
+        Streams.retainedBytes.addAndGet(change);
+        long max = Streams.maxRetainedBytes.get();
+        while (retained > max && !Streams.maxRetainedBytes.compareAndSet(max, retained)) {
+            max = Streams.maxRetainedBytes.get();
+        }
+    }
+
+    /**
+     * Increase counter of buffers taken from the pool
+     */
+    public static void bufferHit() {
+        Buffers.hits.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of buffers which had to be allocated
+     */
+    public static void bufferMiss() {
+        Buffers.misses.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of buffers in use
+     */
+    public static void bufferAcquired() {
+        Buffers.outstanding.incrementAndGet();
+    }
+
+    /**
+     * Decrease counter of buffers in use
+     */
+    public static void bufferReleased() {
+        Buffers.outstanding.decrementAndGet();
+    }
+
+    /**
+     * Increase counter of leaked buffers
+     */
+    public static void bufferLeaked() {
+        Buffers.leaks.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of accepted sockets
+     */
+    public static void socketAccepted() {
+        Handshakes.accepted.incrementAndGet();
+    }
+
+    /**
+     * Adds a completed handshake
+     *
+     * @param nanos time from accept to completed handshake
+     */
+    public static void handshakeCompleted(long nanos) {
+        Handshakes.completed.incrementAndGet();
+        Handshakes.totalNanos.addAndGet(nanos);
+        long max = Handshakes.maxNanos.get();
+        while (nanos > max && !Handshakes.maxNanos.compareAndSet(max, nanos)) {
+            max = Handshakes.maxNanos.get();
+        }
+    }
+
+    /**
+     * Count a connection which has agreed on its features
+     *
+     * @param capabilities bits of the selected capabilities
+     */
+    public static void handshakeNegotiated(int capabilities) {
+        Handshakes.negotiated.incrementAndGet();
+        for (int bit = 0; bit < 32; bit++) {
+            if ((capabilities & (1 << bit)) != 0) {
+                Handshakes.capabilities.incrementAndGet(bit);
+            }
+        }
+    }
+
+    /**
+     * Increase counter of handshakes which missed their deadline
+     */
+    public static void handshakeTimedOut() {
+        Handshakes.timedOut.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of failed handshakes
+     */
+    public static void handshakeFailed() {
+        Handshakes.failed.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of scheduled timeouts
+     */
+    public static void timerScheduled() {
+        Timers.scheduled.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of expired timeouts
+     */
+    public static void timerExpired() {
+        Timers.expired.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of cancelled timeouts
+     */
+    public static void timerCancelled() {
+        Timers.cancelled.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of connections which did not log in in time
+     */
+    public static void loginTimedOut() {
+        Timers.loginTimeouts.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of received pings
+     *
+     * @param answered true if a pong has been sent back
+     */
+    public static void pingReceived(boolean answered) {
+        Heartbeats.pings.incrementAndGet();
+        if (answered) {
+            Heartbeats.pongs.incrementAndGet();
+        } else {
+            Heartbeats.suppressed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Increase counter of idle clients which have been dropped
+     */
+    public static void idleEvicted() {
+        Heartbeats.evicted.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of joins and leaves
+     */
+    public static void presenceChanged() {
+        Presence.changes.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of joins and leaves which have cancelled each other
+     */
+    public static void presenceCancelled() {
+        Presence.cancelled.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of sent presence windows
+     */
+    public static void presenceBatch() {
+        Presence.batches.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of clients which have been brought up to date with a delta
+     */
+    public static void rosterCaughtUp() {
+        Presence.caughtUp.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of clients which have got the whole roster
+     */
+    public static void rosterSent() {
+        Presence.rosters.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of sent roster pages
+     */
+    public static void rosterPageSent() {
+        Presence.pages.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of open channels
+     */
+    public static void channelOpened() {
+        Channels.open.incrementAndGet();
+    }
+
+    /**
+     * Decrease counter of open channels
+     */
+    public static void channelClosed() {
+        Channels.open.decrementAndGet();
+    }
+
+    /**
+     * Increase counter of channel joins
+     */
+    public static void channelJoin() {
+        Channels.joins.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of channel leaves
+     */
+    public static void channelLeave() {
+        Channels.leaves.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of channel messages
+     */
+    public static void channelMessage() {
+        Channels.messages.incrementAndGet();
+    }
+
+    /**
+     * Add packets written to the members of a channel
+     *
+     * @param count count of members which got the packet
+     */
+    public static void channelDeliveries(int count) {
+        Channels.deliveries.addAndGet(count);
+    }
+
+    /**
+     * Increase counter of existing conversations
+     */
+    public static void conversationOpened() {
+        Conversations.open.incrementAndGet();
+    }
+
+    /**
+     * Decrease counter of existing conversations
+     */
+    public static void conversationClosed() {
+        Conversations.open.decrementAndGet();
+    }
+
+    /**
+     * Increase counter of expired conversations
+     */
+    public static void conversationExpired() {
+        Conversations.expired.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of conversation messages
+     */
+    public static void conversationMessage() {
+        Conversations.messages.incrementAndGet();
+    }
+
+    /**
+     * Add packets written to the members of a conversation
+     *
+     * @param count count of members which got the packet
+     */
+    public static void conversationDeliveries(int count) {
+        Conversations.deliveries.addAndGet(count);
+    }
+
+    /**
+     * Increase counters of written batches
+     *
+     * @param count count of packets in the batch
+     */
+    public static void batchSent(int count) {
+        Batches.sent.incrementAndGet();
+        Batches.packetsSent.addAndGet(count);
+    }
+
+    /**
+     * Count an ack in the latency histogram
+     *
+     * @param nanos time between writing the acknowledged message and receiving the ack
+     */
+    public static void ackLatency(long nanos) {
+        long millis = nanos / 1000000;
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(Math.max(millis, 0)), Flow.LATENCY_BUCKETS - 1);
+        Flow.ackLatency.incrementAndGet(bucket);
+        Flow.acks.incrementAndGet();
+    }
+
+    /**
+     * Change the count of unacknowledged chat messages
+     *
+     * @param delta added messages, negative for acknowledged ones
+     */
+    public static void flowOutstanding(long delta) {
+        Flow.outstanding.addAndGet(delta);
+    }
+
+    /**
+     * Increase counters of credit packets
+     *
+     * @param throttled true if the window has been reduced
+     */
+    public static void creditSent(boolean throttled) {
+        Flow.credits.incrementAndGet();
+        if (throttled) {
+            Flow.throttled.incrementAndGet();
+        }
+    }
+
+    /**
+     * Increase counter of clients which have sent beyond their credit
+     */
+    public static void flowOverrun() {
+        Flow.overruns.incrementAndGet();
+    }
+
+    /**
+     * Increase counter of suspended sessions
+     */
+    public static void sessionSuspended() {
+        Sessions.suspended.incrementAndGet();
+    }
+
+    /**
+     * Increase counters of resumed sessions
+     *
+     * @param replayed packets the client had missed
+     */
+    public static void sessionResumed(int replayed) {
+        Sessions.resumed.incrementAndGet();
+        Sessions.replayed.addAndGet(replayed);
+    }
+
+    /**
+     * Increase counter of expired sessions
+     */
+    public static void sessionExpired() {
+        Sessions.expired.incrementAndGet();
+    }
+
+    /**
+     * Increase counters of deflated payloads
+     *
+     * @param nanos time spent deflating
+     */
+    public static void payloadDeflated(long nanos) {
+        Compression.deflated.incrementAndGet();
+        Compression.deflateNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Increase counter of payloads which did not get smaller
+     */
+    public static void payloadIncompressible() {
+        Compression.incompressible.incrementAndGet();
+    }
+
+    /**
+     * Increase counters of written compressed frames
+     *
+     * @param saved bytes saved by the frame
+     */
+    public static void compressedSent(int saved) {
+        Compression.sent.incrementAndGet();
+        Compression.saved.addAndGet(saved);
+    }
+
+    /**
+     * Increase counters of inflated payloads
+     *
+     * @param nanos time spent inflating
+     */
+    public static void payloadInflated(long nanos) {
+        Compression.inflated.incrementAndGet();
+        Compression.inflateNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Increase counters of read batches
+     *
+     * @param count count of packets in the batch
+     */
+    public static void batchReceived(int count) {
+        Batches.received.incrementAndGet();
+        Batches.packetsReceived.addAndGet(count);
+    }
+
     /**
      * Increase login count
      */
@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.PacketFrame;
+import de.mash1t.networklib.packets.Packet;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named channel with its members
+ *
+ * A message of a channel is encoded once and only written to its members, the other clients are not touched
+ *
+ * @author Manuel Schmid
+ */
+public final class Channel {
+
+    private final String name;
+    private final Set<ClientThread> members = Collections.newSetFromMap(new ConcurrentHashMap<ClientThread, Boolean>());
+    private final AtomicInteger modCount = new AtomicInteger(0);
+    private volatile Snapshot snapshot = null;
+
+    // Counters of this channel
+    private final AtomicLong messages = new AtomicLong(0);
+    private final AtomicLong deliveries = new AtomicLong(0);
+    private final AtomicLong joins = new AtomicLong(0);
+
+    /**
+     * Constructor
+     *
+     * @param name name of the channel
+     */
+    public Channel(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Getter for the name
+     *
+     * @return name, starting with '#'
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Adds a member
+     *
+     * @param client client which joins
+     * @return false if it already is a member
+     */
+    protected boolean add(ClientThread client) {
+        if (!members.add(client)) {
+            return false;
+        }
+        modCount.incrementAndGet();
+        joins.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Removes a member
+     *
+     * @param client client which leaves
+     * @return false if it has not been a member
+     */
+    protected boolean remove(ClientThread client) {
+        if (!members.remove(client)) {
+            return false;
+        }
+        modCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Checks if a client is a member
+     *
+     * @param client client to check
+     * @return true for members
+     */
+    public boolean isMember(ClientThread client) {
+        return members.contains(client);
+    }
+
+    /**
+     * Getter for the count of members
+     *
+     * @return members
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * Getter for all members, the array is not changed by later joins or leaves
+     *
+     * @return snapshot of the members
+     */
+    public ClientThread[] members() {
+        Snapshot current = snapshot;
+        int currentModCount = modCount.get();
+        if (current == null || current.modCount != currentModCount) {
+            current = new Snapshot(currentModCount, members.toArray(new ClientThread[0]));
+            snapshot = current;
+        }
+        return current.members;
+    }
+
+    /**
+     * Sends a message of a member to all members
+     *
+     * @param packet ChannelMessagePacket to send
+     */
+    protected void sendMessage(Packet packet) {
+        messages.incrementAndGet();
+        Counters.channelMessage();
+        send(packet);
+    }
+
+    /**
+     * Encodes a packet once and writes it to all online members
+     *
+     * @param packet packet to send
+     * @return count of members which got the packet
+     */
+    protected int send(Packet packet) {
+        PacketFrame frame = PacketFrame.of(packet);
+        int count = 0;
+        for (ClientThread member : members()) {
+            if (member.state == ConnectionState.Online) {
+                member.conLib.send(frame);
+                count++;
+            }
+        }
+        deliveries.addAndGet(count);
+        Counters.channelDeliveries(count);
+        return count;
+    }
+
+    /**
+     * Getter for the count of messages sent to this channel
+     *
+     * @return messages
+     */
+    public long getMessages() {
+        return messages.get();
+    }
+
+    /**
+     * Getter for the count of packets written to members of this channel
+     *
+     * @return deliveries
+     */
+    public long getDeliveries() {
+        return deliveries.get();
+    }
+
+    /**
+     * Getter for the count of joins since the channel has been opened
+     *
+     * @return joins
+     */
+    public long getJoins() {
+        return joins.get();
+    }
+
+    /**
+     * Array of members together with the modCount it was built at
+     */
+    private static final class Snapshot {
+
+        private final int modCount;
+        private final ClientThread[] members;
+
+        private Snapshot(int modCount, ClientThread[] members) {
+            this.modCount = modCount;
+            this.members = members;
+        }
+    }
+}
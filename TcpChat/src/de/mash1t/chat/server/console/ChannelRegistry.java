@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.ChannelJoinPacket;
+import de.mash1t.networklib.ChannelLeavePacket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registry of all open channels
+ *
+ * A channel is opened by its first join and closed when its last member has left. Every client knows the names of its channels, so a disconnect does not scan all channels
+ *
+ * @author Manuel Schmid
+ */
+public final class ChannelRegistry {
+
+    /**
+     * Maximum length of a channel name, including the '#'
+     */
+    public static final int MAX_NAME_LENGTH = 32;
+
+    /**
+     * Maximum count of channels a client can be member of
+     */
+    public static final int MAX_CHANNELS_PER_CLIENT = 50;
+
+    private final ConcurrentMap<String, Channel> byName = new ConcurrentHashMap<>();
+    // Makes opening, joining, leaving and closing one step
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Checks a channel name
+     *
+     * @param name name to check
+     * @return true for '#' followed by up to 31 letters without whitespace
+     */
+    public static boolean isValidName(String name) {
+        if (name == null || name.length() < 2 || name.length() > MAX_NAME_LENGTH || name.charAt(0) != '#') {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isWhitespace(c) || Character.isISOControl(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a client to a channel, opens it if needed and tells all members
+     *
+     * @param name name of the channel, has to be valid
+     * @param client client which joins
+     * @return false if it already is a member
+     */
+    public boolean join(String name, ClientThread client) {
+        Channel channel;
+        lock.lock();
+        try {
+            channel = byName.get(name);
+            if (channel == null) {
+                channel = new Channel(name);
+                byName.put(name, channel);
+                Counters.channelOpened();
+            }
+            if (!channel.add(client)) {
+                return false;
+            }
+            client.memberships.add(name);
+        } finally {
+            lock.unlock();
+        }
+        Counters.channelJoin();
+        channel.send(new ChannelJoinPacket(name, client.clientName));
+        return true;
+    }
+
+    /**
+     * Removes a client from a channel, tells it and the remaining members and closes the channel after its last member
+     *
+     * @param name name of the channel
+     * @param client client which leaves
+     * @return false if it has not been a member
+     */
+    public boolean leave(String name, ClientThread client) {
+        Channel channel = remove(name, client);
+        if (channel == null) {
+            return false;
+        }
+        ChannelLeavePacket packet = new ChannelLeavePacket(name, client.clientName);
+        channel.send(packet);
+        if (client.state == ConnectionState.Online) {
+            // The leaving client closes its tab on the confirmation
+            client.conLib.send(packet);
+        }
+        return true;
+    }
+
+    /**
+     * Removes a client which has disconnected from all its channels
+     *
+     * @param client client which has disconnected
+     */
+    public void leaveAll(ClientThread client) {
+        for (String name : new ArrayList<>(client.memberships)) {
+            leave(name, client);
+        }
+    }
+
+    private Channel remove(String name, ClientThread client) {
+        lock.lock();
+        try {
+            Channel channel = byName.get(name);
+            if (channel == null || !channel.remove(client)) {
+                return null;
+            }
+            client.memberships.remove(name);
+            if (channel.size() == 0) {
+                byName.remove(name);
+                Counters.channelClosed();
+            }
+            Counters.channelLeave();
+            return channel;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for an open channel
+     *
+     * @param name name of the channel
+     * @return channel or null if it is not open
+     */
+    public Channel get(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Getter for all open channels
+     *
+     * @return copy of the channels
+     */
+    public List<Channel> getChannels() {
+        return new ArrayList<>(byName.values());
+    }
+
+    /**
+     * Getter for the count of open channels
+     *
+     * @return count of channels
+     */
+    public int size() {
+        return byName.size();
+    }
+}
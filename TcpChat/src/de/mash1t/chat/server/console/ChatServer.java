@@ -28,16 +28,22 @@ import de.mash1t.networklib.packets.KickPacket;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import de.mash1t.chat.logging.*;
 import de.mash1t.networklib.AbstractNetworkProtocol;
+import de.mash1t.networklib.BufferPool;
+import de.mash1t.networklib.HashedTimerWheel;
+import de.mash1t.networklib.SlowConsumerPolicy;
+import de.mash1t.networklib.TransportSettings;
 import de.mash1t.networklib.methods.NetworkProtocolType;
 import de.mash1t.chat.config.ConfigController;
 import de.mash1t.chat.config.ConfigParam;
 import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class ChatServer initializes threads and accepts new clients
@@ -47,8 +53,8 @@ public final class ChatServer {
     // Setting up client
     // maxClientsCount = 0 means infinite clients
     protected static final int maxClientsCount = 0;
-    protected static final List<ClientThread> threads = new ArrayList<>();
-    protected static List<String> userList = new ArrayList<>();
+    protected static final ClientRegistry clients = new ClientRegistry();
+    protected static final ChannelRegistry channels = new ChannelRegistry();
 
     // Logging
     protected static Logger logConnection;
@@ -57,6 +63,24 @@ public final class ChatServer {
     protected static LoggingController logControl = null;
     protected static NetworkProtocolType nwpType = NetworkProtocolType.TCP;
 
+    // Executor which runs the ClientThreads, either on platform or on virtual threads
+    protected static ExecutorService clientExecutor;
+    // Non-blocking engine, null when the classic engine is used
+    protected static NioServer nioServer = null;
+    // Handshakes of the classic engine
+    protected static HandshakeStage handshakes = null;
+    // Login deadlines and other timeouts of all connections
+    protected static HashedTimerWheel timers = null;
+    protected static long loginTimeoutMillis = 0;
+    protected static long heartbeatIntervalMillis = 0;
+    // Joins and leaves, sent to all clients in batches
+    protected static PresenceBroadcaster presence = new PresenceBroadcaster(null, 0, 0, 0);
+    protected static ConversationRegistry conversations = new ConversationRegistry(null, 0);
+    protected static FlowController flow = new FlowController(null, 0, 0);
+    protected static SessionRegistry sessions = new SessionRegistry(null, 0);
+    private static final long TIMER_TICK_MILLIS = 100;
+    private static final int TIMER_TICKS_PER_WHEEL = 512;
+
     // Config controller
     private static final ConfigController conf = new ConfigController();
 
@@ -100,35 +124,72 @@ public final class ChatServer {
         System.out.println("Server started on port " + portNumber);
         logControl.log(logGeneral, Level.INFO, "Server started on port " + portNumber);
 
+        // Adding shutdown handle
+        Runtime.getRuntime().addShutdownHook(new ShutdownHandle());
+
+        clientExecutor = createClientExecutor(conf.getConfigValue(ConfigParam.ThreadMode));
+        // Outbound queues of the blocking protocols are written by tasks on the same executor
+        TransportSettings.setWriterExecutor(clientExecutor);
+        TransportSettings.setOutboundBudget(Long.parseLong(conf.getConfigValue(ConfigParam.OutboundBudget)) * 1024);
+        TransportSettings.setSlowConsumerPolicy(SlowConsumerPolicy.fromConfigString(conf.getConfigValue(ConfigParam.SlowConsumerPolicy)));
+        TransportSettings.setStreamReset(Integer.parseInt(conf.getConfigValue(ConfigParam.StreamResetPackets)),
+                Long.parseLong(conf.getConfigValue(ConfigParam.StreamResetSize)) * 1024);
+        TransportSettings.setFlushWindowMicros(Long.parseLong(conf.getConfigValue(ConfigParam.FlushWindow)));
+        TransportSettings.setTcpNoDelay(Boolean.parseBoolean(conf.getConfigValue(ConfigParam.TcpNoDelay)));
+        TransportSettings.setCompressionThreshold(Integer.parseInt(conf.getConfigValue(ConfigParam.CompressionThreshold)));
+        TransportSettings.setLogger(logException);
+        BufferPool.shared().setLeakDetection(Boolean.parseBoolean(conf.getConfigValue(ConfigParam.BufferPoolDebug)));
+
+        timers = new HashedTimerWheel(TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS, TIMER_TICKS_PER_WHEEL, "TimerWheel");
+        loginTimeoutMillis = Long.parseLong(conf.getConfigValue(ConfigParam.LoginTimeout));
+        handshakes = new HandshakeStage(clientExecutor, timers, Long.parseLong(conf.getConfigValue(ConfigParam.HandshakeTimeout)));
+        heartbeatIntervalMillis = Long.parseLong(conf.getConfigValue(ConfigParam.HeartbeatInterval));
+        presence = new PresenceBroadcaster(timers, Long.parseLong(conf.getConfigValue(ConfigParam.PresenceWindow)),
+                Long.parseLong(conf.getConfigValue(ConfigParam.PresenceWindowMax)), Integer.parseInt(conf.getConfigValue(ConfigParam.RosterPageThreshold)));
+        conversations = new ConversationRegistry(timers, Long.parseLong(conf.getConfigValue(ConfigParam.ConversationRetention)));
+        flow = new FlowController(timers, Integer.parseInt(conf.getConfigValue(ConfigParam.FlowWindow)),
+                Integer.parseInt(conf.getConfigValue(ConfigParam.FlowBacklog)));
+        sessions = new SessionRegistry(timers, Long.parseLong(conf.getConfigValue(ConfigParam.ResumeGrace)));
+
+        if (conf.getConfigValue(ConfigParam.ServerEngine).equals("nio")) {
+            logControl.log(logGeneral, Level.INFO, "Using non-blocking server engine");
+            int eventLoops = Integer.parseInt(conf.getConfigValue(ConfigParam.EventLoops));
+            if (eventLoops == 0) {
+                eventLoops = Runtime.getRuntime().availableProcessors();
+            }
+            try {
+                nioServer = new NioServer(portNumber, eventLoops);
+                nioServer.run();
+            } catch (IOException ex) {
+                System.out.println(ex);
+                logControl.log(logException, Level.SEVERE, "Could not start event loops");
+                logControl.log(logGeneral, Level.SEVERE, "Exiting Server");
+                Counters.exception();
+            }
+        } else {
+            runClassicServer(portNumber);
+        }
+    }
+
+    /**
+     * Accepts clients and hands them to the HandshakeStage, which starts a ClientThread for each of them
+     *
+     * @param portNumber port to listen on
+     */
+    private static void runClassicServer(int portNumber) {
+
         // Open a server socket on the portNumber (default 8000)
         try {
             ServerSocket serverSocket = new ServerSocket(portNumber);
 
-            // Adding shutdown handle
-            Runtime.getRuntime().addShutdownHook(new ShutdownHandle());
-
-            Socket clientSocket = null;
-
-            // Create client socket for each connection
+            // The accept loop only accepts, nothing here may wait for a client
             while (true) {
                 try {
-                    // Handle for new connection, put it into empty array-slot
-                    clientSocket = serverSocket.accept();
+                    Socket clientSocket = serverSocket.accept();
                     Counters.connection();
-                    // maxClientsCount = 0 means infinite clients
-                    if (threads.size() < maxClientsCount || maxClientsCount == 0) {
-                        ClientThread clientThread = new ClientThread(clientSocket);
-                        threads.add(clientThread);
-                        clientThread.start();
-                        logControl.log(logConnection, Level.INFO, clientSocket.getRemoteSocketAddress() + ": accepted, thread started");
-                        Counters.login();
-                    } else {
-                        // Only when maxclients is reached        
-                        RejectionThread fThread = new RejectionThread(clientSocket);
-                        fThread.start();
-                    }
+                    handshakes.submit(clientSocket);
                 } catch (IOException ex) {
-                    logControl.log(logException, Level.SEVERE, "Could not start thread for " + clientSocket.getInetAddress().toString() + ": " + ex.getMessage());
+                    logControl.log(logException, Level.SEVERE, "Could not accept connection: " + ex.getMessage());
                     de.mash1t.chat.logging.Counters.exception();
                 }
             }
@@ -141,6 +202,28 @@ public final class ChatServer {
         }
     }
 
+    /**
+     * Creates the executor for the ClientThreads
+     *
+     * Virtual threads need a JDK 21 runtime, so they are looked up by reflection. On older runtimes platform threads are used instead
+     *
+     * @param threadMode "platform" or "virtual"
+     * @return executor with one thread per task
+     */
+    protected static ExecutorService createClientExecutor(String threadMode) {
+        if (threadMode.equals("virtual")) {
+            try {
+                ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                logControl.log(logGeneral, Level.INFO, "Running clients on virtual threads");
+                return executor;
+            } catch (ReflectiveOperationException ex) {
+                logControl.log(logGeneral, Level.WARNING, "Virtual threads are not supported by this runtime, using platform threads");
+                Counters.exception();
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
     /**
      * Initializes loggers with LoggingController
      */
@@ -156,13 +239,14 @@ public final class ChatServer {
      * @return
      */
     public static List<String> getUserList() {
-        return userList;
-
+        return clients.getNames();
     }
 }
 
 class ShutdownHandle extends Thread {
 
+    private static final long SHUTDOWN_DRAIN_MILLIS = 1000;
+
     @Override
     public void run() {
 
@@ -172,12 +256,26 @@ class ShutdownHandle extends Thread {
         ChatServer.logControl.log(ChatServer.logConnection, Level.INFO, "*** SERVER IS GOING DOWN ***");
 
         // Send closing of server to all clients
-        for (ClientThread thread : ChatServer.threads) {
+        for (ClientThread thread : ChatServer.clients.snapshot()) {
             if (thread.state == ConnectionState.Online) {
                 AbstractNetworkProtocol.send(new KickPacket("*** SERVER IS GOING DOWN ***"), thread, ChatServer.nwpType);
             }
         }
 
+        // Give the writers a moment to deliver the queued packets
+        long deadline = System.currentTimeMillis() + SHUTDOWN_DRAIN_MILLIS;
+        while (Counters.Outbound.queued.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ex) {
+                break;
+            }
+        }
+
+        if (ChatServer.timers != null) {
+            ChatServer.timers.stop();
+        }
+
         // Close loggers
         ChatServer.logControl.closeLoggers();
 
@@ -0,0 +1,280 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.networklib.PacketFrame;
+import de.mash1t.networklib.RosterPagePacket;
+import de.mash1t.networklib.packets.UserListPacket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry of all connected clients
+ *
+ * Online clients are indexed by their nickname, so private messages and the check for used nicknames need no scan over all clients. Claiming a nickname is atomic, two clients can never get the same name
+ *
+ * @author Manuel Schmid
+ */
+public final class ClientRegistry {
+
+    /**
+     * Maximum count of nicknames in one page
+     */
+    public static final int MAX_PAGE = 500;
+
+    private final ConcurrentMap<String, ClientThread> byName = new ConcurrentHashMap<>();
+    // The same nicknames in order, for the pages of large rosters
+    private final ConcurrentSkipListSet<String> sortedNames = new ConcurrentSkipListSet<>();
+    private final AtomicInteger connections = new AtomicInteger(0);
+
+    // Counts changes of membership, a cached snapshot is only valid for the count it was built at
+    private final AtomicInteger modCount = new AtomicInteger(0);
+    private volatile Snapshot snapshot = null;
+    private volatile UserListFrame userList = null;
+    private volatile SortedNames sorted = null;
+
+    /**
+     * Registers a new connection, which has not yet chosen a nickname
+     *
+     * @param client client of the connection
+     */
+    public void register(ClientThread client) {
+        connections.incrementAndGet();
+    }
+
+    /**
+     * Removes a connection and releases its nickname
+     *
+     * @param client client of the connection
+     */
+    public void unregister(ClientThread client) {
+        connections.decrementAndGet();
+        release(client);
+    }
+
+    /**
+     * Claims a nickname for a client
+     *
+     * @param name nickname to claim
+     * @param client client which wants the nickname
+     * @return false if the nickname is already in use
+     */
+    public boolean claim(String name, ClientThread client) {
+        if (byName.putIfAbsent(name, client) != null) {
+            return false;
+        }
+        sortedNames.add(name);
+        modCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Releases the nickname of a client, if it has claimed one
+     *
+     * @param client client to release
+     */
+    public void release(ClientThread client) {
+        String name = client.clientName;
+        if (name != null && byName.remove(name, client)) {
+            sortedNames.remove(name);
+            modCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Getter for a client by nickname
+     *
+     * @param name nickname of the client
+     * @return client or null if nobody uses the nickname
+     */
+    public ClientThread get(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Getter for all clients which have claimed a nickname
+     *
+     * The returned array is not changed by later logins or logouts, so it can be iterated while others connect or disconnect
+     *
+     * @return snapshot of the clients
+     */
+    public ClientThread[] snapshot() {
+        Snapshot current = snapshot;
+        int currentModCount = modCount.get();
+        if (current == null || current.modCount != currentModCount) {
+            Collection<ClientThread> values = byName.values();
+            current = new Snapshot(currentModCount, values.toArray(new ClientThread[values.size()]));
+            snapshot = current;
+        }
+        return current.clients;
+    }
+
+    /**
+     * Getter for all used nicknames
+     *
+     * @return list of nicknames
+     */
+    public List<String> getNames() {
+        return new ArrayList<>(byName.keySet());
+    }
+
+    /**
+     * Getter for the first nicknames in order
+     *
+     * @param limit maximum count of nicknames
+     * @return sorted nicknames
+     */
+    public List<String> getFirstNames(int limit) {
+        List<String> names = new ArrayList<>(Math.min(limit, MAX_PAGE));
+        for (String name : sortedNames) {
+            if (names.size() >= limit) {
+                break;
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * Getter for a page of the sorted nicknames
+     *
+     * Searches a sorted array, which is built again only after a nickname has been claimed or released, so scrolling through a large room costs no scan over the whole roster
+     *
+     * @param prefix only nicknames starting with it, empty for all
+     * @param offset index of the first nickname among the matching ones
+     * @param limit maximum count of nicknames, capped at MAX_PAGE
+     * @return page together with the count of matching nicknames
+     */
+    public RosterPagePacket page(String prefix, int offset, int limit) {
+        String[] names = sortedArray();
+        int from = 0;
+        int to = names.length;
+        if (!prefix.isEmpty()) {
+            from = insertionPoint(names, 0, prefix);
+            to = insertionPoint(names, from, prefix + '\uffff');
+        }
+        int total = to - from;
+        int first = Math.min(Math.max(offset, 0), total);
+        int count = Math.min(Math.max(Math.min(limit, MAX_PAGE), 0), total - first);
+        return new RosterPagePacket(prefix, first, total, new ArrayList<>(Arrays.asList(names).subList(from + first, from + first + count)));
+    }
+
+    private static int insertionPoint(String[] names, int from, String key) {
+        int index = Arrays.binarySearch(names, from, names.length, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private String[] sortedArray() {
+        SortedNames current = sorted;
+        int currentModCount = modCount.get();
+        if (current == null || current.modCount != currentModCount) {
+            current = new SortedNames(currentModCount, sortedNames.toArray(new String[0]));
+            sorted = current;
+        }
+        return current.names;
+    }
+
+    /**
+     * Getter for the full user list as an encoded frame
+     *
+     * The frame is only built again after a nickname has been claimed or released, so a burst of logins encodes the list once per wire format instead of once per client
+     *
+     * @return frame of a UserListPacket with all nicknames
+     */
+    public PacketFrame userListFrame() {
+        UserListFrame current = userList;
+        int currentModCount = modCount.get();
+        if (current == null || current.modCount != currentModCount) {
+            current = new UserListFrame(currentModCount, PacketFrame.of(new UserListPacket(getNames())));
+            userList = current;
+        }
+        return current.frame;
+    }
+
+    /**
+     * Getter for the count of clients with a nickname
+     *
+     * @return count of named clients
+     */
+    public int size() {
+        return byName.size();
+    }
+
+    /**
+     * Getter for the count of connections, including those in login
+     *
+     * @return count of connections
+     */
+    public int connectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * Array of clients together with the modCount it was built at
+     */
+    private static final class Snapshot {
+
+        private final int modCount;
+        private final ClientThread[] clients;
+
+        private Snapshot(int modCount, ClientThread[] clients) {
+            this.modCount = modCount;
+            this.clients = clients;
+        }
+    }
+
+    /**
+     * Frame of the full user list together with the modCount it was built at
+     */
+    private static final class UserListFrame {
+
+        private final int modCount;
+        private final PacketFrame frame;
+
+        private UserListFrame(int modCount, PacketFrame frame) {
+            this.modCount = modCount;
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * Sorted nicknames together with the modCount they were copied at
+     */
+    private static final class SortedNames {
+
+        private final int modCount;
+        private final String[] names;
+
+        private SortedNames(int modCount, String[] names) {
+            this.modCount = modCount;
+            this.names = names;
+        }
+    }
+}
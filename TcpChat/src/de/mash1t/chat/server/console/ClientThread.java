@@ -25,24 +25,89 @@ package de.mash1t.chat.server.console;
 
 import de.mash1t.networklib.packets.*;
 import de.mash1t.networklib.AbstractNetworkProtocol;
+import de.mash1t.networklib.AckPacket;
+import de.mash1t.networklib.AckTracker;
+import de.mash1t.networklib.BatchPacket;
+import de.mash1t.networklib.Capability;
+import de.mash1t.networklib.ChannelJoinPacket;
+import de.mash1t.networklib.ChannelLeavePacket;
+import de.mash1t.networklib.ChannelMessagePacket;
+import de.mash1t.networklib.ConversationLeavePacket;
+import de.mash1t.networklib.ConversationMessagePacket;
+import de.mash1t.networklib.ConversationPacket;
+import de.mash1t.networklib.ExtendedPacket;
+import de.mash1t.networklib.HashedTimerWheel;
+import de.mash1t.networklib.HelloPacket;
+import de.mash1t.networklib.PacketFrame;
+import de.mash1t.networklib.PongPacket;
+import de.mash1t.networklib.ResumePacket;
+import de.mash1t.networklib.RosterPageRequestPacket;
+import de.mash1t.networklib.RosterRequestPacket;
+import de.mash1t.networklib.SessionPacket;
+import de.mash1t.networklib.TransportSettings;
+import de.mash1t.networklib.WireFormat;
 import de.mash1t.chat.core.RoleType;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import de.mash1t.chat.logging.Counters;
 import static de.mash1t.chat.server.console.ChatServer.*;
-import de.mash1t.networklib.ExtendedTCP;
 
 /**
  * Class for a seperate thread for a thread
  *
+ * Runs on the client executor of the ChatServer, which uses platform or virtual threads. Locking is done with a ReentrantLock instead of synchronized, because a virtual thread which blocks inside synchronized
+ * pins its carrier thread
+ *
  * @author Manuel Schmid
  */
-public final class ClientThread extends Thread {
+public final class ClientThread implements Runnable {
+
+    // Silent heartbeat intervals after which a client is dropped
+    private static final int HEARTBEAT_MISSES = 3;
 
-    protected String clientName = null;
-    protected ConnectionState state;
-    public AbstractNetworkProtocol conLib;
+    protected volatile String clientName = null;
+    protected volatile ConnectionState state;
+    public volatile AbstractNetworkProtocol conLib;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Fires if the client is still in login when it expires
+    private volatile HashedTimerWheel.Timeout loginDeadline = null;
+    // Guarded by lock
+    private boolean disconnected = false;
+    // System.nanoTime() of the last packet received from the client
+    private volatile long lastReceived = System.nanoTime();
+    // Only clients which have sent a ping are checked for silence, older clients do not know heartbeats
+    private volatile HashedTimerWheel.Timeout idleCheck = null;
+    // Set once the client has sent an extended packet itself
+    private volatile boolean extendedPackets = false;
+    // Credit of a client which acknowledges chat messages, null for all others
+    protected FlowController.Sender sender = null;
+    // Set while the packets of a batch are handled, which are acknowledged together
+    private boolean unpacking = false;
+    // Presence sequence at which the client got its full user list, no changes are sent before
+    protected volatile long presenceSequence = Long.MAX_VALUE;
+    // Roster a reconnecting client still has, sent in front of its ConnectPacket
+    private long knownRosterEpoch = 0;
+    private long knownRosterVersion = -1;
+    // Resume token of a client which can continue its session after losing the connection
+    protected volatile String sessionToken = null;
+    // Set while the connection is lost and the session waits to be resumed, the expiry is guarded by lock
+    protected volatile boolean suspended = false;
+    private HashedTimerWheel.Timeout expiry = null;
+    // Session a reconnecting client wants to continue, sent in front of its ConnectPacket
+    private String resumeToken = null;
+    private long resumeReceived = 0;
+    // Session which this connection has taken over, it is served instead of this thread
+    protected volatile ClientThread resumed = null;
+    // Names of the channels the client is member of, changed by the ChannelRegistry
+    protected final Set<String> memberships = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     /**
      * Constructor
@@ -51,7 +116,17 @@ public final class ClientThread extends Thread {
      * @throws java.io.IOException
      */
     public ClientThread(Socket clientSocket) throws IOException {
-        conLib = new ExtendedTCP(clientSocket, RoleType.Server);
+        this(AbstractNetworkProtocol.fromSocket(clientSocket, RoleType.Server));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param conLib protocol object of an already accepted connection
+     */
+    public ClientThread(AbstractNetworkProtocol conLib) {
+        this.conLib = conLib;
+        this.state = ConnectionState.InLogin;
     }
 
     /**
@@ -61,85 +136,587 @@ public final class ClientThread extends Thread {
     public void run() {
 
         state = ConnectionState.InLogin;
+        armLoginDeadline();
 
         try {
             // Setting up name
-            ConnectPacket cPacket = this.setName();
-            if (cPacket != null) {
-                this.linkNameToThread(cPacket.getName());
+            boolean accepted;
+            do {
+                accepted = this.login(conLib.read());
+            } while (accepted && state == ConnectionState.InLogin && resumed == null);
+            if (resumed != null) {
+                // Continue the conversation of the resumed session
+                resumed.serve(conLib);
+            } else if (accepted && state == ConnectionState.Online) {
 
-                state = ConnectionState.Online;
+                // Start conversation
+                this.serve(conLib);
+            } else {
+                disconnect();
+            }
 
-                // Broadcasts welcome message to all clients
-                this.broadcastUserList(UserListPacketType.Connected);
-                //this.broadcastExceptMe(new InfoPacket("*** User \"" + this.clientName + "\" joined ***"));
-                conLib.send(new InfoPacket("Welcome \"" + this.clientName + "\" to our chat room."));
-                logControl.log(logGeneral, Level.INFO, this.clientName + " joined");
+        } catch (Exception ex) {
+            logControl.log(logException, Level.INFO, conLib.getIP() + "(" + this.clientName + "): " + ex.getMessage());
+            Counters.exception();
+        }
+    }
 
-                // Start conversation
-                while (state != ConnectionState.Kicked && state != ConnectionState.RequestedDisconnect) {
-                    Packet packet = conLib.read();
-                    PacketType ptype = packet.getType();
-
-                    switch (ptype) {
-                        case Disconnect:
-                            // Client disconnected
-                            state = ConnectionState.RequestedDisconnect;
-                            break;
-                        case PM:
-                            // Private message
-                            this.forwardPrivateMessage((PrivateMessagePacket) packet);
-                            break;
-                        case Invalid:
-                            // Invalid obj or obj received
-                            conLib.send(new KickPacket("Security breach: Please do not use a modified client"));
-                            state = ConnectionState.Kicked;
+    /**
+     * Reads the packets of a connection until the client is gone or its session has moved on to another connection
+     *
+     * @param connection connection to read from
+     */
+    private void serve(AbstractNetworkProtocol connection) {
+        while (this.isActive()) {
+            Packet packet = connection.read();
+            if (conLib != connection) {
+                // Suspended or resumed on a new connection
+                return;
+            }
+            this.handlePacket(packet);
+        }
+        this.logout();
+    }
+
+    /**
+     * Handles the first packet of a connection
+     *
+     * @param packet first packet received
+     * @return true if the client is now online
+     */
+    protected boolean login(Packet packet) {
+        if (packet instanceof HelloPacket && !conLib.isNegotiated()) {
+            // A current client tells what it supports first and stays in login
+            this.negotiate((HelloPacket) packet);
+            return true;
+        }
+        if (packet instanceof RosterRequestPacket && knownRosterVersion < 0) {
+            // A reconnecting client tells its roster first and stays in login
+            RosterRequestPacket request = (RosterRequestPacket) packet;
+            extendedPackets = true;
+            knownRosterEpoch = request.getEpoch();
+            knownRosterVersion = Math.max(request.getVersion(), 0);
+            return true;
+        }
+        if (packet instanceof AckPacket && sender == null) {
+            // The client numbers the chat messages from the start, so counting has to start before it is online
+            extendedPackets = true;
+            if (conLib.supports(Capability.FlowControl)) {
+                sender = flow.register(this);
+                conLib.setAckTracker(new AckTracker());
+            }
+            return true;
+        }
+        if (packet instanceof ResumePacket && resumeToken == null) {
+            // A client which has lost its connection names its session first and stays in login
+            ResumePacket resume = (ResumePacket) packet;
+            extendedPackets = true;
+            resumeToken = resume.getToken();
+            resumeReceived = resume.getReceived();
+            return true;
+        }
+        // The deadline has already fired and closes the connection
+        if (!cancelLoginDeadline()) {
+            return false;
+        }
+        if (resumeToken != null && this.resumeSession(packet)) {
+            return true;
+        }
+        ConnectPacket cPacket = this.setName(packet);
+        if (cPacket == null) {
+            return false;
+        }
+        this.linkNameToThread(cPacket.getName());
+
+        state = ConnectionState.Online;
+        if (sender != null) {
+            // First credit
+            sender.acknowledge();
+            if (sessions.isEnabled() && conLib.supports(Capability.Resume) && sessions.open(conLib.getSessionId(), this)) {
+                sessionToken = conLib.getSessionId();
+                conLib.send(new SessionPacket(sessionToken, false, 0));
+            }
+        }
+        this.armIdleCheck();
+
+        // Broadcasts the new client to all, it gets the user list and the welcome message
+        this.broadcastUserList(UserListPacketType.Connected);
+        //this.broadcastExceptMe(new InfoPacket("*** User \"" + this.clientName + "\" joined ***"));
+        logControl.log(logGeneral, Level.INFO, this.clientName + " joined");
+        return true;
+    }
+
+    /**
+     * Selects the features of the connection from those the client offers and tells the client
+     *
+     * @param hello offer of the client
+     */
+    private void negotiate(HelloPacket hello) {
+        extendedPackets = true;
+        int selected = hello.getCapabilities() & this.offeredCapabilities();
+        conLib.setCapabilities(selected);
+        Counters.handshakeNegotiated(selected);
+        conLib.send(new HelloPacket(HelloPacket.VERSION, selected, Capability.Heartbeat.isIn(selected) ? (int) heartbeatIntervalMillis : 0));
+        logControl.log(logConnection, Level.INFO, conLib.getIP() + ": protocol version " + hello.getVersion() + ", features " + Capability.toString(selected));
+    }
+
+    /**
+     * Getter for the features the server supports on this connection
+     *
+     * The wire format has already been chosen by the first frame. Only binary payloads are compressed, and frames are not encrypted by this server
+     *
+     * @return bits of Capability
+     */
+    private int offeredCapabilities() {
+        int offered = Capability.FlowControl.bit();
+        if (conLib.getWireFormat() == WireFormat.Binary) {
+            offered |= Capability.of(Capability.BinaryCodec, Capability.Batching);
+            if (TransportSettings.getCompressionThreshold() > 0) {
+                offered |= Capability.Compression.bit();
+            }
+        }
+        if (timers != null && heartbeatIntervalMillis > 0) {
+            offered |= Capability.Heartbeat.bit();
+        }
+        if (sessions.isEnabled()) {
+            offered |= Capability.Resume.bit();
+        }
+        return offered;
+    }
+
+    /**
+     * Hands this connection over to the suspended session of a reconnecting client
+     *
+     * @param packet ConnectPacket of the client
+     * @return true if the session has been resumed, otherwise the client logs in as a new one
+     */
+    private boolean resumeSession(Packet packet) {
+        ClientThread session = sessions.get(resumeToken);
+        if (session == null || packet.getType() != PacketType.Connect || session.clientName == null
+                || !session.clientName.equals(((ConnectPacket) packet).getName())) {
+            return false;
+        }
+        if (!session.resume(conLib, resumeReceived, knownRosterEpoch, knownRosterVersion)) {
+            // Too much has been missed, the others see the client leave before it joins again
+            session.expire();
+            return false;
+        }
+        // The connection has already been counted for the session
+        clients.unregister(this);
+        resumed = session;
+        return true;
+    }
+
+    /**
+     * Starts the login deadline of the ChatServer, an InLogin connection is closed when it expires
+     */
+    protected void armLoginDeadline() {
+        if (timers != null && loginTimeoutMillis > 0) {
+            loginDeadline = timers.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    loginExpired();
+                }
+            }, loginTimeoutMillis, TimeUnit.MILLISECONDS, clientExecutor);
+        }
+    }
+
+    /**
+     * Stops the login deadline
+     *
+     * @return false if the deadline has already fired
+     */
+    private boolean cancelLoginDeadline() {
+        HashedTimerWheel.Timeout deadline = loginDeadline;
+        return deadline == null || deadline.cancel();
+    }
+
+    /**
+     * Closes a connection which has not logged in within the deadline, runs on the client executor
+     */
+    protected void loginExpired() {
+        if (state != ConnectionState.InLogin) {
+            return;
+        }
+        state = ConnectionState.Rejected;
+        Counters.loginTimedOut();
+        logControl.log(logConnection, Level.INFO, conLib.getIP() + ": no login within " + loginTimeoutMillis + " ms");
+        conLib.send(new KickPacket("Login timed out"));
+        disconnect();
+    }
+
+    /**
+     * Handles a packet received while online
+     *
+     * @param packet received packet
+     */
+    protected void handlePacket(Packet packet) {
+        lastReceived = System.nanoTime();
+        if (sender != null && AckTracker.isSequenced(packet) && !sender.accept()) {
+            Counters.flowOverrun();
+            conLib.send(new KickPacket("Sent more messages than the server has granted"));
+            state = ConnectionState.Kicked;
+            return;
+        }
+        if (packet instanceof ExtendedPacket) {
+            this.handleExtendedPacket((ExtendedPacket) packet);
+            this.acknowledge();
+            return;
+        }
+        PacketType ptype = packet.getType();
+
+        switch (ptype) {
+            case Disconnect:
+                // Client disconnected
+                state = ConnectionState.RequestedDisconnect;
+                break;
+            case PM:
+                // Private message
+                this.forwardPrivateMessage((PrivateMessagePacket) packet);
+                break;
+            case Invalid:
+                if (conLib.isLost()) {
+                    // Closed by the other side, the session may still be resumed
+                    this.connectionLost();
+                    return;
+                }
+                // Invalid obj or obj received
+                conLib.send(new KickPacket("Security breach: Please do not use a modified client"));
+                state = ConnectionState.Kicked;
+                break;
+            case GM:
+                // Broadcast group message to all other clients
+                this.broadcast((GroupMessagePacket) packet);
+        }
+        this.acknowledge();
+    }
+
+    /**
+     * Acknowledges the chat messages of a client which asked for it, once per received frame
+     */
+    private void acknowledge() {
+        if (sender != null && !unpacking && this.isActive()) {
+            sender.acknowledge();
+        }
+    }
+
+    /**
+     * Handles a packet which is not part of PacketType
+     *
+     * @param packet received packet
+     */
+    protected void handleExtendedPacket(ExtendedPacket packet) {
+        extendedPackets = true;
+        switch (packet.getExtendedType()) {
+            case Ping:
+                boolean first = idleCheck == null;
+                if (first && timers != null && heartbeatIntervalMillis > 0) {
+                    scheduleIdleCheck();
+                }
+                // Any other packet of the last half interval shows the client that the server is alive as well, the first pong tells the interval
+                boolean answer = first || millisSince(conLib.getLastSent()) >= heartbeatIntervalMillis / 2;
+                if (answer) {
+                    conLib.send(new PongPacket((int) heartbeatIntervalMillis));
+                }
+                Counters.pingReceived(answer);
+                break;
+            case Pong:
+                // Receiving it is all that counts
+                break;
+            case RosterRequest:
+                // The client has missed a delta
+                RosterRequestPacket request = (RosterRequestPacket) packet;
+                conLib.send(presence.sync(this, request.getEpoch(), request.getVersion()));
+                break;
+            case ChannelJoin:
+                this.joinChannel(((ChannelJoinPacket) packet).getChannel());
+                break;
+            case ChannelLeave:
+                String left = ((ChannelLeavePacket) packet).getChannel();
+                if (!channels.leave(left, this)) {
+                    conLib.send(new InfoPacket("You are not in channel " + left));
+                }
+                break;
+            case ChannelMessage:
+                this.forwardChannelMessage((ChannelMessagePacket) packet);
+                break;
+            case Conversation:
+                this.openConversation((ConversationPacket) packet);
+                break;
+            case ConversationMessage:
+                this.forwardConversationMessage((ConversationMessagePacket) packet);
+                break;
+            case ConversationLeave:
+                Conversation conversation = conversations.leave(((ConversationLeavePacket) packet).getId(), this.clientName);
+                if (conversation != null) {
+                    // The others see the remaining members, this client no longer finds itself among them
+                    PacketFrame members = PacketFrame.of(conversation.toPacket());
+                    conversation.send(members);
+                    conLib.send(members);
+                }
+                break;
+            case RosterPageRequest:
+                // The client scrolls through a large roster
+                RosterPageRequestPacket pageRequest = (RosterPageRequestPacket) packet;
+                String prefix = pageRequest.getPrefix() == null ? "" : pageRequest.getPrefix();
+                conLib.send(clients.page(prefix, pageRequest.getOffset(), pageRequest.getLimit()));
+                Counters.rosterPageSent();
+                break;
+            case Batch:
+                // Each packet is handled as if it had arrived on its own, nothing after a disconnect or kick
+                List<Packet> packets = ((BatchPacket) packet).getPackets();
+                Counters.batchReceived(packets.size());
+                unpacking = true;
+                try {
+                    for (Packet nested : packets) {
+                        if (!this.isActive()) {
                             break;
-                        case GM:
-                            // Broadcast group message to all other clients
-                            this.broadcast((GroupMessagePacket) packet);
+                        }
+                        this.handlePacket(nested);
                     }
+                } finally {
+                    unpacking = false;
                 }
+                break;
+            case Ack:
+                AckTracker tracker = conLib.getAckTracker();
+                if (tracker != null && !tracker.acknowledge(((AckPacket) packet).getSequence())) {
+                    // Messages which have never been sent cannot have been received
+                    conLib.send(new KickPacket("Security breach: Please do not use a modified client"));
+                    state = ConnectionState.Kicked;
+                }
+                break;
+        }
+    }
 
-                if (state == ConnectionState.Kicked) {
-                    // Tell every thread, that the current thread has been kicked
-                    //this.broadcastExceptMe(new InfoPacket("*** User \"" + this.clientName + "\" has been kicked ***"));
+    /**
+     * Checks if the client understands packets which are not part of PacketType
+     *
+     * Only current clients speak the binary format or send extended packets themselves, older clients would take an ExtendedPacket for an invalid one
+     *
+     * @return true if extended packets may be sent
+     */
+    protected boolean understandsExtendedPackets() {
+        return extendedPackets || conLib.getWireFormat() == WireFormat.Binary;
+    }
 
-                    // Remove thread from threads array and close connections
-                    disconnect();
-                } else {
-                    // Tell every thread, that the current thread is going offline
-                    //this.broadcastExceptMe(new InfoPacket("*** User \"" + this.clientName + "\" has left ***"));
-                    conLib.send(new DisconnectPacket());
+    /**
+     * Starts the silence checks of a client which has selected heartbeats, it knows the interval from the HelloPacket. Other clients start them with their first ping
+     */
+    private void armIdleCheck() {
+        if (conLib.isNegotiated() && conLib.supports(Capability.Heartbeat) && idleCheck == null) {
+            scheduleIdleCheck();
+        }
+    }
 
-                    // Remove thread from threads array and close connections
-                    disconnect();
-                }
+    /**
+     * Checks the client for silence one heartbeat interval from now
+     */
+    private void scheduleIdleCheck() {
+        idleCheck = timers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                checkIdle();
+            }
+        }, heartbeatIntervalMillis, TimeUnit.MILLISECONDS, clientExecutor);
+    }
 
-                this.broadcastUserList(UserListPacketType.Disconnected);
-            } else {
-                disconnect();
+    /**
+     * Drops a client which has not sent anything, not even a ping, for several heartbeat intervals, runs on the client executor
+     */
+    protected void checkIdle() {
+        if (state != ConnectionState.Online) {
+            return;
+        }
+        long silence = millisSince(lastReceived);
+        if (silence >= HEARTBEAT_MISSES * heartbeatIntervalMillis) {
+            Counters.idleEvicted();
+            logControl.log(logConnection, Level.INFO, conLib.getIP() + ": " + this.clientName + " silent for " + silence + " ms, dropped");
+            conLib.send(new KickPacket("Connection timed out"));
+            this.connectionLost();
+            return;
+        }
+        scheduleIdleCheck();
+    }
+
+    private static long millisSince(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanos);
+    }
+
+    /**
+     * Checks if the conversation with the client is still going on
+     *
+     * @return false when the client has been kicked or wants to disconnect
+     */
+    protected boolean isActive() {
+        return state != ConnectionState.Kicked && state != ConnectionState.RequestedDisconnect;
+    }
+
+    /**
+     * Checks if the connection is served by a shard of the NioServer
+     *
+     * @return true for connections of the non-blocking engine
+     */
+    protected boolean isServedByEventLoop() {
+        return conLib instanceof NioConnection;
+    }
+
+    /**
+     * Ends the conversation after the client has been kicked or wants to disconnect
+     */
+    protected void logout() {
+        boolean closed;
+        if (state == ConnectionState.Kicked) {
+            // Tell every thread, that the current thread has been kicked
+            //this.broadcastExceptMe(new InfoPacket("*** User \"" + this.clientName + "\" has been kicked ***"));
+
+            // Remove thread from registry and close connections
+            closed = disconnect();
+        } else {
+            // Tell every thread, that the current thread is going offline
+            //this.broadcastExceptMe(new InfoPacket("*** User \"" + this.clientName + "\" has left ***"));
+            conLib.send(new DisconnectPacket());
+
+            // Remove thread from registry and close connections
+            closed = disconnect();
+        }
+
+        // Only the first logout tells the others, e.g. after the reader of an evicted client has failed
+        if (closed) {
+            this.broadcastUserList(UserListPacketType.Disconnected);
+        }
+    }
+
+    /**
+     * Handles a connection which has been closed by the other side without a DisconnectPacket
+     */
+    protected void connectionLost() {
+        if (state == ConnectionState.InLogin) {
+            disconnect();
+        } else if (!this.suspend()) {
+            this.dropped();
+        }
+    }
+
+    /**
+     * Ends the session of a client whose connection is gone, the others see it leave
+     */
+    protected void dropped() {
+        if (this.isActive()) {
+            state = ConnectionState.Kicked;
+            this.logout();
+        }
+    }
+
+    /**
+     * Keeps the session of a client whose connection has been lost, so it can be resumed within the grace period
+     *
+     * The client stays online for the others, packets sent to it are kept by a SuspendedConnection
+     *
+     * @return false if the session can not be resumed
+     */
+    private boolean suspend() {
+        lock.lock();
+        try {
+            if (suspended) {
+                return true;
+            }
+            if (sessionToken == null || disconnected || state != ConnectionState.Online) {
+                return false;
             }
+            AbstractNetworkProtocol lost = conLib;
+            conLib = new SuspendedConnection(lost);
+            suspended = true;
+            lost.close();
+            // Checked again after the first ping on the new connection
+            HashedTimerWheel.Timeout check = idleCheck;
+            if (check != null) {
+                check.cancel();
+                idleCheck = null;
+            }
+            expiry = sessions.expireLater(this);
+            Counters.sessionSuspended();
+            logControl.log(logConnection, Level.INFO, lost.getIP() + ": " + this.clientName + " lost the connection, session kept for " + sessions.getGraceMillis() + " ms");
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        } catch (Exception ex) {
-            logControl.log(logException, Level.INFO, conLib.getIP() + "(" + this.clientName + "): " + ex.getMessage());
-            Counters.exception();
+    /**
+     * Continues the session on the connection of a reconnecting client, which gets the chat messages it has missed
+     *
+     * @param connection new connection of the client
+     * @param received chat messages the client has received on the lost connection
+     * @param knownEpoch roster epoch the client still has
+     * @param knownVersion roster version the client still has
+     * @return false if the session can not be resumed anymore
+     */
+    protected boolean resume(AbstractNetworkProtocol connection, long received, long knownEpoch, long knownVersion) {
+        lock.lock();
+        try {
+            // This side may not have noticed yet that the old connection is gone
+            if (!this.suspend()) {
+                return false;
+            }
+            SuspendedConnection buffer = (SuspendedConnection) conLib;
+            AckTracker lostTracker = buffer.getAckTracker();
+            List<Packet> missed = lostTracker == null ? null : lostTracker.unacknowledgedAfter(received);
+            if (missed == null || buffer.hasOverflowed() || !expiry.cancel()) {
+                return false;
+            }
+            // Messages of the client beyond this count have not arrived and are sent again
+            connection.send(new SessionPacket(sessionToken, true, sender == null ? 0 : sender.getReceived()));
+            int replayed = buffer.forwardTo(connection, missed);
+            lostTracker.release();
+            conLib = connection;
+            suspended = false;
+            expiry = null;
+            lastReceived = System.nanoTime();
+            connection.send(presence.sync(this, knownEpoch, knownVersion));
+            if (sender != null) {
+                // The client counts its messages from the start again
+                sender = flow.register(this);
+                sender.acknowledge();
+            }
+            this.armIdleCheck();
+            Counters.sessionResumed(replayed);
+            logControl.log(logConnection, Level.INFO, connection.getIP() + ": " + this.clientName + " resumed the session, " + replayed + " packets sent again");
+            return true;
+        } finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * Ends a suspended session which has not been resumed, runs on the client executor
+     */
+    protected void expire() {
+        lock.lock();
+        try {
+            if (!suspended) {
+                return;
+            }
+            suspended = false;
+            if (expiry != null) {
+                expiry.cancel();
+                expiry = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        Counters.sessionExpired();
+        logControl.log(logConnection, Level.INFO, conLib.getIP() + ": session of " + this.clientName + " expired");
+        this.dropped();
+    }
+
     /**
      * Sends a message to all clients
      *
      * @param message message to send
      */
-    protected synchronized void broadcast(String message) {
-        for (ClientThread thread : threads) {
-            if (state == ConnectionState.Online) {
-                AbstractNetworkProtocol.send(new GroupMessagePacket(message, this.clientName), thread, ChatServer.nwpType);
-            }
-        }
-        logControl.log(logGeneral, Level.INFO, "GM #" + Counters.Totals.Messages.gmTotal + " from " + this.clientName);
-        Counters.gm();
+    protected void broadcast(String message) {
+        this.broadcast(new GroupMessagePacket(message, this.clientName));
     }
 
     /**
@@ -147,14 +724,15 @@ public final class ClientThread extends Thread {
      *
      * @param packet Packet to send
      */
-    protected synchronized void broadcast(Packet packet) {
-        for (ClientThread thread : threads) {
-            if (thread.state == ConnectionState.Online) {
-                AbstractNetworkProtocol.send(packet, thread, nwpType);
-            }
+    protected void broadcast(Packet packet) {
+        lock.lock();
+        try {
+            this.fanOut(packet, null);
+            logControl.log(logGeneral, Level.INFO, "GM #" + Counters.Totals.Messages.gmTotal + " from " + this.clientName);
+            Counters.gm();
+        } finally {
+            lock.unlock();
         }
-        logControl.log(logGeneral, Level.INFO, "GM #" + Counters.Totals.Messages.gmTotal + " from " + this.clientName);
-        Counters.gm();
     }
 
     /**
@@ -162,13 +740,111 @@ public final class ClientThread extends Thread {
      *
      * @param packet
      */
-    protected synchronized void broadcastExceptMe(Packet packet) {
-        for (ClientThread thread : threads) {
-            if (thread.state == ConnectionState.Online && thread != this) {
-                AbstractNetworkProtocol.send(packet, thread, nwpType);
+    protected void broadcastExceptMe(Packet packet) {
+        lock.lock();
+        try {
+            this.fanOut(packet, this);
+            // Counters.gm(); is normally no group but system shoutout
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Encodes a packet once per wire format and writes the same frame to all online clients
+     *
+     * @param packet packet to send
+     * @param except client which does not get the packet, may be null
+     */
+    private void fanOut(Packet packet, ClientThread except) {
+        PacketFrame frame = PacketFrame.of(packet);
+        for (ClientThread thread : clients.snapshot()) {
+            if (thread.state == ConnectionState.Online && thread != except && !thread.isServedByEventLoop()) {
+                AbstractNetworkProtocol.send(frame, thread, nwpType);
             }
         }
-        // Counters.gm(); is normally no group but system shoutout
+        // Event loop shards fan out on their own threads
+        if (nioServer != null) {
+            nioServer.broadcast(frame, except);
+        }
+    }
+
+    /**
+     * Lets the client join a channel
+     *
+     * @param name name of the channel
+     */
+    protected void joinChannel(String name) {
+        if (!ChannelRegistry.isValidName(name)) {
+            conLib.send(new InfoPacket("Channel names start with '#' and have up to " + ChannelRegistry.MAX_NAME_LENGTH + " letters without spaces"));
+        } else if (memberships.size() >= ChannelRegistry.MAX_CHANNELS_PER_CLIENT && !memberships.contains(name)) {
+            conLib.send(new InfoPacket("You can not join more than " + ChannelRegistry.MAX_CHANNELS_PER_CLIENT + " channels"));
+        } else if (channels.join(name, this)) {
+            logControl.log(logGeneral, Level.INFO, this.clientName + " joined " + name);
+        }
+    }
+
+    /**
+     * Sends a message to the members of a channel, the sender has to be one of them
+     *
+     * @param packet message of the client
+     */
+    protected void forwardChannelMessage(ChannelMessagePacket packet) {
+        Channel channel = channels.get(packet.getChannel());
+        if (channel == null || !channel.isMember(this)) {
+            conLib.send(new InfoPacket("You are not in channel " + packet.getChannel()));
+            return;
+        }
+        // The sender is set here, a client can not speak for others
+        channel.sendMessage(new ChannelMessagePacket(channel.getName(), packet.getMessage(), this.clientName));
+        logControl.log(logGeneral, Level.INFO, "Message #" + channel.getMessages() + " in " + channel.getName() + " from " + this.clientName);
+    }
+
+    /**
+     * Opens a private conversation with the users listed in the packet and tells all its members
+     *
+     * @param packet request of the client, or a known id to get the members again
+     */
+    protected void openConversation(ConversationPacket packet) {
+        Conversation conversation;
+        if (packet.getId() != 0) {
+            conversation = conversations.get(packet.getId());
+            if (conversation != null && conversation.isMember(this.clientName)) {
+                conLib.send(conversation.toPacket());
+            }
+            return;
+        }
+        List<String> invited = new ArrayList<>();
+        if (packet.getMembers() != null) {
+            for (String name : packet.getMembers()) {
+                // Only users who are online can be invited
+                if (name != null && clients.get(name) != null) {
+                    invited.add(name);
+                }
+            }
+        }
+        conversation = conversations.open(this.clientName, invited);
+        if (conversation == null) {
+            conLib.send(new InfoPacket("Could not open a conversation, invite at least one other user who is online"));
+            return;
+        }
+        conversation.send(conversation.toPacket());
+        logControl.log(logGeneral, Level.INFO, this.clientName + " opened conversation " + conversation.getId() + " with " + (conversation.getMembers().length - 1) + " others");
+    }
+
+    /**
+     * Sends a message to the members of a conversation, uploaded once by the sender
+     *
+     * @param packet message of the client
+     */
+    protected void forwardConversationMessage(ConversationMessagePacket packet) {
+        Conversation conversation = conversations.get(packet.getId());
+        if (conversation == null || !conversation.isMember(this.clientName)) {
+            conLib.send(new InfoPacket("You are not part of this conversation"));
+            return;
+        }
+        conversation.send(new ConversationMessagePacket(conversation.getId(), packet.getMessage(), this.clientName));
+        Counters.conversationMessage();
     }
 
     /**
@@ -177,7 +853,8 @@ public final class ClientThread extends Thread {
      * @param privatePacket privatePacket to send
      * @return message send status
      */
-    protected synchronized boolean forwardPrivateMessage(PrivateMessagePacket privatePacket) {
+    protected boolean forwardPrivateMessage(PrivateMessagePacket privatePacket) {
+        lock.lock();
         try {
             String receiver = privatePacket.getReceiver();
             // Check if sender wants to send privatePacket to himself
@@ -186,20 +863,19 @@ public final class ClientThread extends Thread {
                 logControl.log(logGeneral, Level.INFO, this.clientName + " wanted to send himself a private message");
                 return true;
             } else {
-                for (ClientThread thread : threads) {
-                    if (thread != this
-                            && thread.state == ConnectionState.Online
-                            && thread.clientName.equals(receiver)) {
-
-                        // Send privatePacket to receiver
-                        AbstractNetworkProtocol.send(privatePacket, thread, ChatServer.nwpType);
-
-                        // Send privatePacket to sender
-                        conLib.send(privatePacket);
-                        Counters.pm();
-                        logControl.log(logGeneral, Level.INFO, "PM #" + Counters.Totals.Messages.pmTotal + " from " + this.clientName + " to " + receiver);
-                        return true;
-                    }
+                ClientThread thread = clients.get(receiver);
+                if (thread != null
+                        && thread != this
+                        && thread.state == ConnectionState.Online) {
+
+                    // Send privatePacket to receiver
+                    AbstractNetworkProtocol.send(privatePacket, thread, ChatServer.nwpType);
+
+                    // Send privatePacket to sender
+                    conLib.send(privatePacket);
+                    Counters.pm();
+                    logControl.log(logGeneral, Level.INFO, "PM #" + Counters.Totals.Messages.pmTotal + " from " + this.clientName + " to " + receiver);
+                    return true;
                 }
             }
 
@@ -217,18 +893,19 @@ public final class ClientThread extends Thread {
             Counters.pm();
             Counters.pmFailed();
             return false;
+        } finally {
+            lock.unlock();
         }
-
     }
 
     /**
      * Let the user choose a nickname
      *
+     * @param clientAnswer first packet sent by the client
      * @return name
      */
-    protected ConnectPacket setName() {
+    protected ConnectPacket setName(Packet clientAnswer) {
 
-        Packet clientAnswer = (Packet) conLib.read();
         PacketType pType = clientAnswer.getType();
 
         if (pType == PacketType.Connect) {
@@ -237,13 +914,16 @@ public final class ClientThread extends Thread {
                 conLib.send(new KickPacket("Please make sure that your nickname has between 4 and 15 letters"));
                 return null;
             }
+            if (name.charAt(0) == '#') {
+                // Reserved for channels, whose tabs are found by their title
+                conLib.send(new KickPacket("Nicknames can not start with '#'"));
+                return null;
+            }
 
-            // Check if name is already in use, if yes return null
-            for (ClientThread client : threads) {
-                if (client != null && client.state == ConnectionState.Online && client.clientName.equals(name)) {
-                    conLib.send(new KickPacket("The nickname \"" + name + "\" is already in use"));
-                    return null;
-                }
+            // Claim the name, if it is already in use return null
+            if (!clients.claim(name, this)) {
+                conLib.send(new KickPacket("The nickname \"" + name + "\" is already in use"));
+                return null;
             }
 
             this.clientName = name;
@@ -257,40 +937,56 @@ public final class ClientThread extends Thread {
     }
 
     /**
-     * Adds name to clientThread at index of this thread
+     * Adds name to this thread, the name has already been claimed in the registry
      *
      * @param name name of the thread
      */
     protected void linkNameToThread(String name) {
-        for (ClientThread thread : threads) {
-            if (thread == this) {
-                this.clientName = name;
-                logControl.log(logConnection, Level.INFO, conLib.getIP() + ": is now " + name);
-                userList.add(name);
-                break;
-            }
-        }
+        this.clientName = name;
+        logControl.log(logConnection, Level.INFO, conLib.getIP() + ": is now " + name);
     }
 
     /**
-     * Disconnects the thread
+     * Disconnects the thread, further calls are ignored
+     *
+     * @return true if this call has closed the connection
      */
-    protected synchronized void disconnect() {
-//        try {
-        threads.remove(this);
-        conLib.close();
-        userList.remove(clientName);
+    protected boolean disconnect() {
+        lock.lock();
+        try {
+            if (disconnected) {
+                return false;
+            }
+            disconnected = true;
+            cancelLoginDeadline();
+            HashedTimerWheel.Timeout check = idleCheck;
+            if (check != null) {
+                check.cancel();
+            }
+            clients.unregister(this);
+            sessions.close(sessionToken, this);
+            channels.leaveAll(this);
+            if (clientName != null) {
+                conversations.disconnected(clientName);
+            }
+            // Packets the client has not taken before it left, high for clients which could not keep up
+            int queued = conLib.getQueueDepth();
+            conLib.close();
+            AckTracker tracker = conLib.getAckTracker();
+            if (tracker != null) {
+                tracker.release();
+            }
 
-        if (state == ConnectionState.Kicked) {
-            logControl.log(logConnection, Level.INFO, conLib.getIP() + ": " + this.clientName + " has been kicked");
-        } else {
-            logControl.log(logConnection, Level.INFO, conLib.getIP() + ": " + this.clientName + " has disconnected");
+            if (state == ConnectionState.Kicked) {
+                logControl.log(logConnection, Level.INFO, conLib.getIP() + ": " + this.clientName + " has been kicked, " + queued + " packets queued");
+            } else {
+                logControl.log(logConnection, Level.INFO, conLib.getIP() + ": " + this.clientName + " has disconnected, " + queued + " packets queued");
+            }
+            Counters.disconnect();
+            return true;
+        } finally {
+            lock.unlock();
         }
-        Counters.disconnect();
-//        } catch (IOException ex) {
-//            logControl.log(logException, Level.INFO, this.ip + "(" + this.clientName + ") while disconnecting: " + ex.getMessage());
-//            logging.general.Counters.exception();
-//        }
     }
 
     /**
@@ -298,14 +994,34 @@ public final class ClientThread extends Thread {
      *
      * @param ulPacketType
      */
-    protected synchronized void broadcastUserList(UserListPacketType ulPacketType) {
-        if (ulPacketType == UserListPacketType.Connected) {
-            // Broadcast changes to all and a full list to hte new client
-            this.broadcastExceptMe(new UserListPacket(this.clientName, ulPacketType));
-            conLib.send(new UserListPacket(getUserList()));
-        } else if (ulPacketType == UserListPacketType.Disconnected) {
-            // Broadcast changes only
-            this.broadcastExceptMe(new UserListPacket(this.clientName, ulPacketType));
+    protected void broadcastUserList(UserListPacketType ulPacketType) {
+        lock.lock();
+        try {
+            if (ulPacketType == UserListPacketType.Connected) {
+                // Changes are sent to all with the next presence window, the new client gets the cached full list and the welcome message in one flush
+                presence.joined(this.clientName);
+                PacketFrame welcome = PacketFrame.of(new InfoPacket("Welcome \"" + this.clientName + "\" to our chat room."));
+                if (this.understandsExtendedPackets()) {
+                    // Only the changes since the roster of a recent connection, if the client has one
+                    // Conversations this user was part of before a reconnect are still there
+                    List<Conversation> own = conversations.of(this.clientName);
+                    PacketFrame[] frames = new PacketFrame[own.size() + 2];
+                    frames[0] = presence.sync(this, knownRosterEpoch, knownRosterVersion);
+                    frames[1] = welcome;
+                    for (int i = 0; i < own.size(); i++) {
+                        frames[i + 2] = PacketFrame.of(own.get(i).toPacket());
+                    }
+                    conLib.sendBatch(frames);
+                } else {
+                    presenceSequence = presence.sequence();
+                    conLib.sendBatch(clients.userListFrame(), welcome);
+                }
+            } else if (ulPacketType == UserListPacketType.Disconnected) {
+                // Broadcast changes only
+                presence.left(this.clientName);
+            }
+        } finally {
+            lock.unlock();
         }
     }
 }
@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.ConversationPacket;
+import de.mash1t.networklib.PacketFrame;
+import de.mash1t.networklib.packets.Packet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import static de.mash1t.chat.server.console.ChatServer.clients;
+
+/**
+ * Private conversation of several users
+ *
+ * Members are kept by their nickname, so a member which reconnects is still part of the conversation. The members are changed by the ConversationRegistry only
+ *
+ * @author Manuel Schmid
+ */
+public final class Conversation {
+
+    private final long id;
+    // Guarded by the lock of the registry
+    private final Set<String> members = new LinkedHashSet<>();
+    // Copy of the members for the fan-out, replaced on every change
+    private volatile String[] snapshot = new String[0];
+
+    /**
+     * Constructor
+     *
+     * @param id id of the conversation
+     * @param members nicknames of the first members
+     */
+    protected Conversation(long id, Collection<String> members) {
+        this.id = id;
+        this.members.addAll(members);
+        this.snapshot = members.toArray(new String[0]);
+    }
+
+    /**
+     * Getter for the id
+     *
+     * @return id of the conversation
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Removes a member
+     *
+     * @param name nickname of the member
+     * @return false if it has not been a member
+     */
+    protected boolean remove(String name) {
+        if (!members.remove(name)) {
+            return false;
+        }
+        snapshot = members.toArray(new String[0]);
+        return true;
+    }
+
+    /**
+     * Checks if a user is a member
+     *
+     * @param name nickname of the user
+     * @return true for members
+     */
+    public boolean isMember(String name) {
+        for (String member : snapshot) {
+            if (member.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Getter for the members
+     *
+     * @return copy of the nicknames
+     */
+    public String[] getMembers() {
+        return snapshot.clone();
+    }
+
+    /**
+     * Checks if a member is online
+     *
+     * @return true if at least one member is online
+     */
+    public boolean hasOnlineMember() {
+        for (String member : snapshot) {
+            ClientThread client = clients.get(member);
+            if (client != null && client.state == ConnectionState.Online) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the packet which tells the members
+     *
+     * @return packet with the current members
+     */
+    public ConversationPacket toPacket() {
+        return new ConversationPacket(id, Arrays.asList(snapshot.clone()));
+    }
+
+    /**
+     * Encodes a packet once and writes it to all online members
+     *
+     * @param packet packet to send
+     * @return count of members which got the packet
+     */
+    protected int send(Packet packet) {
+        return send(PacketFrame.of(packet));
+    }
+
+    /**
+     * Writes an encoded packet to all online members
+     *
+     * @param frame frame to send
+     * @return count of members which got the frame
+     */
+    protected int send(PacketFrame frame) {
+        int count = 0;
+        for (String member : snapshot) {
+            ClientThread client = clients.get(member);
+            if (client != null && client.state == ConnectionState.Online) {
+                client.conLib.send(frame);
+                count++;
+            }
+        }
+        Counters.conversationDeliveries(count);
+        return count;
+    }
+}
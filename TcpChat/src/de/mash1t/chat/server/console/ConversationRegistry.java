@@ -0,0 +1,273 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.HashedTimerWheel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registry of the private conversations
+ *
+ * A conversation lives until its last member has left. When none of its members is online any more, it is kept for the retention time so the members can reconnect, then it is dropped
+ *
+ * @author Manuel Schmid
+ */
+public final class ConversationRegistry {
+
+    /**
+     * Maximum count of members of a conversation
+     */
+    public static final int MAX_MEMBERS = 50;
+
+    /**
+     * Maximum count of conversations a user can be member of
+     */
+    public static final int MAX_CONVERSATIONS_PER_USER = 50;
+
+    private final HashedTimerWheel timers;
+    private final long retentionMillis;
+    private final AtomicLong lastId = new AtomicLong(0);
+    private final ConcurrentMap<Long, Conversation> byId = new ConcurrentHashMap<>();
+    // Guarded by lock
+    private final Map<String, Set<Long>> byMember = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Constructor
+     *
+     * @param timers timer wheel which drops conversations without online members, null to keep them
+     * @param retentionMillis time a conversation without online members is kept
+     */
+    public ConversationRegistry(HashedTimerWheel timers, long retentionMillis) {
+        this.timers = timers;
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Opens a conversation of a user with others
+     *
+     * If the user already has a conversation with exactly these members, that one is returned
+     *
+     * @param creator nickname of the user who opens it
+     * @param invited nicknames of the other members
+     * @return conversation or null if there are no other members or the creator has too many conversations
+     */
+    public Conversation open(String creator, Collection<String> invited) {
+        Set<String> members = new LinkedHashSet<>();
+        members.add(creator);
+        for (String name : invited) {
+            if (name != null && members.size() < MAX_MEMBERS) {
+                members.add(name);
+            }
+        }
+        if (members.size() < 2) {
+            return null;
+        }
+        lock.lock();
+        try {
+            for (Conversation existing : ofLocked(creator)) {
+                if (new HashSet<>(Arrays.asList(existing.getMembers())).equals(members)) {
+                    return existing;
+                }
+            }
+            if (countOf(creator) >= MAX_CONVERSATIONS_PER_USER) {
+                return null;
+            }
+            // Members at their limit are not added
+            for (String name : new ArrayList<>(members)) {
+                if (!name.equals(creator) && countOf(name) >= MAX_CONVERSATIONS_PER_USER) {
+                    members.remove(name);
+                }
+            }
+            if (members.size() < 2) {
+                return null;
+            }
+            Conversation conversation = new Conversation(lastId.incrementAndGet(), members);
+            byId.put(conversation.getId(), conversation);
+            for (String name : members) {
+                membershipsOf(name).add(conversation.getId());
+            }
+            Counters.conversationOpened();
+            return conversation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a member from a conversation and drops the conversation after its last member
+     *
+     * @param id id of the conversation
+     * @param name nickname of the member
+     * @return conversation or null if the user has not been a member
+     */
+    public Conversation leave(long id, String name) {
+        lock.lock();
+        try {
+            Conversation conversation = byId.get(id);
+            if (conversation == null || !conversation.remove(name)) {
+                return null;
+            }
+            Set<Long> own = byMember.get(name);
+            own.remove(id);
+            if (own.isEmpty()) {
+                byMember.remove(name);
+            }
+            if (conversation.getMembers().length == 0) {
+                drop(conversation);
+            }
+            return conversation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for a conversation
+     *
+     * @param id id of the conversation
+     * @return conversation or null if it does not exist
+     */
+    public Conversation get(long id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Getter for the conversations of a user
+     *
+     * @param name nickname of the user
+     * @return conversations the user is member of
+     */
+    public List<Conversation> of(String name) {
+        lock.lock();
+        try {
+            return ofLocked(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Conversation> ofLocked(String name) {
+        List<Conversation> conversations = new ArrayList<>();
+        Set<Long> own = byMember.get(name);
+        if (own != null) {
+            for (Long id : own) {
+                conversations.add(byId.get(id));
+            }
+        }
+        return conversations;
+    }
+
+    /**
+     * Schedules the removal of the conversations of a user who has gone offline, if none of their members is online any more
+     *
+     * @param name nickname of the user
+     */
+    public void disconnected(String name) {
+        if (timers == null) {
+            return;
+        }
+        for (final Conversation conversation : of(name)) {
+            if (!conversation.hasOnlineMember()) {
+                try {
+                    timers.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            expire(conversation);
+                        }
+                    }, retentionMillis, TimeUnit.MILLISECONDS);
+                } catch (IllegalStateException ex) {
+                    // Timer wheel has been stopped on shutdown
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops a conversation whose members have not come back, runs on the timer wheel
+     *
+     * @param conversation conversation to check
+     */
+    protected void expire(Conversation conversation) {
+        lock.lock();
+        try {
+            if (byId.get(conversation.getId()) == conversation && !conversation.hasOnlineMember()) {
+                for (String name : conversation.getMembers()) {
+                    Set<Long> own = byMember.get(name);
+                    own.remove(conversation.getId());
+                    if (own.isEmpty()) {
+                        byMember.remove(name);
+                    }
+                }
+                drop(conversation);
+                Counters.conversationExpired();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for the count of conversations
+     *
+     * @return count of conversations
+     */
+    public int size() {
+        return byId.size();
+    }
+
+    private void drop(Conversation conversation) {
+        byId.remove(conversation.getId());
+        Counters.conversationClosed();
+    }
+
+    private int countOf(String name) {
+        Set<Long> own = byMember.get(name);
+        return own == null ? 0 : own.size();
+    }
+
+    private Set<Long> membershipsOf(String name) {
+        Set<Long> own = byMember.get(name);
+        if (own == null) {
+            own = new HashSet<>();
+            byMember.put(name, own);
+        }
+        return own;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.CreditPacket;
+import de.mash1t.networklib.HashedTimerWheel;
+import java.util.concurrent.TimeUnit;
+import static de.mash1t.chat.server.console.ChatServer.clientExecutor;
+import static de.mash1t.chat.server.console.ChatServer.clients;
+
+/**
+ * Grants credit to clients which send chat messages
+ *
+ * After each frame with chat messages the server acknowledges all messages of the client so far and tells how many more it may send. The window shrinks while the recipients fall behind, measured as
+ * the packets which wait in outbound queues or have not been acknowledged, per online client. At the backlog limit a sender gets no further credit until the recipients have caught up, so a bot
+ * cannot fill the buffers of everybody else. Credit which has been granted is never taken back
+ *
+ * @author Manuel Schmid
+ */
+public final class FlowController {
+
+    // Milliseconds after which a throttled sender is checked again
+    private static final long REGRANT_MILLIS = 200;
+
+    private final HashedTimerWheel timers;
+    private final int window;
+    private final int backlogLimit;
+
+    /**
+     * Constructor
+     *
+     * @param timers timer wheel which grants credit again after throttling
+     * @param window messages a client may send ahead of their acknowledgment, 0 for no limit
+     * @param backlogLimit packets waiting per recipient at which senders get no credit, 0 to never throttle
+     */
+    public FlowController(HashedTimerWheel timers, int window, int backlogLimit) {
+        this.timers = timers;
+        this.window = window;
+        this.backlogLimit = backlogLimit;
+    }
+
+    /**
+     * Credit state of one client
+     */
+    public final class Sender {
+
+        private final ClientThread client;
+
+        // Guarded by this
+        private long received = 0;
+        private long acknowledged = 0;
+        private long limit = 0;
+        private boolean regrantScheduled = false;
+
+        private Sender(ClientThread client) {
+            this.client = client;
+        }
+
+        /**
+         * Counts a chat message of the client
+         *
+         * @return false if the client has sent beyond its credit
+         */
+        public synchronized boolean accept() {
+            received++;
+            return received <= limit;
+        }
+
+        /**
+         * Acknowledges the messages received so far, if there are new ones or more credit can be granted
+         */
+        public synchronized void acknowledge() {
+            int grant = currentWindow();
+            long newLimit = Math.max(limit, received + grant);
+            if (received != acknowledged || newLimit != limit) {
+                acknowledged = received;
+                limit = newLimit;
+                client.conLib.send(new CreditPacket(acknowledged, (int) Math.min(Integer.MAX_VALUE, limit - acknowledged)));
+                Counters.creditSent(grant < maxWindow());
+            }
+            // A client with credit left comes back with its next message, one without it has to be asked again
+            if (limit <= received && !regrantScheduled && timers != null) {
+                regrantScheduled = true;
+                timers.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        regrant();
+                    }
+                }, REGRANT_MILLIS, TimeUnit.MILLISECONDS, clientExecutor);
+            }
+        }
+
+        /**
+         * Getter for the chat messages of the client which have been counted
+         *
+         * @return messages received from the client
+         */
+        public synchronized long getReceived() {
+            return received;
+        }
+
+        private void regrant() {
+            synchronized (this) {
+                regrantScheduled = false;
+            }
+            if (client.state == ConnectionState.Online && client.isActive()) {
+                acknowledge();
+            }
+        }
+    }
+
+    /**
+     * Creates the credit state of a client, which gets its first credit with acknowledge()
+     *
+     * @param client client which has asked for acknowledgments
+     * @return state of the client
+     */
+    public Sender register(ClientThread client) {
+        return new Sender(client);
+    }
+
+    /**
+     * Computes the window a sender gets right now
+     *
+     * @return count of messages, smaller while the recipients are behind
+     */
+    protected int currentWindow() {
+        if (window <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        if (backlogLimit <= 0) {
+            return window;
+        }
+        long backlog = (Counters.Outbound.queued.get() + Counters.Flow.outstanding.get()) / Math.max(1, clients.size());
+        if (backlog >= backlogLimit) {
+            return 0;
+        }
+        return (int) (window * (backlogLimit - backlog) / backlogLimit);
+    }
+
+    private int maxWindow() {
+        return window <= 0 ? Integer.MAX_VALUE : window;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.chat.core.RoleType;
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.AbstractNetworkProtocol;
+import de.mash1t.networklib.ExtendedTCP;
+import de.mash1t.networklib.HashedTimerWheel;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import static de.mash1t.chat.server.console.ChatServer.clients;
+import static de.mash1t.chat.server.console.ChatServer.logConnection;
+import static de.mash1t.chat.server.console.ChatServer.logControl;
+import static de.mash1t.chat.server.console.ChatServer.logException;
+import static de.mash1t.chat.server.console.ChatServer.maxClientsCount;
+
+/**
+ * Handshake of the sockets accepted by the classic engine and of legacy clients of the non-blocking engine
+ *
+ * Choosing the protocol needs the first bytes of the client and a legacy client also has to send the header of its object stream, both block until the client sends something. So the accept loop only
+ * submits the socket and the handshake runs on the client executor, a client which has not finished it within the deadline is closed
+ *
+ * @author Manuel Schmid
+ */
+public final class HandshakeStage {
+
+    private final Executor executor;
+    private final long timeoutMillis;
+    private final int maxClients;
+    private final HashedTimerWheel deadlines;
+    // Guards the check of the client limit together with the registration
+    private final Object admission = new Object();
+
+    /**
+     * Constructor
+     *
+     * @param executor executor which runs the handshakes and afterwards the ClientThreads
+     * @param deadlines timer wheel which closes the sockets of late clients
+     * @param timeoutMillis time a client has for the handshake, 0 for no limit
+     */
+    public HandshakeStage(Executor executor, HashedTimerWheel deadlines, long timeoutMillis) {
+        this(executor, deadlines, timeoutMillis, maxClientsCount);
+    }
+
+    /**
+     * Constructor with a limit of clients
+     *
+     * @param executor executor which runs the handshakes and afterwards the ClientThreads
+     * @param deadlines timer wheel which closes the sockets of late clients
+     * @param timeoutMillis time a client has for the handshake, 0 for no limit
+     * @param maxClients clients which are admitted at the same time, 0 for no limit
+     */
+    public HandshakeStage(Executor executor, HashedTimerWheel deadlines, long timeoutMillis, int maxClients) {
+        this.executor = executor;
+        this.deadlines = deadlines;
+        this.timeoutMillis = timeoutMillis;
+        this.maxClients = maxClients;
+    }
+
+    /**
+     * Getter for the time a client has for the handshake
+     *
+     * @return timeout in milliseconds, 0 for no limit
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Starts the handshake of an accepted socket, never blocks
+     *
+     * @param socket accepted socket
+     */
+    public void submit(final Socket socket) {
+        final long acceptedAt = System.nanoTime();
+        Counters.socketAccepted();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handshake(socket, null, acceptedAt);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // Server is shutting down
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Finishes the handshake of a legacy client whose first bytes have already been read, e.g. by an event loop of the non-blocking engine
+     *
+     * The header of the object stream is read on the executor, under the deadline which started with the accept
+     *
+     * @param socket socket of the client in blocking mode
+     * @param in stream which starts with the bytes that have already been read
+     * @param acceptedAt time of the accept
+     */
+    public void submitLegacy(final Socket socket, final InputStream in, final long acceptedAt) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handshake(socket, in, acceptedAt);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Reads the first bytes of the client and starts its ClientThread on the current thread
+     *
+     * @param socket accepted socket
+     * @param legacy stream of a client which is already known to send an object stream, null to inspect the first bytes
+     * @param acceptedAt time of the accept
+     */
+    private void handshake(final Socket socket, InputStream legacy, long acceptedAt) {
+        final AtomicBoolean finished = new AtomicBoolean(false);
+        HashedTimerWheel.Timeout deadline = null;
+        if (timeoutMillis > 0) {
+            deadline = deadlines.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (finished.compareAndSet(false, true)) {
+                        // Closing the socket ends the blocked read
+                        Counters.handshakeTimedOut();
+                        logControl.log(logConnection, Level.INFO, socket.getRemoteSocketAddress() + ": closed, no handshake within " + timeoutMillis + " ms");
+                        closeQuietly(socket);
+                    }
+                }
+            }, timeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - acceptedAt), TimeUnit.MILLISECONDS);
+        }
+
+        AbstractNetworkProtocol conLib;
+        try {
+            conLib = legacy == null ? AbstractNetworkProtocol.fromSocket(socket, RoleType.Server) : new ExtendedTCP(socket, legacy, RoleType.Server);
+        } catch (IOException ex) {
+            if (finished.compareAndSet(false, true)) {
+                Counters.handshakeFailed();
+                logControl.log(logException, Level.INFO, socket.getRemoteSocketAddress() + ": handshake failed: " + ex.getMessage());
+                closeQuietly(socket);
+            }
+            return;
+        } finally {
+            if (deadline != null) {
+                deadline.cancel();
+            }
+        }
+        if (!finished.compareAndSet(false, true)) {
+            // Deadline has closed the socket right after the handshake
+            return;
+        }
+        Counters.handshakeCompleted(System.nanoTime() - acceptedAt);
+        admit(conLib, socket);
+    }
+
+    /**
+     * Starts a ClientThread or rejects the client if the server is full
+     *
+     * @param conLib protocol object of the client
+     * @param socket socket of the client
+     */
+    private void admit(AbstractNetworkProtocol conLib, Socket socket) {
+        ClientThread clientThread = null;
+        synchronized (admission) {
+            // maxClients = 0 means infinite clients
+            if (clients.connectionCount() < maxClients || maxClients == 0) {
+                clientThread = new ClientThread(conLib);
+                clients.register(clientThread);
+            }
+        }
+        if (clientThread == null) {
+            new RejectionThread(conLib, socket.getRemoteSocketAddress()).run();
+            return;
+        }
+        logControl.log(logConnection, Level.INFO, socket.getRemoteSocketAddress() + ": accepted, thread started");
+        Counters.login();
+        clientThread.run();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            Counters.exception();
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.AbstractNetworkProtocol;
+import de.mash1t.networklib.DirectFrame;
+import de.mash1t.networklib.HashedTimerWheel;
+import de.mash1t.networklib.Outbox;
+import de.mash1t.networklib.PacketFrame;
+import de.mash1t.networklib.methods.NetworkProtocol;
+import de.mash1t.networklib.packets.InvalidPacket;
+import de.mash1t.networklib.packets.Packet;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Network protocol of a connection which is served by a NioEventLoop
+ *
+ * Packets are not read by the owner of the connection but pushed by the event loop, sending only queues the frame and lets the event loop write it.
+ * The payloads of queued frames are pooled direct buffers, the event loop writes up to MAX_GATHER of them with one gathering write
+ *
+ * @author Manuel Schmid
+ */
+public final class NioConnection extends AbstractNetworkProtocol implements NetworkProtocol {
+
+    private static final int INITIAL_READ_BUFFER = 4096;
+    private static final int MAX_GATHER = 64;
+    // Frames in flight are not charged to the outbox, so they are limited separately
+    private static final int MAX_GATHER_BYTES = 64 * 1024;
+
+    protected final SocketChannel channel;
+    protected final SelectionKey key;
+    private final NioEventLoop eventLoop;
+    private final String ipString;
+
+    // Incoming bytes which have not yet been decoded
+    protected ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    // Frames waiting to be written by the event loop
+    protected final Outbox outbox = new Outbox();
+    // Frames handed to the socket which have not been written completely, only used by the event loop
+    private final ArrayDeque<DirectFrame> inFlight = new ArrayDeque<>();
+    private int inFlightBytes = 0;
+    // Headers and payloads of the frames in flight
+    protected final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHER * 2];
+    // Set when the buffers have been given back, frames queued afterwards are released right away
+    private volatile boolean released = false;
+    protected final AtomicBoolean writeRequested = new AtomicBoolean(false);
+    protected volatile boolean closing = false;
+
+    // Set when the first bytes have been inspected, which ends the handshake
+    protected boolean sniffed = false;
+    protected final long acceptedAt = System.nanoTime();
+    // Closes the connection if the first bytes do not arrive in time, only used by the event loop
+    protected HashedTimerWheel.Timeout handshakeDeadline = null;
+    protected ClientThread client;
+
+    /**
+     * Constructor
+     *
+     * @param channel accepted channel
+     * @param key key of the channel at the selector of the event loop
+     * @param eventLoop event loop which serves the connection
+     */
+    public NioConnection(SocketChannel channel, SelectionKey key, NioEventLoop eventLoop) {
+        this.channel = channel;
+        this.key = key;
+        this.eventLoop = eventLoop;
+        this.ipString = channel.socket().getInetAddress().toString();
+    }
+
+    /**
+     * Queues a Packet as one frame for the event loop, it is encoded by the event loop
+     *
+     * @param packet stands for itself
+     * @return result of queueing
+     */
+    @Override
+    public boolean send(Packet packet) {
+        if (closing) {
+            return false;
+        }
+        Counters.connection();
+        return enqueue(PacketFrame.of(packet));
+    }
+
+    /**
+     * Queues an already encoded frame for the event loop
+     *
+     * @param frame frame to send
+     * @return result of queueing
+     */
+    @Override
+    public boolean send(PacketFrame frame) {
+        if (closing) {
+            return false;
+        }
+        Counters.connection();
+        return enqueue(frame);
+    }
+
+    /**
+     * Queues several frames and wakes the event loop once, so they leave with the same gathering write
+     *
+     * @param frames frames to send in this order
+     * @return false if the connection is closing or a frame has been dropped
+     */
+    @Override
+    public boolean sendBatch(PacketFrame... frames) {
+        if (closing) {
+            return false;
+        }
+        boolean queued = true;
+        for (PacketFrame frame : frames) {
+            Counters.connection();
+            queued &= queue(frame);
+        }
+        lastSent = System.nanoTime();
+        eventLoop.requestWrite(this);
+        return queued;
+    }
+
+    /**
+     * Queues a frame for the event loop, the payload is shared with all connections of the same wire format
+     *
+     * @param frame frame to send, may be shared with other connections
+     * @return false if the frame has been dropped by the slow consumer policy
+     */
+    protected boolean enqueue(PacketFrame frame) {
+        if (!queue(frame)) {
+            return false;
+        }
+        lastSent = System.nanoTime();
+        eventLoop.requestWrite(this);
+        return true;
+    }
+
+    /**
+     * Adds a frame to the outbox without waking the event loop
+     *
+     * @param frame frame to send
+     * @return false if the frame has been dropped
+     */
+    private boolean queue(PacketFrame frame) {
+        DirectFrame direct;
+        try {
+            direct = DirectFrame.of(frame, wireFormat, compressor);
+        } catch (IOException ex) {
+            Counters.exception();
+            return false;
+        }
+        if (!outbox.offer(direct)) {
+            direct.release();
+            if (outbox.takeOverflow()) {
+                eventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        eventLoop.kickSlowConsumer(NioConnection.this);
+                    }
+                });
+            }
+            return false;
+        }
+        if (released) {
+            // Closed while the frame was queued
+            dropQueued();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Fills the gathered buffers with the frames to write next, only called by the event loop
+     *
+     * @return number of buffers, 0 if there is nothing to write
+     */
+    protected int gather() {
+        while (inFlight.size() < MAX_GATHER && inFlightBytes < MAX_GATHER_BYTES) {
+            Object entry = outbox.poll();
+            if (entry == null && outbox.resume()) {
+                entry = outbox.poll();
+            }
+            if (entry == null) {
+                break;
+            }
+            try {
+                DirectFrame frame = toDirectFrame(entry);
+                dequeued(frame.getPacket());
+                inFlight.addLast(frame);
+                inFlightBytes += frame.length();
+            } catch (IOException ex) {
+                Counters.exception();
+            }
+        }
+        int count = 0;
+        for (DirectFrame frame : inFlight) {
+            gathered[count++] = frame.header();
+            gathered[count++] = frame.payload();
+        }
+        return count;
+    }
+
+    /**
+     * Gives the buffers of all completely written frames back, only called by the event loop
+     *
+     * @return true if a frame has not been written completely
+     */
+    protected boolean releaseWritten() {
+        while (!inFlight.isEmpty() && inFlight.peekFirst().isWritten()) {
+            DirectFrame frame = inFlight.pollFirst();
+            inFlightBytes -= frame.length();
+            frame.release();
+        }
+        return !inFlight.isEmpty();
+    }
+
+    /**
+     * Drops all queued frames, frames in flight are still completed so the stream stays intact
+     */
+    protected void discardOutbound() {
+        outbox.clear();
+    }
+
+    /**
+     * Gives all buffers back once the channel has been closed
+     */
+    protected void releaseOutbound() {
+        released = true;
+        dropQueued();
+        while (!inFlight.isEmpty()) {
+            inFlight.pollFirst().release();
+        }
+        inFlightBytes = 0;
+        releaseCompressor();
+    }
+
+    /**
+     * Drops all queued frames, the chat messages among them are still numbered so a resumed session gets them again
+     */
+    private void dropQueued() {
+        if (getAckTracker() != null) {
+            Object entry;
+            while ((entry = outbox.poll()) != null) {
+                if (entry instanceof DirectFrame) {
+                    dequeued(((DirectFrame) entry).getPacket());
+                    ((DirectFrame) entry).release();
+                } else {
+                    dequeued(entry instanceof PacketFrame ? ((PacketFrame) entry).getPacket() : (Packet) entry);
+                }
+            }
+        }
+        outbox.clear();
+    }
+
+    private DirectFrame toDirectFrame(Object entry) throws IOException {
+        if (entry instanceof DirectFrame) {
+            return (DirectFrame) entry;
+        }
+        // Catch-up and kick packets are queued without being encoded
+        PacketFrame frame = entry instanceof PacketFrame ? (PacketFrame) entry : PacketFrame.of((Packet) entry);
+        return DirectFrame.of(frame, wireFormat, compressor);
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return outbox.depth();
+    }
+
+    /**
+     * Queues a packet without waking the event loop, flush() hands the queued frames over
+     *
+     * @param packet packet to write
+     * @return false if the connection is closing or the frame has been dropped
+     */
+    @Override
+    protected boolean write(Packet packet) {
+        return !closing && queue(PacketFrame.of(packet));
+    }
+
+    /**
+     * Queues an encoded frame without waking the event loop
+     *
+     * @param frame frame to write
+     * @return false if the connection is closing or the frame has been dropped
+     */
+    @Override
+    protected boolean write(PacketFrame frame) {
+        return !closing && queue(frame);
+    }
+
+    /**
+     * Asks the event loop to write the queued frames
+     *
+     * @return true
+     */
+    @Override
+    protected boolean flush() {
+        eventLoop.requestWrite(this);
+        return true;
+    }
+
+    /**
+     * Never called, the event loop pushes the packets of this connection to its ClientThread
+     *
+     * @return an InvalidPacket
+     */
+    @Override
+    public Packet read() {
+        return new InvalidPacket();
+    }
+
+    /**
+     * Closes the channel on the event loop without writing the queued frames
+     *
+     * @return true
+     */
+    @Override
+    protected boolean closeNow() {
+        closing = true;
+        eventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                eventLoop.close(NioConnection.this);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Closes the connection as soon as all queued frames have been written
+     *
+     * @return true
+     */
+    @Override
+    public boolean close() {
+        closing = true;
+        eventLoop.requestWrite(this);
+        return true;
+    }
+
+    @Override
+    public String getIP() {
+        return ipString;
+    }
+}
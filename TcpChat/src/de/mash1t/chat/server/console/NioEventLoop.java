@@ -0,0 +1,487 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.FrameCodec;
+import de.mash1t.networklib.OutboundQueue;
+import de.mash1t.networklib.PacketFrame;
+import de.mash1t.networklib.TransportSettings;
+import de.mash1t.networklib.packets.InvalidPacket;
+import de.mash1t.networklib.packets.KickPacket;
+import de.mash1t.networklib.packets.Packet;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import static de.mash1t.chat.server.console.ChatServer.*;
+
+/**
+ * One shard of the non-blocking server engine
+ *
+ * Reads and writes all connections which the NioServer has pinned to this shard and dispatches their packets to the same ClientThread methods as the classic engine does. Other threads never touch the
+ * sockets of a shard, they hand work over through its task queue. Legacy clients, which send a java object stream, are handed over to a classic ClientThread
+ *
+ * @author Manuel Schmid
+ */
+public final class NioEventLoop implements Runnable {
+
+    private final int shard;
+    private final Selector selector;
+    private Thread loopThread;
+
+    // Connections which are served by this shard, only used by the loop thread
+    private final Set<NioConnection> connections = new HashSet<>();
+    // Channels handed over by the acceptor
+    private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+    // Work handed over by other threads
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Connections with frames waiting to be written
+    private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+    // Legacy connections which leave the selector after the current round
+    private final List<NioConnection> pendingHandoffs = new ArrayList<>();
+
+    /**
+     * Constructor
+     *
+     * @param shard number of this shard
+     * @throws IOException
+     */
+    public NioEventLoop(int shard) throws IOException {
+        this.shard = shard;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Runs the event loop
+     */
+    @Override
+    public void run() {
+        loopThread = Thread.currentThread();
+        try {
+            while (true) {
+                selector.select();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    Counters.shardEvent(shard);
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (key.isReadable()) {
+                        read(connection);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        flush(connection);
+                    }
+                }
+
+                processPendingHandoffs();
+                registerNewChannels();
+                runTasks();
+                processPendingWrites();
+            }
+        } catch (IOException ex) {
+            logControl.log(logException, Level.SEVERE, "Event loop " + shard + " failed: " + ex.getMessage());
+            Counters.exception();
+        }
+    }
+
+    /**
+     * Takes over a channel from the acceptor
+     *
+     * @param channel accepted channel
+     */
+    protected void register(SocketChannel channel) {
+        newChannels.offer(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs a task on the loop thread of this shard
+     *
+     * @param task task to run
+     */
+    protected void execute(Runnable task) {
+        tasks.offer(task);
+        if (Thread.currentThread() != loopThread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Sends an encoded packet to all online clients of this shard
+     *
+     * Has to be called on the loop thread, other threads use execute()
+     *
+     * @param frame frame to send, shared by all shards
+     * @param except client which does not get the packet, may be null
+     */
+    protected void broadcast(PacketFrame frame, ClientThread except) {
+        for (NioConnection connection : connections) {
+            ClientThread client = connection.client;
+            if (client != null && client != except && client.state == ConnectionState.Online && client.conLib == connection) {
+                connection.enqueue(frame);
+            }
+        }
+    }
+
+    /**
+     * Asks the event loop to write the queued frames of a connection
+     *
+     * @param connection connection with queued frames
+     */
+    protected void requestWrite(NioConnection connection) {
+        if (connection.writeRequested.compareAndSet(false, true)) {
+            pendingWrites.offer(connection);
+            if (Thread.currentThread() != loopThread) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Registers the channels handed over by the acceptor for reading
+     */
+    private void registerNewChannels() {
+        SocketChannel channel;
+        while ((channel = newChannels.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(TransportSettings.isTcpNoDelay());
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioConnection connection = new NioConnection(channel, key, this);
+                key.attach(connection);
+                connections.add(connection);
+                Counters.shardConnected(shard);
+                armHandshakeDeadline(connection);
+                logControl.log(logConnection, Level.INFO, channel.socket().getRemoteSocketAddress() + ": accepted on event loop " + shard);
+            } catch (IOException ex) {
+                logControl.log(logException, Level.SEVERE, "Could not register connection: " + ex.getMessage());
+                Counters.exception();
+                closeChannel(channel);
+            }
+        }
+    }
+
+    /**
+     * Starts the deadline of the HandshakeStage for a new connection, a client which does not send its first bytes in time is closed
+     *
+     * @param connection new connection
+     */
+    private void armHandshakeDeadline(final NioConnection connection) {
+        long timeoutMillis = handshakes.getTimeoutMillis();
+        if (timers == null || timeoutMillis <= 0) {
+            return;
+        }
+        final Runnable expire = new Runnable() {
+            @Override
+            public void run() {
+                if (!connection.sniffed && !connection.closing) {
+                    Counters.handshakeTimedOut();
+                    logControl.log(logConnection, Level.INFO, connection.getIP() + ": closed, no handshake within " + handshakes.getTimeoutMillis() + " ms");
+                    connection.closing = true;
+                    close(connection);
+                }
+            }
+        };
+        connection.handshakeDeadline = timers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // The socket belongs to the loop thread
+                execute(expire);
+            }
+        }, timeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connection.acceptedAt), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs all tasks handed over by other threads
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception ex) {
+                logControl.log(logException, Level.INFO, "Task on event loop " + shard + " failed: " + ex.getMessage());
+                Counters.exception();
+            }
+        }
+    }
+
+    /**
+     * Reads available bytes and dispatches all complete frames
+     *
+     * @param connection connection to read from
+     */
+    private void read(NioConnection connection) {
+        try {
+            if (connection.channel.read(connection.readBuffer) == -1) {
+                lost(connection);
+                return;
+            }
+        } catch (IOException ex) {
+            Counters.exception();
+            lost(connection);
+            return;
+        }
+
+        if (!connection.sniffed) {
+            if (connection.readBuffer.position() < 2) {
+                return;
+            }
+            connection.sniffed = true;
+            if (connection.handshakeDeadline != null) {
+                connection.handshakeDeadline.cancel();
+            }
+            if (FrameCodec.isObjectStream(connection.readBuffer.get(0), connection.readBuffer.get(1))) {
+                // Legacy client, leaves the selector after this round
+                pendingHandoffs.add(connection);
+                return;
+            }
+            Counters.handshakeCompleted(System.nanoTime() - connection.acceptedAt);
+            connection.client = new ClientThread(connection);
+            clients.register(connection.client);
+            Counters.login();
+            connection.client.armLoginDeadline();
+        }
+
+        ByteBuffer buffer = connection.readBuffer;
+        buffer.flip();
+        while (buffer.remaining() >= FrameCodec.HEADER_LENGTH && !connection.closing) {
+            int length = buffer.getInt(buffer.position());
+            if (!FrameCodec.isValidLength(length)) {
+                dispatch(connection, new InvalidPacket());
+                buffer.clear();
+                return;
+            }
+            if (buffer.remaining() < FrameCodec.HEADER_LENGTH + length) {
+                break;
+            }
+            buffer.position(buffer.position() + FrameCodec.HEADER_LENGTH);
+            Packet packet = connection.decodeFrame(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            buffer.position(buffer.position() + length);
+            Counters.connection();
+            dispatch(connection, packet);
+        }
+        buffer.compact();
+
+        // Grow buffer if the next frame does not fit
+        if (buffer.position() >= FrameCodec.HEADER_LENGTH) {
+            int needed = FrameCodec.HEADER_LENGTH + buffer.getInt(0);
+            if (FrameCodec.isValidLength(needed - FrameCodec.HEADER_LENGTH) && needed > buffer.capacity()) {
+                ByteBuffer bigger = ByteBuffer.allocate(needed);
+                buffer.flip();
+                bigger.put(buffer);
+                connection.readBuffer = bigger;
+            }
+        }
+    }
+
+    /**
+     * Passes a packet to the ClientThread, just like the read loop of the classic engine
+     *
+     * @param connection connection the packet was read from
+     * @param packet received packet
+     */
+    private void dispatch(NioConnection connection, Packet packet) {
+        ClientThread client = connection.client;
+        try {
+            if (client.conLib != connection) {
+                // The session has moved on to another connection
+                return;
+            }
+            if (client.state == ConnectionState.InLogin) {
+                if (!client.login(packet)) {
+                    client.disconnect();
+                } else if (client.resumed != null) {
+                    // This connection serves the resumed session from now on
+                    connection.client = client.resumed;
+                }
+            } else if (client.isActive()) {
+                client.handlePacket(packet);
+                if (!client.isActive()) {
+                    client.logout();
+                }
+            }
+        } catch (Exception ex) {
+            logControl.log(logException, Level.INFO, connection.getIP() + "(" + client.clientName + "): " + ex.getMessage());
+            Counters.exception();
+        }
+    }
+
+    /**
+     * Writes queued frames of all connections which asked for it
+     */
+    private void processPendingWrites() {
+        NioConnection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            connection.writeRequested.set(false);
+            if (connection.key.isValid()) {
+                flush(connection);
+            }
+        }
+    }
+
+    /**
+     * Writes as many queued frames as the socket accepts
+     *
+     * @param connection connection to write
+     */
+    private void flush(NioConnection connection) {
+        try {
+            int count;
+            while ((count = connection.gather()) > 0) {
+                connection.channel.write(connection.gathered, 0, count);
+                if (connection.releaseWritten()) {
+                    // Socket buffer is full, continue when writable again
+                    connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (connection.closing) {
+                close(connection);
+            }
+        } catch (IOException ex) {
+            Counters.exception();
+            lost(connection);
+        }
+    }
+
+    /**
+     * Handles a connection which has been closed by the other side
+     *
+     * @param connection closed connection
+     */
+    private void lost(NioConnection connection) {
+        if (!connection.closing && connection.client != null && connection.client.conLib == connection) {
+            connection.client.connectionLost();
+        }
+        connection.closing = true;
+        close(connection);
+    }
+
+    /**
+     * Closes a connection and removes it from this shard
+     *
+     * Has to be called on the loop thread
+     *
+     * @param connection connection to close
+     */
+    protected void close(NioConnection connection) {
+        if (connections.remove(connection)) {
+            Counters.shardDisconnected(shard);
+        }
+        closeChannel(connection.channel);
+        // Frames which could not be written anymore
+        connection.releaseOutbound();
+    }
+
+    /**
+     * Drops a connection which has exceeded its outbound budget under the Kick policy
+     *
+     * Has to be called on the loop thread, the KickPacket is written before the connection is closed
+     *
+     * @param connection connection of the slow client
+     */
+    protected void kickSlowConsumer(NioConnection connection) {
+        if (connection.closing) {
+            return;
+        }
+        logControl.log(logConnection, Level.INFO, connection.getIP() + ": dropped, outbound budget exceeded with " + connection.getQueueDepth() + " packets queued");
+        connection.discardOutbound();
+        connection.outbox.force(new KickPacket(OutboundQueue.SLOW_CONSUMER_MESSAGE));
+        if (connection.client != null && connection.client.conLib == connection) {
+            // A client which can not keep up would not catch up after resuming either
+            connection.client.dropped();
+        } else {
+            connection.close();
+        }
+    }
+
+    /**
+     * Moves legacy connections to a classic ClientThread
+     */
+    private void processPendingHandoffs() throws IOException {
+        if (pendingHandoffs.isEmpty()) {
+            return;
+        }
+        for (NioConnection connection : pendingHandoffs) {
+            connection.key.cancel();
+            if (connections.remove(connection)) {
+                Counters.shardDisconnected(shard);
+            }
+        }
+        // Deregister the cancelled keys before switching to blocking mode
+        selector.selectNow();
+
+        for (NioConnection connection : pendingHandoffs) {
+            try {
+                connection.channel.configureBlocking(true);
+                ByteBuffer buffer = connection.readBuffer;
+                Socket socket = connection.channel.socket();
+                // The object stream header is read by the HandshakeStage, within the deadline which started with the accept
+                handshakes.submitLegacy(socket, new SequenceInputStream(new ByteArrayInputStream(buffer.array(), 0, buffer.position()), socket.getInputStream()),
+                        connection.acceptedAt);
+            } catch (IOException ex) {
+                Counters.exception();
+                closeChannel(connection.channel);
+            }
+        }
+        pendingHandoffs.clear();
+    }
+
+    /**
+     * Closes a channel quietly
+     *
+     * @param channel channel to close
+     */
+    protected static void closeChannel(SocketChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            Counters.exception();
+        }
+    }
+}
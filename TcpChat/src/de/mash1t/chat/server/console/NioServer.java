@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.PacketFrame;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import static de.mash1t.chat.server.console.ChatServer.*;
+
+/**
+ * Non-blocking server engine
+ *
+ * A dedicated acceptor thread accepts all connections and pins each of them to one of several NioEventLoop shards, chosen by the hash of the remote address
+ *
+ * @author Manuel Schmid
+ */
+public final class NioServer implements Runnable {
+
+    private final int portNumber;
+    private final NioEventLoop[] eventLoops;
+
+    /**
+     * Constructor
+     *
+     * @param portNumber port to listen on
+     * @param eventLoopCount number of event loop shards
+     * @throws IOException
+     */
+    public NioServer(int portNumber, int eventLoopCount) throws IOException {
+        this.portNumber = portNumber;
+        this.eventLoops = new NioEventLoop[eventLoopCount];
+        for (int i = 0; i < eventLoopCount; i++) {
+            eventLoops[i] = new NioEventLoop(i);
+        }
+        Counters.initShards(eventLoopCount);
+    }
+
+    /**
+     * Starts the event loops and accepts connections on the current thread
+     */
+    @Override
+    public void run() {
+        for (int i = 0; i < eventLoops.length; i++) {
+            Thread loopThread = new Thread(eventLoops[i], "EventLoop-" + i);
+            loopThread.setDaemon(true);
+            loopThread.start();
+        }
+        logControl.log(logGeneral, Level.INFO, "Started " + eventLoops.length + " event loops");
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.socket().bind(new InetSocketAddress(portNumber));
+
+            while (true) {
+                SocketChannel channel = null;
+                try {
+                    channel = serverChannel.accept();
+                    Counters.connection();
+                    Counters.socketAccepted();
+                    eventLoops[shardOf(channel.socket().getRemoteSocketAddress(), eventLoops.length)].register(channel);
+                } catch (IOException ex) {
+                    logControl.log(logException, Level.SEVERE, "Could not accept connection: " + ex.getMessage());
+                    Counters.exception();
+                    NioEventLoop.closeChannel(channel);
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println(ex);
+            logControl.log(logException, Level.SEVERE, "Could not open Server Socket");
+            logControl.log(logException, Level.SEVERE, "Exiting Server");
+            logControl.log(logGeneral, Level.SEVERE, "Exiting Server");
+            Counters.exception();
+        }
+    }
+
+    /**
+     * Sends an encoded packet to all online clients of all shards
+     *
+     * Every shard gets the frame through its task queue and writes it to its own connections only
+     *
+     * @param frame frame to send
+     * @param except client which does not get the packet, may be null
+     */
+    protected void broadcast(final PacketFrame frame, final ClientThread except) {
+        for (final NioEventLoop eventLoop : eventLoops) {
+            eventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    eventLoop.broadcast(frame, except);
+                }
+            });
+        }
+    }
+
+    /**
+     * Chooses the shard of a connection by the hash of its remote address
+     *
+     * @param address remote address of the accepted channel
+     * @param shards number of shards
+     * @return index of the shard
+     */
+    protected static int shardOf(SocketAddress address, int shards) {
+        // Addresses of one host only differ in the port, and Linux prefers even ports for outgoing connections,
+        // so the high bits of the product have to decide the shard
+        int hash = address.hashCode() * 0x9E3779B9;
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % shards;
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.HashedTimerWheel;
+import de.mash1t.networklib.PacketFrame;
+import de.mash1t.networklib.RosterPacket;
+import de.mash1t.networklib.UserListDeltaPacket;
+import de.mash1t.networklib.packets.UserListPacket;
+import de.mash1t.networklib.packets.UserListPacketType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import static de.mash1t.chat.server.console.ChatServer.clientExecutor;
+import static de.mash1t.chat.server.console.ChatServer.clients;
+
+/**
+ * Collects joins and leaves for a short window and sends them to every online client at once
+ *
+ * A storm of reconnecting clients would otherwise cost one packet per change and recipient. Clients which understand extended packets get one UserListDeltaPacket per window, older clients one
+ * UserListPacket per user which has changed. A user who joins and leaves within the same window is not announced at all. The window doubles while the batches are large and shrinks back when the churn
+ * is over
+ *
+ * Every change gets a sequence number, which is also the version of the roster. A client remembers the sequence at which it got its full user list and only gets the changes which came later. Deltas
+ * carry the versions they move the roster between, so a client notices a missed delta and asks for the changes since its version. The last changes are kept for these requests and for clients which
+ * reconnect with a recent version, older versions get the whole roster. In a room above the page threshold that is only its first page, the client loads the rest while it scrolls
+ *
+ * @author Manuel Schmid
+ */
+public final class PresenceBroadcaster {
+
+    // Changes per batch at which the window doubles
+    private static final int GROW_AT = 32;
+    // Changes per batch at which the window is halved
+    private static final int SHRINK_AT = 4;
+    // Sent changes which are kept to answer roster requests
+    private static final int HISTORY_LIMIT = 4096;
+    // Names in the first page of a large roster
+    private static final int FIRST_PAGE = 100;
+
+    private final HashedTimerWheel timers;
+    private final long minWindowMillis;
+    private final long maxWindowMillis;
+    private final int pageThreshold;
+    // Versions of different server runs cannot be compared
+    private final long epoch = System.currentTimeMillis();
+
+    // Guarded by this
+    private long windowMillis;
+    private long sequence = 0;
+    private boolean scheduled = false;
+    private final Map<String, Change> pending = new LinkedHashMap<>();
+    // Version of the last delta that has been sent
+    private long sentVersion = 0;
+    private final ArrayDeque<Change> history = new ArrayDeque<>();
+    // Changes up to this version are no longer in the history
+    private long forgottenVersion = 0;
+    private PacketFrame rosterFrame = null;
+    private long rosterVersion = -1;
+    // Keeps the deltas of consecutive windows in order, when they are flushed on the calling threads
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    /**
+     * Constructor
+     *
+     * @param timers timer wheel which ends the windows
+     * @param minWindowMillis window while there is little churn, 0 to send every change right away
+     * @param maxWindowMillis upper limit of the growing window
+     * @param pageThreshold users from which only the first page of the roster is sent, 0 to always send all
+     */
+    public PresenceBroadcaster(HashedTimerWheel timers, long minWindowMillis, long maxWindowMillis, int pageThreshold) {
+        this.timers = timers;
+        this.minWindowMillis = minWindowMillis;
+        this.maxWindowMillis = Math.max(minWindowMillis, maxWindowMillis);
+        this.windowMillis = minWindowMillis;
+        this.pageThreshold = pageThreshold;
+    }
+
+    /**
+     * Announces a user who has logged in
+     *
+     * @param name nickname of the user
+     */
+    public void joined(String name) {
+        changed(name, true);
+    }
+
+    /**
+     * Announces a user who has logged out
+     *
+     * @param name nickname of the user
+     */
+    public void left(String name) {
+        changed(name, false);
+    }
+
+    /**
+     * Getter for the sequence of the last change, read by a client before its full user list is built
+     *
+     * @return sequence number
+     */
+    public synchronized long sequence() {
+        return sequence;
+    }
+
+    /**
+     * Brings a client which understands extended packets up to date, after its login or a missed delta
+     *
+     * A client which knows a version of this server run that is still in the history gets only the changes since then, all others get the whole roster. The presence sequence of the client is set to
+     * the version it has afterwards, so the next window starts right there
+     *
+     * @param client client to update
+     * @param knownEpoch server run of the version the client has, 0 if it has none
+     * @param knownVersion version the client has
+     * @return frame to send to the client
+     */
+    public synchronized PacketFrame sync(ClientThread client, long knownEpoch, long knownVersion) {
+        if (knownEpoch == epoch && knownVersion >= forgottenVersion && knownVersion <= sentVersion) {
+            // The pending changes follow with the next window
+            Map<String, Boolean> latest = new LinkedHashMap<>();
+            for (Change change : history) {
+                if (change.lastSequence > knownVersion) {
+                    latest.put(change.name, change.present);
+                }
+            }
+            List<String> joined = new ArrayList<>();
+            List<String> left = new ArrayList<>();
+            for (Map.Entry<String, Boolean> entry : latest.entrySet()) {
+                (entry.getValue() ? joined : left).add(entry.getKey());
+            }
+            client.presenceSequence = sentVersion;
+            Counters.rosterCaughtUp();
+            return PacketFrame.of(new UserListDeltaPacket(knownVersion, sentVersion, joined, left));
+        }
+        if (rosterVersion != sequence) {
+            int total = clients.size();
+            List<String> names = pageThreshold > 0 && total > pageThreshold ? clients.getFirstNames(FIRST_PAGE) : clients.getNames();
+            rosterFrame = PacketFrame.of(new RosterPacket(epoch, sequence, Math.max(total, names.size()), names));
+            rosterVersion = sequence;
+        }
+        client.presenceSequence = rosterVersion;
+        Counters.rosterSent();
+        return rosterFrame;
+    }
+
+    private void changed(String name, boolean present) {
+        boolean flushNow = false;
+        synchronized (this) {
+            sequence++;
+            Change change = pending.get(name);
+            if (change == null) {
+                pending.put(name, new Change(name, !present, present, sequence));
+            } else {
+                change.present = present;
+                change.lastSequence = sequence;
+                if (change.wasPresent == present) {
+                    Counters.presenceCancelled();
+                }
+            }
+            Counters.presenceChanged();
+            if (windowMillis == 0 || timers == null) {
+                flushNow = true;
+            } else if (!scheduled) {
+                scheduled = true;
+                try {
+                    timers.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush();
+                        }
+                    }, windowMillis, TimeUnit.MILLISECONDS, clientExecutor);
+                } catch (IllegalStateException ex) {
+                    // Timer wheel has been stopped on shutdown
+                    flushNow = true;
+                }
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends all pending changes, runs on the client executor at the end of a window
+     */
+    protected void flush() {
+        flushLock.lock();
+        try {
+            send();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void send() {
+        Change[] changes;
+        long fromVersion;
+        long toVersion;
+        synchronized (this) {
+            changes = pending.values().toArray(new Change[pending.size()]);
+            pending.clear();
+            scheduled = false;
+            adapt(changes.length);
+            fromVersion = sentVersion;
+            toVersion = sequence;
+            sentVersion = sequence;
+            remember(changes);
+        }
+        if (changes.length == 0) {
+            return;
+        }
+        Counters.presenceBatch();
+
+        // Most recipients have been online for the whole window and get the same packets
+        long firstSequence = Long.MAX_VALUE;
+        List<Change> netChanges = new ArrayList<>(changes.length);
+        for (Change change : changes) {
+            firstSequence = Math.min(firstSequence, change.firstSequence);
+            if (change.wasPresent != change.present) {
+                netChanges.add(change);
+            }
+        }
+        PacketFrame sharedDelta = deltaFrame(netChanges, fromVersion, toVersion);
+        PacketFrame[] sharedSingles = singleFrames(netChanges);
+
+        for (ClientThread client : clients.snapshot()) {
+            long seen = client.presenceSequence;
+            if (client.state != ConnectionState.Online || seen >= toVersion) {
+                continue;
+            }
+            PacketFrame delta = sharedDelta;
+            PacketFrame[] singles = sharedSingles;
+            if (seen >= firstSequence) {
+                // Logged in during the window, its user list already contains a part of the changes
+                List<Change> missed = missedChanges(changes, seen);
+                delta = deltaFrame(missed, seen, toVersion);
+                singles = singleFrames(missed);
+            }
+            if (client.understandsExtendedPackets()) {
+                // Also sent without changes, every version has to reach the client
+                client.conLib.send(delta);
+            } else if (singles.length > 0) {
+                client.conLib.sendBatch(singles);
+            }
+        }
+    }
+
+    /**
+     * Adds sent changes to the history and forgets the oldest ones
+     *
+     * @param changes changes of the last window
+     */
+    private void remember(Change[] changes) {
+        for (Change change : changes) {
+            history.addLast(change);
+        }
+        while (history.size() > HISTORY_LIMIT) {
+            // The history is ordered by the first change of a window, an evicted change may be older than the one before
+            forgottenVersion = Math.max(forgottenVersion, history.removeFirst().lastSequence);
+        }
+    }
+
+    /**
+     * Lets the window grow while the churn is high and shrink when it is over
+     *
+     * @param changes count of changes in the last window
+     */
+    private void adapt(int changes) {
+        if (changes >= GROW_AT) {
+            windowMillis = Math.min(windowMillis * 2, maxWindowMillis);
+        } else if (changes <= SHRINK_AT) {
+            windowMillis = Math.max(windowMillis / 2, minWindowMillis);
+        }
+        Counters.Presence.windowMillis.set(windowMillis);
+    }
+
+    /**
+     * Selects the changes a client which has seen the given sequence does not know yet
+     *
+     * The state of its list in the middle of a window is unknown, so it gets the final state of every user who has changed afterwards. Clients apply a join of a listed user or a leave of an unlisted
+     * one without harm
+     *
+     * @param changes all changes of the window
+     * @param seen sequence at which the client has got its full list
+     * @return changes to send
+     */
+    private static List<Change> missedChanges(Change[] changes, long seen) {
+        List<Change> missed = new ArrayList<>();
+        for (Change change : changes) {
+            // Users who came and went after the list was built never appeared in it
+            if (change.lastSequence > seen && (change.firstSequence <= seen || change.wasPresent != change.present)) {
+                missed.add(change);
+            }
+        }
+        return missed;
+    }
+
+    private static PacketFrame deltaFrame(List<Change> changes, long fromVersion, long toVersion) {
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        for (Change change : changes) {
+            (change.present ? joined : left).add(change.name);
+        }
+        return PacketFrame.of(new UserListDeltaPacket(fromVersion, toVersion, joined, left));
+    }
+
+    private static PacketFrame[] singleFrames(List<Change> changes) {
+        PacketFrame[] frames = new PacketFrame[changes.size()];
+        for (int i = 0; i < frames.length; i++) {
+            Change change = changes.get(i);
+            frames[i] = PacketFrame.of(new UserListPacket(change.name, change.present ? UserListPacketType.Connected : UserListPacketType.Disconnected));
+        }
+        return frames;
+    }
+
+    /**
+     * Presence of one user within the current window
+     */
+    private static final class Change {
+
+        private final String name;
+        // Presence before the window
+        private final boolean wasPresent;
+        private final long firstSequence;
+        private boolean present;
+        private long lastSequence;
+
+        private Change(String name, boolean wasPresent, boolean present, long sequence) {
+            this.name = name;
+            this.wasPresent = wasPresent;
+            this.present = present;
+            this.firstSequence = sequence;
+            this.lastSequence = sequence;
+        }
+    }
+}
@@ -23,59 +23,67 @@
  */
 package de.mash1t.chat.server.console;
 
-import java.io.IOException;
-import java.net.Socket;
 import java.net.SocketAddress;
 import java.util.logging.Level;
 import de.mash1t.chat.logging.Counters;
 import de.mash1t.networklib.packets.Packet;
 import de.mash1t.networklib.packets.PacketType;
-import de.mash1t.chat.core.RoleType;
 import de.mash1t.networklib.packets.ConnectPacket;
 import de.mash1t.networklib.packets.KickPacket;
 import static de.mash1t.chat.server.console.ChatServer.logConnection;
 import static de.mash1t.chat.server.console.ChatServer.logControl;
-import de.mash1t.networklib.ExtendedTCP;
+import de.mash1t.networklib.AbstractNetworkProtocol;
+import de.mash1t.networklib.ExtendedPacket;
 
 /**
  * Class for rejecting clients politely if server has already maxClients
  *
+ * Runs on the thread which has done the handshake of the client
+ *
  * @author Manuel Schmid
  */
-public final class RejectionThread extends Thread {
+public final class RejectionThread implements Runnable {
+
+    // Packets a client may send before its ConnectPacket: Hello, Ack, RosterRequest and Resume, with some room
+    private static final int MAX_PACKETS_BEFORE_CONNECT = 8;
 
-    protected ExtendedTCP conLib;
+    protected AbstractNetworkProtocol conLib;
     protected SocketAddress ip;
 
     /**
      * Constructor
      *
-     * @param clientSocket Sochet where the connection was accepted
-     * @throws java.io.IOException
+     * @param conLib protocol object of the client after the handshake
+     * @param ip address of the client
      */
-    public RejectionThread(Socket clientSocket) throws IOException {
-        conLib = new ExtendedTCP(clientSocket, RoleType.Server);
+    public RejectionThread(AbstractNetworkProtocol conLib, SocketAddress ip) {
+        this.conLib = conLib;
+        this.ip = ip;
     }
 
     /**
-     * Called when thread is started
+     * Reads the ConnectPacket and tells the client why it is rejected
      */
     @Override
     public void run() {
 
 //        try {
         Packet clientAnswer = conLib.read();
+        // Current clients send Hello, Ack and, when reconnecting, their roster and session before the ConnectPacket
+        for (int skipped = 0; clientAnswer instanceof ExtendedPacket && skipped < MAX_PACKETS_BEFORE_CONNECT; skipped++) {
+            clientAnswer = conLib.read();
+        }
         PacketType pType = clientAnswer.getType();
 
         if (pType == PacketType.Connect) {
             String name = ((ConnectPacket) clientAnswer).getName();
             conLib.send(new KickPacket("Sorry \"" + name + "\", too many clients. Please try later."));
+            // clientSocket.getRemoteSocketAddress()
+            logControl.log(logConnection, Level.INFO, ip.toString() + ": rejected, server is full");
         } else {
             conLib.send(new KickPacket("Security breach: Please do not use a modified client"));
+            logControl.log(logConnection, Level.INFO, ip.toString() + ": rejected, server is full and no ConnectPacket received");
         }
-
-        // clientSocket.getRemoteSocketAddress()
-        logControl.log(logConnection, Level.INFO, ip.toString() + ": rejected, server is full");
         conLib.close();
 
 //        } catch (IOException ex) {
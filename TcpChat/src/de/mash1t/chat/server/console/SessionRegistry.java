@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.networklib.HashedTimerWheel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import static de.mash1t.chat.server.console.ChatServer.clientExecutor;
+
+/**
+ * Registry of the sessions which can be resumed
+ *
+ * A client which acknowledges chat messages gets the session id of its first connection as resume token. When that connection is lost, the session stays online for the grace period, so the client
+ * can continue it on a new connection without the others noticing
+ *
+ * @author Manuel Schmid
+ */
+public final class SessionRegistry {
+
+    private final HashedTimerWheel timers;
+    private final long graceMillis;
+    private final ConcurrentMap<String, ClientThread> byToken = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param timers timer wheel which expires suspended sessions, null to disable resumption
+     * @param graceMillis time a session is kept after its connection has been lost, 0 to disable resumption
+     */
+    public SessionRegistry(HashedTimerWheel timers, long graceMillis) {
+        this.timers = timers;
+        this.graceMillis = graceMillis;
+    }
+
+    /**
+     * Checks if sessions can be resumed at all
+     *
+     * @return true if there is a grace period
+     */
+    public boolean isEnabled() {
+        return timers != null && graceMillis > 0;
+    }
+
+    /**
+     * Getter for the grace period
+     *
+     * @return milliseconds a suspended session is kept
+     */
+    public long getGraceMillis() {
+        return graceMillis;
+    }
+
+    /**
+     * Opens a session for a client which has just logged in
+     *
+     * @param token resume token of the session
+     * @param client client of the session
+     * @return false if the token is already in use
+     */
+    public boolean open(String token, ClientThread client) {
+        return token != null && byToken.putIfAbsent(token, client) == null;
+    }
+
+    /**
+     * Getter for the client of a session
+     *
+     * @param token resume token of the session
+     * @return client or null if there is no such session
+     */
+    public ClientThread get(String token) {
+        return token == null ? null : byToken.get(token);
+    }
+
+    /**
+     * Closes the session of a client, it can not be resumed anymore
+     *
+     * @param token resume token of the session
+     * @param client client of the session
+     */
+    public void close(String token, ClientThread client) {
+        if (token != null) {
+            byToken.remove(token, client);
+        }
+    }
+
+    /**
+     * Expires a suspended session at the end of the grace period, on the client executor because the others see the client leave
+     *
+     * @param client client whose connection has been lost
+     * @return timeout which is cancelled when the session is resumed
+     */
+    public HashedTimerWheel.Timeout expireLater(final ClientThread client) {
+        return timers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                client.expire();
+            }
+        }, graceMillis, TimeUnit.MILLISECONDS, clientExecutor);
+    }
+
+    /**
+     * Getter for the count of open sessions
+     *
+     * @return sessions which can be resumed or are still online
+     */
+    public int size() {
+        return byToken.size();
+    }
+}
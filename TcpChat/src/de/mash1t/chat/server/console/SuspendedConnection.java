@@ -0,0 +1,196 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.networklib.AbstractNetworkProtocol;
+import de.mash1t.networklib.AckTracker;
+import de.mash1t.networklib.BatchPacket;
+import de.mash1t.networklib.ExtendedPacket;
+import de.mash1t.networklib.PacketFrame;
+import de.mash1t.networklib.packets.InvalidPacket;
+import de.mash1t.networklib.packets.Packet;
+import de.mash1t.networklib.packets.PacketType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stands in for the lost connection of a suspended session
+ *
+ * Keeps the packets sent to the client until it resumes the session, then passes them and everything sent afterwards on to the new connection. Presence packets are not kept, the resumed client
+ * gets the changes of the roster in one sync
+ *
+ * @author Manuel Schmid
+ */
+public final class SuspendedConnection extends AbstractNetworkProtocol {
+
+    /**
+     * Packets kept for a suspended session, a session which misses more can not be resumed
+     */
+    public static final int MAX_BUFFERED = AckTracker.CAPACITY;
+
+    private final String ipString;
+    // Guards the buffer and the switch to the new connection, not synchronized so a blocking send does not pin a virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Packet> buffered = new ArrayList<>();
+    private boolean overflow = false;
+    private AbstractNetworkProtocol target = null;
+
+    /**
+     * Constructor
+     *
+     * @param lost connection which has been lost, its chat messages which have not been acknowledged stay with its ack tracker
+     */
+    public SuspendedConnection(AbstractNetworkProtocol lost) {
+        this.ipString = lost.getIP();
+        this.wireFormat = lost.getWireFormat();
+        this.ackTracker = lost.getAckTracker();
+    }
+
+    @Override
+    protected boolean write(Packet packet) {
+        AbstractNetworkProtocol resumed;
+        lock.lock();
+        try {
+            resumed = target;
+            if (resumed == null) {
+                return keep(packet);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return resumed.send(packet);
+    }
+
+    @Override
+    protected boolean write(PacketFrame frame) {
+        AbstractNetworkProtocol resumed;
+        lock.lock();
+        try {
+            resumed = target;
+            if (resumed == null) {
+                return keep(frame.getPacket());
+            }
+        } finally {
+            lock.unlock();
+        }
+        return resumed.send(frame);
+    }
+
+    /**
+     * Buffers a packet until the session is resumed, has to be called with the lock held
+     *
+     * @param packet packet sent to the client
+     * @return false if the buffer is full
+     */
+    private boolean keep(Packet packet) {
+        if (isPresence(packet)) {
+            return true;
+        }
+        if (buffered.size() >= MAX_BUFFERED) {
+            overflow = true;
+            return false;
+        }
+        buffered.add(packet);
+        return true;
+    }
+
+    /**
+     * Checks if a packet is only about who is online or whether the connection is alive
+     *
+     * @param packet packet to check
+     * @return true if the packet is not kept
+     */
+    private static boolean isPresence(Packet packet) {
+        if (packet instanceof ExtendedPacket) {
+            switch (((ExtendedPacket) packet).getExtendedType()) {
+                case Ping:
+                case Pong:
+                case UserListDelta:
+                case Roster:
+                case RosterPage:
+                case Credit:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return packet.getType() == PacketType.Userlist;
+    }
+
+    /**
+     * Checks if packets have been dropped because the client has been away too long
+     *
+     * @return true if the session can not be resumed
+     */
+    public boolean hasOverflowed() {
+        lock.lock();
+        try {
+            return overflow;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the missed packets to the new connection of the client, all packets sent to this connection afterwards are passed on right away
+     *
+     * @param connection new connection of the client
+     * @param missed chat messages which have been written to the lost connection but not received
+     * @return count of packets sent to the new connection
+     */
+    public int forwardTo(AbstractNetworkProtocol connection, List<Packet> missed) {
+        // Held during the replay, so packets sent meanwhile follow the missed ones
+        lock.lock();
+        try {
+            List<Packet> packets = new ArrayList<>(missed.size() + buffered.size());
+            packets.addAll(missed);
+            packets.addAll(buffered);
+            buffered.clear();
+            // Large replays are split, a batch has a limited count of packets
+            for (int from = 0; from < packets.size(); from += BatchPacket.MAX_PACKETS) {
+                connection.sendAll(packets.subList(from, Math.min(from + BatchPacket.MAX_PACKETS, packets.size())));
+            }
+            target = connection;
+            return packets.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Packet read() {
+        return new InvalidPacket();
+    }
+
+    @Override
+    protected boolean closeNow() {
+        return true;
+    }
+
+    @Override
+    public String getIP() {
+        return ipString;
+    }
+}
@@ -23,12 +23,21 @@
  */
 package de.mash1t.networklib;
 
+import de.mash1t.chat.core.RoleType;
+import de.mash1t.chat.logging.Counters;
 import de.mash1t.networklib.methods.NetworkProtocolType;
+import de.mash1t.networklib.packets.InvalidPacket;
 import de.mash1t.networklib.packets.Packet;
 import de.mash1t.chat.server.console.ClientThread;
 import de.mash1t.cryptolib.EncryptionMethod;
 import de.mash1t.cryptolib.ExtendedCryptoBasics;
 import de.mash1t.networklib.methods.NetworkProtocol;
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Abstract class for mainly handling static method call of send(packet, thread, nwpType) Methods have to be implemented by childs
@@ -36,8 +45,28 @@ import de.mash1t.networklib.methods.NetworkProtocol;
  * @author Manuel Schmid
  */
 public abstract class AbstractNetworkProtocol implements NetworkProtocol {
+
+    /**
+     * Size of the buffer in front of a blocking socket, writes are collected there until the next flush
+     */
+    protected static final int WRITE_BUFFER_SIZE = 8192;
     
     EncryptionMethod encMethod = ExtendedCryptoBasics.makeEncryptionObject();
+    // Null if packets are written on the calling thread
+    protected OutboundQueue outbound = null;
+    // Format of the frames, a server learns it from the first frame of the client
+    protected volatile WireFormat wireFormat = WireFormat.Serialized;
+    protected volatile boolean formatNegotiated = false;
+    // System.nanoTime() of the last packet handed to send()
+    protected volatile long lastSent = System.nanoTime();
+    // Features selected with a HelloPacket, UNKNOWN while only the wire format tells
+    protected volatile int capabilities = Capability.UNKNOWN;
+    // Set once Compression has been selected
+    protected volatile FrameCompressor compressor = null;
+    // Set when reading has failed because the connection is gone, not because of an invalid packet
+    protected volatile boolean lost = false;
+    // Numbers the chat messages of clients which acknowledge them, null for all others
+    protected volatile AckTracker ackTracker = null;
     
     /**
      * Sends a message to a specific thread
@@ -59,14 +88,342 @@ public abstract class AbstractNetworkProtocol implements NetworkProtocol {
         return returnValue;
     }
 
+    /**
+     * Sends an already encoded frame to a specific thread
+     *
+     * @param frame
+     * @param clientThread
+     * @param nwpType
+     * @return
+     */
+    public static boolean send(PacketFrame frame, ClientThread clientThread, NetworkProtocolType nwpType) {
+        boolean returnValue;
+        switch (nwpType) {
+            case TCP:
+                returnValue = ExtendedTCP.send(frame, clientThread);
+                break;
+            default:
+                returnValue = false;
+        }
+        return returnValue;
+    }
+
+    /**
+     * Creates the matching protocol object for an accepted socket
+     *
+     * Peeks at the first two bytes: legacy clients start with the magic of a java object stream and get an ExtendedTCP, all others a FramedTCP
+     *
+     * @param clientSocket accepted socket
+     * @param type
+     * @return protocol object for the socket
+     * @throws IOException
+     */
+    public static AbstractNetworkProtocol fromSocket(Socket clientSocket, RoleType type) throws IOException {
+        PushbackInputStream inStream = new PushbackInputStream(clientSocket.getInputStream(), 2);
+        byte[] magic = new byte[2];
+        int read = 0;
+        while (read < magic.length) {
+            int count = inStream.read(magic, read, magic.length - read);
+            if (count == -1) {
+                throw new IOException("Connection closed before first packet");
+            }
+            read += count;
+        }
+        inStream.unread(magic);
+
+        if (FrameCodec.isObjectStream(magic[0], magic[1])) {
+            return new ExtendedTCP(clientSocket, inStream, type);
+        }
+        return new FramedTCP(clientSocket, inStream, type);
+    }
+
+    /**
+     * Lets a writer on the executor of the TransportSettings send all packets, if there is one
+     */
+    protected final void initOutboundQueue() {
+        Executor executor = TransportSettings.getWriterExecutor();
+        if (executor != null) {
+            outbound = new OutboundQueue(this, executor);
+        }
+    }
+
+    /**
+     * Setter for the format of all frames, e.g. by a client before sending the ConnectPacket
+     *
+     * @param format format of the payloads
+     */
+    public void setWireFormat(WireFormat format) {
+        this.wireFormat = format;
+        this.formatNegotiated = true;
+    }
+
+    /**
+     * Getter for the format of the frames
+     *
+     * @return format of the payloads
+     */
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /**
+     * Decodes the payload of a received frame
+     *
+     * The first frame decides the format of the connection, afterwards payloads of the other format are invalid. So a client which has negotiated the binary format never reaches the ObjectInputStream
+     *
+     * @param payload buffer containing the payload
+     * @param offset start of the payload
+     * @param length length of the payload
+     * @return decoded packet or an InvalidPacket
+     */
+    public Packet decodeFrame(byte[] payload, int offset, int length) {
+        if (!formatNegotiated) {
+            setWireFormat(FrameCodec.formatOf(payload[offset]));
+        }
+        if (wireFormat == WireFormat.Binary && BinaryCodec.isDeflated(payload[offset])) {
+            return decodeDeflated(payload, offset, length);
+        }
+        return FrameCodec.decode(payload, offset, length, wireFormat);
+    }
+
+    /**
+     * Inflates a compressed payload and decodes the packet in it, which must not be compressed again
+     *
+     * @param payload buffer containing the payload
+     * @param offset start of the payload
+     * @param length length of the payload
+     * @return decoded packet or an InvalidPacket if Compression has not been selected
+     */
+    private Packet decodeDeflated(byte[] payload, int offset, int length) {
+        FrameCompressor current = compressor;
+        if (current != null) {
+            try {
+                byte[] inflated = current.inflate(payload, offset, length);
+                if (!BinaryCodec.isDeflated(inflated[0])) {
+                    return FrameCodec.decode(inflated, 0, inflated.length, wireFormat);
+                }
+            } catch (IOException ex) {
+                Counters.exception();
+            }
+        }
+        return new InvalidPacket();
+    }
+
+    /**
+     * Setter for the features both sides have agreed on
+     *
+     * @param capabilities bits of Capability selected by the server
+     */
+    public void setCapabilities(int capabilities) {
+        this.capabilities = capabilities;
+        if (Capability.Compression.isIn(capabilities) && compressor == null) {
+            compressor = new FrameCompressor(TransportSettings.getCompressionThreshold());
+        }
+    }
+
+    /**
+     * Frees Deflater and Inflater of the connection, called once it has been closed
+     */
+    protected final void releaseCompressor() {
+        FrameCompressor current = compressor;
+        if (current != null) {
+            current.release();
+        }
+    }
+
+    /**
+     * Getter for the features of the connection
+     *
+     * @return selected capabilities, or those the wire format implies if there has been no HelloPacket
+     */
+    public int getCapabilities() {
+        int selected = capabilities;
+        return selected == Capability.UNKNOWN ? Capability.implied(wireFormat) : selected;
+    }
+
+    /**
+     * Checks if the features of the connection have been agreed on with a HelloPacket
+     *
+     * @return false for connections of older clients
+     */
+    public boolean isNegotiated() {
+        return capabilities != Capability.UNKNOWN;
+    }
+
+    /**
+     * Checks if a feature may be used on the connection
+     *
+     * @param capability feature to check
+     * @return true if it has been selected or is implied
+     */
+    public boolean supports(Capability capability) {
+        return capability.isIn(getCapabilities());
+    }
+
+    /**
+     * Getter for the session id the encryption object of this connection has generated
+     *
+     * @return random session id, unique per connection
+     */
+    public String getSessionId() {
+        return encMethod.sessionId;
+    }
+
+    /**
+     * Checks if the connection has been closed by the other side or has failed
+     *
+     * @return true if reading has failed because of the connection
+     */
+    public boolean isLost() {
+        return lost;
+    }
+
+    /**
+     * Starts numbering the chat messages which are written to this connection
+     *
+     * @param tracker tracker of the connection
+     */
+    public void setAckTracker(AckTracker tracker) {
+        this.ackTracker = tracker;
+    }
+
+    /**
+     * Getter for the tracker of the chat messages
+     *
+     * @return tracker or null if the client does not acknowledge messages
+     */
+    public AckTracker getAckTracker() {
+        return ackTracker;
+    }
+
+    /**
+     * Called by the writer for every packet it takes from the outbound queue
+     *
+     * @param packet packet which is written next
+     */
+    protected void dequeued(Packet packet) {
+        AckTracker tracker = ackTracker;
+        if (tracker != null) {
+            tracker.dequeued(packet);
+        }
+    }
+
+    /**
+     * Getter for the number of packets waiting to be written
+     *
+     * @return depth of the outbound queue
+     */
+    public int getQueueDepth() {
+        return outbound == null ? 0 : outbound.depth();
+    }
+
+    /**
+     * Getter for the time of the last send, heartbeats are only needed when it is long ago
+     *
+     * @return System.nanoTime() of the last packet which has been sent or queued
+     */
+    public long getLastSent() {
+        return lastSent;
+    }
+
     @Override
     public String getIP() {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
+    /**
+     * Sends a packet, either by queueing it for the writer or by writing it directly
+     *
+     * @param packet packet to send
+     * @return result of queueing or writing
+     */
     @Override
     public boolean send(Packet packet) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        lastSent = System.nanoTime();
+        if (outbound != null) {
+            return outbound.offer(packet);
+        }
+        return write(packet) && flush();
+    }
+
+    /**
+     * Sends an already encoded frame, either by queueing it for the writer or by writing it directly
+     *
+     * @param frame frame to send
+     * @return result of queueing or writing
+     */
+    public boolean send(PacketFrame frame) {
+        lastSent = System.nanoTime();
+        if (outbound != null) {
+            return outbound.offer(frame);
+        }
+        return write(frame) && flush();
+    }
+
+    /**
+     * Sends several encoded frames which are written one after another and flushed together, e.g. the answer to a login
+     *
+     * @param frames frames to send in this order
+     * @return false if any frame could not be queued or written
+     */
+    public boolean sendBatch(PacketFrame... frames) {
+        lastSent = System.nanoTime();
+        if (outbound != null) {
+            return outbound.offerAll(frames);
+        }
+        for (PacketFrame frame : frames) {
+            if (!write(frame)) {
+                return false;
+            }
+        }
+        return flush();
+    }
+
+    /**
+     * Sends several packets, on connections which support it as one BatchPacket, e.g. for bots which post many messages at once
+     *
+     * @param packets packets to send in this order
+     * @return false if any packet could not be queued or written
+     */
+    public boolean sendAll(List<Packet> packets) {
+        if (packets.size() > 1 && packets.size() <= BatchPacket.MAX_PACKETS && supports(Capability.Batching)) {
+            Counters.batchSent(packets.size());
+            return send(new BatchPacket(new ArrayList<>(packets)));
+        }
+        boolean sent = true;
+        for (Packet packet : packets) {
+            sent &= send(packet);
+        }
+        return sent;
+    }
+
+    /**
+     * Writes a packet to the connection, it may stay in a buffer until flush() is called
+     *
+     * @param packet packet to write
+     * @return result of writing
+     */
+    protected abstract boolean write(Packet packet);
+
+    /**
+     * Writes an already encoded frame to the connection
+     *
+     * Protocols which can write the frame as it is override this, all others write the packet again
+     *
+     * @param frame frame to write
+     * @return result of writing
+     */
+    protected boolean write(PacketFrame frame) {
+        return write(frame.getPacket());
+    }
+
+    /**
+     * Pushes everything written since the last flush to the socket, blocks until the socket has taken it
+     *
+     * @return result of flushing
+     */
+    protected boolean flush() {
+        return true;
     }
 
     @Override
@@ -74,9 +431,25 @@ public abstract class AbstractNetworkProtocol implements NetworkProtocol {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
+    /**
+     * Closes the connection, queued packets are written before
+     *
+     * @return result of closing
+     */
     @Override
     public boolean close() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        if (outbound != null) {
+            outbound.close();
+            return true;
+        }
+        return closeNow();
     }
 
+    /**
+     * Closes streams and socket
+     *
+     * @return result of closing
+     */
+    protected abstract boolean closeNow();
+
 }
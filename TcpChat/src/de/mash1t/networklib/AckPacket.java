@@ -0,0 +1,55 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+/**
+ * Cumulative acknowledgment of a client for the chat messages it has received
+ *
+ * Sent before the login, it asks the server to count the messages of the connection and to grant credit with CreditPackets
+ *
+ * @author Manuel Schmid
+ */
+public class AckPacket extends ExtendedPacket {
+
+    private final long sequence;
+
+    /**
+     * Constructor
+     *
+     * @param sequence count of chat messages received on this connection
+     */
+    public AckPacket(long sequence) {
+        super(ExtendedPacketType.Ack);
+        this.sequence = sequence;
+    }
+
+    /**
+     * Getter for the acknowledged messages
+     *
+     * @return count of chat messages received on this connection
+     */
+    public long getSequence() {
+        return sequence;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.packets.GroupMessagePacket;
+import de.mash1t.networklib.packets.Packet;
+import de.mash1t.networklib.packets.PrivateMessagePacket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sequence numbers of the chat messages written to one connection
+ *
+ * Chat messages are numbered in the order the writer takes them from the outbound queue, after the slow consumer policy has dropped what it drops. TCP keeps this order, so the client numbers them the
+ * same way without a sequence number in the frame, and a broadcast frame stays shared by all connections. The client acknowledges the count of messages it has received, the time since the newest of
+ * them has been taken from the queue is the ack latency
+ *
+ * Messages which have not been acknowledged are kept, so they can be replayed when the client resumes its session on a new connection
+ *
+ * @author Manuel Schmid
+ */
+public final class AckTracker {
+
+    /**
+     * Messages whose dequeue time is kept and which can be replayed, a power of two
+     */
+    public static final int CAPACITY = 1024;
+
+    // Guarded by this
+    private final long[] dequeuedAt = new long[CAPACITY];
+    private final Packet[] unacknowledged = new Packet[CAPACITY];
+    private long dequeued = 0;
+    private long acknowledged = 0;
+    private boolean released = false;
+
+    /**
+     * Checks if a packet is a chat message, which is numbered and acknowledged
+     *
+     * @param packet packet to check
+     * @return true for group, private, channel and conversation messages
+     */
+    public static boolean isSequenced(Packet packet) {
+        return packet instanceof GroupMessagePacket || packet instanceof PrivateMessagePacket
+                || packet instanceof ChannelMessagePacket || packet instanceof ConversationMessagePacket;
+    }
+
+    /**
+     * Numbers a packet the writer has taken from the outbound queue, if it is a chat message
+     *
+     * @param packet packet which is written next
+     */
+    public synchronized void dequeued(Packet packet) {
+        if (packet instanceof BatchPacket) {
+            for (Packet nested : ((BatchPacket) packet).getPackets()) {
+                dequeued(nested);
+            }
+            return;
+        }
+        if (released || !isSequenced(packet)) {
+            return;
+        }
+        int index = (int) (dequeued & (CAPACITY - 1));
+        dequeuedAt[index] = System.nanoTime();
+        unacknowledged[index] = packet;
+        dequeued++;
+        Counters.flowOutstanding(1);
+    }
+
+    /**
+     * Takes a cumulative acknowledgment of the client
+     *
+     * @param sequence count of chat messages the client has received
+     * @return false if the client acknowledges messages which have never been written
+     */
+    public synchronized boolean acknowledge(long sequence) {
+        if (sequence > dequeued) {
+            return false;
+        }
+        if (sequence <= acknowledged) {
+            // Repeated or reordered acknowledgment
+            return true;
+        }
+        // Only the newest message is measured, its dequeue time may already have been overwritten
+        if (dequeued - sequence < CAPACITY) {
+            Counters.ackLatency(System.nanoTime() - dequeuedAt[(int) ((sequence - 1) & (CAPACITY - 1))]);
+        }
+        Counters.flowOutstanding(acknowledged - sequence);
+        for (long i = Math.max(acknowledged, dequeued - CAPACITY); i < sequence; i++) {
+            unacknowledged[(int) (i & (CAPACITY - 1))] = null;
+        }
+        acknowledged = sequence;
+        return true;
+    }
+
+    /**
+     * Getter for the messages a client has not received before its connection dropped
+     *
+     * @param received count of chat messages the client has received
+     * @return messages in the order they have been written, null if the count is invalid or the messages are no longer kept
+     */
+    public synchronized List<Packet> unacknowledgedAfter(long received) {
+        if (received < acknowledged || received > dequeued || dequeued - received > CAPACITY) {
+            return null;
+        }
+        List<Packet> packets = new ArrayList<>((int) (dequeued - received));
+        for (long i = received; i < dequeued; i++) {
+            packets.add(unacknowledged[(int) (i & (CAPACITY - 1))]);
+        }
+        return packets;
+    }
+
+    /**
+     * Getter for the messages the client has not acknowledged yet
+     *
+     * @return count of messages
+     */
+    public synchronized long outstanding() {
+        return dequeued - acknowledged;
+    }
+
+    /**
+     * Stops counting the messages of a closed connection as outstanding, also those which are still written
+     */
+    public synchronized void release() {
+        Counters.flowOutstanding(acknowledged - dequeued);
+        acknowledged = dequeued;
+        released = true;
+        Arrays.fill(unacknowledged, null);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.networklib.packets.Packet;
+import java.util.List;
+
+/**
+ * Ordered list of packets carried in one frame
+ *
+ * The receiver handles the packets one after another, as if they had arrived in frames of their own. Batches are not nested
+ *
+ * @author Manuel Schmid
+ */
+public class BatchPacket extends ExtendedPacket {
+
+    /**
+     * Maximum count of packets in one batch
+     */
+    public static final int MAX_PACKETS = 1024;
+
+    private final List<Packet> packets;
+
+    /**
+     * Constructor
+     *
+     * @param packets packets in the order they are handled
+     */
+    public BatchPacket(List<Packet> packets) {
+        super(ExtendedPacketType.Batch);
+        this.packets = packets;
+    }
+
+    /**
+     * Getter for the packets
+     *
+     * @return packets in the order they are handled
+     */
+    public List<Packet> getPackets() {
+        return packets;
+    }
+}
@@ -0,0 +1,593 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.networklib.packets.ConnectPacket;
+import de.mash1t.networklib.packets.DisconnectPacket;
+import de.mash1t.networklib.packets.GroupMessagePacket;
+import de.mash1t.networklib.packets.InfoPacket;
+import de.mash1t.networklib.packets.InvalidPacket;
+import de.mash1t.networklib.packets.KickPacket;
+import de.mash1t.networklib.packets.Packet;
+import de.mash1t.networklib.packets.PacketType;
+import de.mash1t.networklib.packets.PrivateMessagePacket;
+import de.mash1t.networklib.packets.UserListPacket;
+import de.mash1t.networklib.packets.UserListPacketType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hand-written binary encoding of all packets
+ *
+ * A payload starts with a one byte tag for the packet type followed by its fields. Strings are written as varint length (0 for null, length + 1 otherwise) and UTF-8 bytes. Tags are below 0x80, so a
+ * payload can never be mistaken for the magic of a java object stream
+ *
+ * @author Manuel Schmid
+ */
+public final class BinaryCodec {
+
+    private static final byte TAG_CONNECT = 1;
+    private static final byte TAG_DISCONNECT = 2;
+    private static final byte TAG_GM = 3;
+    private static final byte TAG_PM = 4;
+    private static final byte TAG_KICK = 5;
+    private static final byte TAG_INFO = 6;
+    private static final byte TAG_USERLIST = 7;
+    private static final byte TAG_PING = 8;
+    private static final byte TAG_PONG = 9;
+    private static final byte TAG_USERLIST_DELTA = 10;
+    private static final byte TAG_ROSTER = 11;
+    private static final byte TAG_ROSTER_REQUEST = 12;
+    private static final byte TAG_ROSTER_PAGE_REQUEST = 13;
+    private static final byte TAG_ROSTER_PAGE = 14;
+    private static final byte TAG_CHANNEL_JOIN = 15;
+    private static final byte TAG_CHANNEL_LEAVE = 16;
+    private static final byte TAG_CHANNEL_MESSAGE = 17;
+    private static final byte TAG_CONVERSATION = 18;
+    private static final byte TAG_CONVERSATION_MESSAGE = 19;
+    private static final byte TAG_CONVERSATION_LEAVE = 20;
+    private static final byte TAG_BATCH = 21;
+    private static final byte TAG_ACK = 22;
+    private static final byte TAG_CREDIT = 23;
+    private static final byte TAG_SESSION = 24;
+    private static final byte TAG_RESUME = 25;
+    private static final byte TAG_HELLO = 26;
+    private static final byte TAG_DEFLATED = 27;
+
+    /**
+     * Length of the header of a deflated payload, the tag and the length of the original payload
+     */
+    public static final int DEFLATED_HEADER_LENGTH = 1 + FrameCodec.HEADER_LENGTH;
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * Checks if a payload has been written by this codec
+     *
+     * @param first first byte of the payload
+     * @return true for binary payloads
+     */
+    public static boolean isBinary(byte first) {
+        return first >= TAG_CONNECT && first <= TAG_DEFLATED;
+    }
+
+    /**
+     * Checks if a payload holds another payload compressed with Deflate, which has to be inflated before it can be decoded
+     *
+     * @param first first byte of the payload
+     * @return true for deflated payloads
+     */
+    public static boolean isDeflated(byte first) {
+        return first == TAG_DEFLATED;
+    }
+
+    /**
+     * Writes the header of a deflated payload, followed by the raw Deflate data
+     *
+     * @param out target
+     * @param length length of the original payload
+     */
+    static void writeDeflatedHeader(ByteArrayOutputStream out, int length) {
+        out.write(TAG_DEFLATED);
+        byte[] prefix = new byte[FrameCodec.HEADER_LENGTH];
+        FrameCodec.writeLength(prefix, 0, length);
+        out.write(prefix, 0, prefix.length);
+    }
+
+    /**
+     * Encodes a packet
+     *
+     * @param packet packet to encode
+     * @param out target, e.g. positioned behind a reserved length prefix
+     * @throws IOException if the packet cannot be encoded
+     */
+    public static void encode(Packet packet, ByteArrayOutputStream out) throws IOException {
+        if (packet instanceof ExtendedPacket) {
+            encodeExtended((ExtendedPacket) packet, out);
+            return;
+        }
+        switch (packet.getType()) {
+            case Connect:
+                out.write(TAG_CONNECT);
+                writeString(out, ((ConnectPacket) packet).getName());
+                break;
+            case Disconnect:
+                out.write(TAG_DISCONNECT);
+                break;
+            case GM:
+                GroupMessagePacket gmPacket = (GroupMessagePacket) packet;
+                out.write(TAG_GM);
+                writeString(out, gmPacket.getMessage());
+                writeString(out, gmPacket.getSender());
+                break;
+            case PM:
+                PrivateMessagePacket pmPacket = (PrivateMessagePacket) packet;
+                out.write(TAG_PM);
+                writeString(out, pmPacket.getMessage());
+                writeString(out, pmPacket.getSender());
+                writeString(out, pmPacket.getReceiver());
+                break;
+            case Kick:
+                out.write(TAG_KICK);
+                writeString(out, ((KickPacket) packet).getMessage());
+                break;
+            case Info:
+                out.write(TAG_INFO);
+                writeString(out, ((InfoPacket) packet).getMessage());
+                break;
+            case Userlist:
+                UserListPacket ulPacket = (UserListPacket) packet;
+                out.write(TAG_USERLIST);
+                out.write(ulPacket.getUserListType().ordinal());
+                if (ulPacket.getUserListType() == UserListPacketType.Full) {
+                    writeNames(out, ulPacket.getUserList());
+                } else {
+                    writeString(out, ulPacket.getUser());
+                }
+                break;
+            default:
+                throw new IOException("Cannot encode packet of type " + packet.getType());
+        }
+    }
+
+    /**
+     * Decodes a payload
+     *
+     * @param payload buffer containing the payload
+     * @param offset start of the payload
+     * @param length length of the payload
+     * @return decoded packet or an InvalidPacket for unknown tags and malformed payloads
+     */
+    public static Packet decode(byte[] payload, int offset, int length) {
+        Reader in = new Reader(payload, offset, length);
+        try {
+            Packet packet;
+            switch (in.readByte()) {
+                case TAG_CONNECT:
+                    packet = new ConnectPacket(in.readString());
+                    break;
+                case TAG_DISCONNECT:
+                    packet = new DisconnectPacket();
+                    break;
+                case TAG_GM:
+                    packet = new GroupMessagePacket(in.readString(), in.readString());
+                    break;
+                case TAG_PM:
+                    packet = new PrivateMessagePacket(in.readString(), in.readString(), in.readString());
+                    break;
+                case TAG_KICK:
+                    packet = new KickPacket(in.readString());
+                    break;
+                case TAG_INFO:
+                    packet = new InfoPacket(in.readString());
+                    break;
+                case TAG_USERLIST:
+                    packet = readUserList(in);
+                    break;
+                case TAG_PING:
+                    packet = new PingPacket();
+                    break;
+                case TAG_PONG:
+                    packet = new PongPacket(in.readVarInt());
+                    break;
+                case TAG_USERLIST_DELTA:
+                    packet = new UserListDeltaPacket(in.readVarLong(), in.readVarLong(), readNames(in), readNames(in));
+                    break;
+                case TAG_ROSTER:
+                    packet = new RosterPacket(in.readVarLong(), in.readVarLong(), in.readVarInt(), readNames(in));
+                    break;
+                case TAG_ROSTER_REQUEST:
+                    packet = new RosterRequestPacket(in.readVarLong(), in.readVarLong());
+                    break;
+                case TAG_ROSTER_PAGE_REQUEST:
+                    packet = new RosterPageRequestPacket(in.readString(), in.readVarInt(), in.readVarInt());
+                    break;
+                case TAG_ROSTER_PAGE:
+                    packet = new RosterPagePacket(in.readString(), in.readVarInt(), in.readVarInt(), readNames(in));
+                    break;
+                case TAG_CHANNEL_JOIN:
+                    packet = new ChannelJoinPacket(in.readString(), in.readString());
+                    break;
+                case TAG_CHANNEL_LEAVE:
+                    packet = new ChannelLeavePacket(in.readString(), in.readString());
+                    break;
+                case TAG_CHANNEL_MESSAGE:
+                    packet = new ChannelMessagePacket(in.readString(), in.readString(), in.readString());
+                    break;
+                case TAG_CONVERSATION:
+                    packet = new ConversationPacket(in.readVarLong(), readNames(in));
+                    break;
+                case TAG_CONVERSATION_MESSAGE:
+                    packet = new ConversationMessagePacket(in.readVarLong(), in.readString(), in.readString());
+                    break;
+                case TAG_CONVERSATION_LEAVE:
+                    packet = new ConversationLeavePacket(in.readVarLong());
+                    break;
+                case TAG_BATCH:
+                    packet = readBatch(in);
+                    break;
+                case TAG_ACK:
+                    packet = new AckPacket(in.readVarLong());
+                    break;
+                case TAG_CREDIT:
+                    packet = new CreditPacket(in.readVarLong(), in.readVarInt());
+                    break;
+                case TAG_SESSION:
+                    packet = new SessionPacket(in.readString(), in.readByte() != 0, in.readVarLong());
+                    break;
+                case TAG_RESUME:
+                    packet = new ResumePacket(in.readString(), in.readVarLong());
+                    break;
+                case TAG_HELLO:
+                    packet = new HelloPacket(in.readVarInt(), in.readVarInt(), in.readVarInt());
+                    break;
+                default:
+                    return new InvalidPacket();
+            }
+            // Trailing garbage is as suspicious as a truncated payload
+            return in.isComplete() ? packet : new InvalidPacket();
+        } catch (IOException | RuntimeException ex) {
+            return new InvalidPacket();
+        }
+    }
+
+    private static void encodeExtended(ExtendedPacket packet, ByteArrayOutputStream out) throws IOException {
+        switch (packet.getExtendedType()) {
+            case Ping:
+                out.write(TAG_PING);
+                break;
+            case Pong:
+                out.write(TAG_PONG);
+                writeVarInt(out, ((PongPacket) packet).getInterval());
+                break;
+            case UserListDelta:
+                UserListDeltaPacket delta = (UserListDeltaPacket) packet;
+                out.write(TAG_USERLIST_DELTA);
+                writeVarLong(out, delta.getFromVersion());
+                writeVarLong(out, delta.getToVersion());
+                writeNames(out, delta.getJoined());
+                writeNames(out, delta.getLeft());
+                break;
+            case Roster:
+                RosterPacket roster = (RosterPacket) packet;
+                out.write(TAG_ROSTER);
+                writeVarLong(out, roster.getEpoch());
+                writeVarLong(out, roster.getVersion());
+                writeVarInt(out, roster.getTotal());
+                writeNames(out, roster.getNames());
+                break;
+            case RosterRequest:
+                RosterRequestPacket request = (RosterRequestPacket) packet;
+                out.write(TAG_ROSTER_REQUEST);
+                writeVarLong(out, request.getEpoch());
+                writeVarLong(out, request.getVersion());
+                break;
+            case RosterPageRequest:
+                RosterPageRequestPacket pageRequest = (RosterPageRequestPacket) packet;
+                out.write(TAG_ROSTER_PAGE_REQUEST);
+                writeString(out, pageRequest.getPrefix());
+                writeVarInt(out, pageRequest.getOffset());
+                writeVarInt(out, pageRequest.getLimit());
+                break;
+            case RosterPage:
+                RosterPagePacket page = (RosterPagePacket) packet;
+                out.write(TAG_ROSTER_PAGE);
+                writeString(out, page.getPrefix());
+                writeVarInt(out, page.getOffset());
+                writeVarInt(out, page.getTotal());
+                writeNames(out, page.getNames());
+                break;
+            case ChannelJoin:
+                ChannelJoinPacket join = (ChannelJoinPacket) packet;
+                out.write(TAG_CHANNEL_JOIN);
+                writeString(out, join.getChannel());
+                writeString(out, join.getUser());
+                break;
+            case ChannelLeave:
+                ChannelLeavePacket leave = (ChannelLeavePacket) packet;
+                out.write(TAG_CHANNEL_LEAVE);
+                writeString(out, leave.getChannel());
+                writeString(out, leave.getUser());
+                break;
+            case ChannelMessage:
+                ChannelMessagePacket channelMessage = (ChannelMessagePacket) packet;
+                out.write(TAG_CHANNEL_MESSAGE);
+                writeString(out, channelMessage.getChannel());
+                writeString(out, channelMessage.getMessage());
+                writeString(out, channelMessage.getSender());
+                break;
+            case Conversation:
+                ConversationPacket conversation = (ConversationPacket) packet;
+                out.write(TAG_CONVERSATION);
+                writeVarLong(out, conversation.getId());
+                writeNames(out, conversation.getMembers());
+                break;
+            case ConversationMessage:
+                ConversationMessagePacket conversationMessage = (ConversationMessagePacket) packet;
+                out.write(TAG_CONVERSATION_MESSAGE);
+                writeVarLong(out, conversationMessage.getId());
+                writeString(out, conversationMessage.getMessage());
+                writeString(out, conversationMessage.getSender());
+                break;
+            case ConversationLeave:
+                out.write(TAG_CONVERSATION_LEAVE);
+                writeVarLong(out, ((ConversationLeavePacket) packet).getId());
+                break;
+            case Batch:
+                List<Packet> packets = ((BatchPacket) packet).getPackets();
+                writeBatchHeader(out, packets.size());
+                for (Packet nested : packets) {
+                    if (nested instanceof BatchPacket) {
+                        throw new IOException("Batches cannot be nested");
+                    }
+                    ByteArrayOutputStream entry = new ByteArrayOutputStream(64);
+                    encode(nested, entry);
+                    writeVarInt(out, entry.size());
+                    entry.writeTo(out);
+                }
+                break;
+            case Ack:
+                out.write(TAG_ACK);
+                writeVarLong(out, ((AckPacket) packet).getSequence());
+                break;
+            case Credit:
+                CreditPacket credit = (CreditPacket) packet;
+                out.write(TAG_CREDIT);
+                writeVarLong(out, credit.getAcknowledged());
+                writeVarInt(out, credit.getWindow());
+                break;
+            case Session:
+                SessionPacket session = (SessionPacket) packet;
+                out.write(TAG_SESSION);
+                writeString(out, session.getToken());
+                out.write(session.isResumed() ? 1 : 0);
+                writeVarLong(out, session.getAcknowledged());
+                break;
+            case Resume:
+                ResumePacket resume = (ResumePacket) packet;
+                out.write(TAG_RESUME);
+                writeString(out, resume.getToken());
+                writeVarLong(out, resume.getReceived());
+                break;
+            case Hello:
+                HelloPacket hello = (HelloPacket) packet;
+                out.write(TAG_HELLO);
+                writeVarInt(out, hello.getVersion());
+                writeVarInt(out, hello.getCapabilities());
+                writeVarInt(out, hello.getHeartbeatInterval());
+                break;
+            default:
+                throw new IOException("Cannot encode packet of type " + packet.getExtendedType());
+        }
+    }
+
+    /**
+     * Writes tag and count of a batch, followed by the entries
+     *
+     * @param out target
+     * @param count count of packets in the batch
+     * @throws IOException if there are too many packets
+     */
+    static void writeBatchHeader(ByteArrayOutputStream out, int count) throws IOException {
+        if (count > BatchPacket.MAX_PACKETS) {
+            throw new IOException("Too many packets in batch: " + count);
+        }
+        out.write(TAG_BATCH);
+        writeVarInt(out, count);
+    }
+
+    /**
+     * Writes an already encoded packet as entry of a batch
+     *
+     * @param out target
+     * @param payload buffer containing the encoded packet
+     * @param offset start of the encoded packet
+     * @param length length of the encoded packet
+     */
+    static void writeBatchEntry(ByteArrayOutputStream out, byte[] payload, int offset, int length) {
+        writeVarInt(out, length);
+        out.write(payload, offset, length);
+    }
+
+    private static Packet readBatch(Reader in) throws IOException {
+        int count = in.readVarInt();
+        if (count > BatchPacket.MAX_PACKETS) {
+            throw new IOException("Too many packets in batch: " + count);
+        }
+        List<Packet> packets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = in.readVarInt();
+            int offset = in.skip(length);
+            Packet nested = decode(in.buffer, offset, length);
+            // Every entry has to be valid on its own, batches are not nested
+            if (nested instanceof BatchPacket || (nested.getType() == PacketType.Invalid && !(nested instanceof ExtendedPacket))) {
+                throw new IOException("Invalid packet in batch");
+            }
+            packets.add(nested);
+        }
+        return new BatchPacket(packets);
+    }
+
+    private static Packet readUserList(Reader in) throws IOException {
+        int ordinal = in.readByte();
+        UserListPacketType[] types = UserListPacketType.values();
+        if (ordinal < 0 || ordinal >= types.length) {
+            throw new IOException("Unknown user list type " + ordinal);
+        }
+        if (types[ordinal] == UserListPacketType.Full) {
+            return new UserListPacket(readNames(in));
+        }
+        return new UserListPacket(in.readString(), types[ordinal]);
+    }
+
+    private static List<String> readNames(Reader in) throws IOException {
+        int count = in.readVarInt();
+        List<String> names = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            names.add(in.readString());
+        }
+        return names;
+    }
+
+    private static void writeNames(ByteArrayOutputStream out, List<String> names) {
+        writeVarInt(out, names.size());
+        for (String name : names) {
+            writeString(out, name);
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Reads the fields of a payload and checks every access against its end
+     */
+    private static final class Reader {
+
+        private final byte[] buffer;
+        private final int end;
+        private int position;
+
+        Reader(byte[] buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        int readByte() throws IOException {
+            if (position >= end) {
+                throw new IOException("Payload too short");
+            }
+            return buffer[position++];
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) {
+                        throw new IOException("Negative length");
+                    }
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varlong");
+        }
+
+        String readString() throws IOException {
+            int length = readVarInt();
+            if (length == 0) {
+                return null;
+            }
+            length--;
+            if (length > end - position) {
+                throw new IOException("String exceeds payload");
+            }
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        /**
+         * Skips bytes which are decoded separately
+         *
+         * @param length count of bytes
+         * @return position of the first skipped byte
+         * @throws IOException if the payload is too short
+         */
+        int skip(int length) throws IOException {
+            if (length == 0 || length > end - position) {
+                throw new IOException("Entry exceeds payload");
+            }
+            int start = position;
+            position += length;
+            return start;
+        }
+
+        boolean isComplete() {
+            return position == end;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.chat.logging.Counters;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of direct ByteBuffers in several size classes
+ *
+ * Writing a direct buffer to a channel needs no copy into native memory, but allocating one is expensive, so they are reused. Requests bigger than the biggest class get an unpooled buffer. In debug mode
+ * every buffer which is garbage collected without having been released is reported together with the stack of its acquisition
+ *
+ * @author Manuel Schmid
+ */
+public final class BufferPool {
+
+    /**
+     * Capacities of the size classes
+     */
+    private static final int[] SIZE_CLASSES = {64, 256, 1024, 4096, 16384, 65536};
+
+    /**
+     * Memory each size class may keep for reuse
+     */
+    private static final int BYTES_PER_CLASS = 4 * 1024 * 1024;
+
+    private static final BufferPool shared = new BufferPool();
+
+    private final List<Queue<ByteBuffer>> free;
+    private final AtomicInteger[] freeCount;
+    private volatile boolean leakDetection = false;
+    // Keeps the trackers reachable until they are released or enqueued
+    private final Set<LeakTracker> trackers = Collections.newSetFromMap(new ConcurrentHashMap<LeakTracker, Boolean>());
+    private final ReferenceQueue<PooledBuffer> collected = new ReferenceQueue<>();
+
+    /**
+     * Constructor
+     */
+    public BufferPool() {
+        free = new ArrayList<>(SIZE_CLASSES.length);
+        freeCount = new AtomicInteger[SIZE_CLASSES.length];
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            free.add(new ConcurrentLinkedQueue<ByteBuffer>());
+            freeCount[i] = new AtomicInteger(0);
+        }
+    }
+
+    /**
+     * Getter for the pool shared by all connections
+     *
+     * @return pool
+     */
+    public static BufferPool shared() {
+        return shared;
+    }
+
+    /**
+     * Enables or disables the leak detection, which costs a stack trace per acquisition
+     *
+     * @param enabled true to track every buffer
+     */
+    public void setLeakDetection(boolean enabled) {
+        this.leakDetection = enabled;
+    }
+
+    /**
+     * Takes a cleared buffer with at least the requested capacity
+     *
+     * @param capacity needed capacity
+     * @return buffer which has to be released exactly once
+     */
+    public PooledBuffer acquire(int capacity) {
+        int sizeClass = sizeClassOf(capacity);
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            buffer = free.get(sizeClass).poll();
+        }
+        if (buffer != null) {
+            freeCount[sizeClass].decrementAndGet();
+            buffer.clear();
+            Counters.bufferHit();
+        } else {
+            buffer = ByteBuffer.allocateDirect(sizeClass >= 0 ? SIZE_CLASSES[sizeClass] : capacity);
+            Counters.bufferMiss();
+        }
+        // Only ever hand out the requested size, the rest of the class stays invisible
+        buffer.limit(capacity);
+
+        PooledBuffer pooled = new PooledBuffer(this, buffer, sizeClass);
+        if (leakDetection) {
+            reportLeaks();
+            pooled.tracker = new LeakTracker(pooled, collected);
+            trackers.add(pooled.tracker);
+        }
+        return pooled;
+    }
+
+    /**
+     * Gives a buffer back, called by PooledBuffer.release()
+     *
+     * @param pooled released buffer
+     */
+    void release(PooledBuffer pooled) {
+        if (pooled.tracker != null) {
+            trackers.remove(pooled.tracker);
+            pooled.tracker.clear();
+        }
+        int sizeClass = pooled.sizeClass;
+        if (sizeClass >= 0 && freeCount[sizeClass].get() * SIZE_CLASSES[sizeClass] < BYTES_PER_CLASS) {
+            freeCount[sizeClass].incrementAndGet();
+            free.get(sizeClass).offer(pooled.buffer);
+        }
+    }
+
+    /**
+     * Reports buffers which have been collected without being released
+     */
+    private void reportLeaks() {
+        Reference<? extends PooledBuffer> reference;
+        while ((reference = collected.poll()) != null) {
+            LeakTracker tracker = (LeakTracker) reference;
+            if (trackers.remove(tracker)) {
+                Counters.bufferLeaked();
+                Logger logger = TransportSettings.getLogger();
+                if (logger != null) {
+                    logger.log(Level.WARNING, "ByteBuffer has not been released before garbage collection, acquired at:", tracker.acquiredAt);
+                }
+            }
+        }
+    }
+
+    private static int sizeClassOf(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (capacity <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Remembers where a buffer has been acquired, enqueued when the buffer is collected
+     */
+    static final class LeakTracker extends PhantomReference<PooledBuffer> {
+
+        private final Throwable acquiredAt = new Throwable("Buffer acquisition");
+
+        LeakTracker(PooledBuffer referent, ReferenceQueue<PooledBuffer> queue) {
+            super(referent, queue);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+/**
+ * Optional features of a connection, offered by the client in its HelloPacket and selected by the server
+ *
+ * Each feature is one bit, so a client can offer any combination and the server picks those it supports for this connection. Connections without a HelloPacket keep the features their wire format
+ * implies
+ *
+ * @author Manuel Schmid
+ */
+public enum Capability {
+
+    /**
+     * Compact encoding of BinaryCodec, the wire format itself is told by the first frame
+     */
+    BinaryCodec,
+    /**
+     * Compressed payloads of large frames
+     */
+    Compression,
+    /**
+     * Several packets in one BatchPacket
+     */
+    Batching,
+    /**
+     * Encrypted messages with the encryption method of both sides
+     */
+    Encryption,
+    /**
+     * Pings and silence checks from the start, with the interval in the answer of the server
+     */
+    Heartbeat,
+    /**
+     * Acknowledged chat messages and credit for sending
+     */
+    FlowControl,
+    /**
+     * Sessions which can be resumed after a lost connection
+     */
+    Resume;
+
+    /**
+     * Bits of a connection whose features are not known yet
+     */
+    public static final int UNKNOWN = -1;
+
+    /**
+     * Getter for the bit of this feature
+     *
+     * @return bit in a set of capabilities
+     */
+    public int bit() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * Checks if this feature is part of a set
+     *
+     * @param capabilities set of capabilities
+     * @return true if the bit of this feature is set
+     */
+    public boolean isIn(int capabilities) {
+        return (capabilities & bit()) != 0;
+    }
+
+    /**
+     * Builds a set of capabilities
+     *
+     * @param capabilities features of the set
+     * @return bits of the features
+     */
+    public static int of(Capability... capabilities) {
+        int bits = 0;
+        for (Capability capability : capabilities) {
+            bits |= capability.bit();
+        }
+        return bits;
+    }
+
+    /**
+     * Getter for the features of a connection which has not sent a HelloPacket
+     *
+     * Such clients only learnt about batches and acknowledgments together with the binary format, the heartbeat starts with their first ping
+     *
+     * @param format wire format of the connection
+     * @return implied capabilities
+     */
+    public static int implied(WireFormat format) {
+        int bits = of(FlowControl, Resume);
+        if (format == WireFormat.Binary) {
+            bits |= of(BinaryCodec, Batching);
+        }
+        return bits;
+    }
+
+    /**
+     * Describes a set of capabilities for the log
+     *
+     * @param capabilities set of capabilities
+     * @return names of the features
+     */
+    public static String toString(int capabilities) {
+        StringBuilder names = new StringBuilder();
+        for (Capability capability : values()) {
+            if (capability.isIn(capabilities)) {
+                names.append(names.length() == 0 ? "" : ",").append(capability.name());
+            }
+        }
+        return names.toString();
+    }
+}
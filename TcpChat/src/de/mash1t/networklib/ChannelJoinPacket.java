@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+/**
+ * Joins a channel
+ *
+ * A client sends it without a user to enter a channel, the server sends it to all members, including the new one
+ *
+ * @author Manuel Schmid
+ */
+public class ChannelJoinPacket extends ExtendedPacket {
+
+    private final String channel;
+    private final String user;
+
+    /**
+     * Constructor
+     *
+     * @param channel name of the channel, starting with '#'
+     * @param user nickname of the user who has joined, null in the request of a client
+     */
+    public ChannelJoinPacket(String channel, String user) {
+        super(ExtendedPacketType.ChannelJoin);
+        this.channel = channel;
+        this.user = user;
+    }
+
+    /**
+     * Getter for the name of the channel
+     *
+     * @return channel
+     */
+    public String getChannel() {
+        return channel;
+    }
+
+    /**
+     * Getter for the user who has joined
+     *
+     * @return nickname
+     */
+    public String getUser() {
+        return user;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+/**
+ * Message to all members of a private conversation, uploaded once by the sender
+ *
+ * @author Manuel Schmid
+ */
+public class ConversationMessagePacket extends ExtendedPacket {
+
+    private final long id;
+    private final String message;
+    private final String sender;
+
+    /**
+     * Constructor
+     *
+     * @param id id of the conversation
+     * @param message text of the message
+     * @param sender nickname of the sender, set by the server
+     */
+    public ConversationMessagePacket(long id, String message, String sender) {
+        super(ExtendedPacketType.ConversationMessage);
+        this.id = id;
+        this.message = message;
+        this.sender = sender;
+    }
+
+    /**
+     * Getter for the id
+     *
+     * @return id of the conversation
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Getter for the text of the message
+     *
+     * @return message
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Getter for the sender
+     *
+     * @return nickname
+     */
+    public String getSender() {
+        return sender;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import java.util.List;
+
+/**
+ * Members of a private conversation
+ *
+ * A client sends it with id 0 to open a conversation with the given users. The server sends it to all members whenever the members change and to a member after its login, a client which is no longer
+ * listed has left
+ *
+ * @author Manuel Schmid
+ */
+public class ConversationPacket extends ExtendedPacket {
+
+    private final long id;
+    private final List<String> members;
+
+    /**
+     * Constructor
+     *
+     * @param id id of the conversation, 0 to open a new one
+     * @param members nicknames of the members
+     */
+    public ConversationPacket(long id, List<String> members) {
+        super(ExtendedPacketType.Conversation);
+        this.id = id;
+        this.members = members;
+    }
+
+    /**
+     * Getter for the id
+     *
+     * @return id of the conversation
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Getter for the members
+     *
+     * @return nicknames
+     */
+    public List<String> getMembers() {
+        return members;
+    }
+}
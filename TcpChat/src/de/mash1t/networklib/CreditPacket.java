@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+/**
+ * Acknowledgment and credit of the server for the chat messages of a client
+ *
+ * The client may send chat messages until it has sent acknowledged + window of them on this connection
+ *
+ * @author Manuel Schmid
+ */
+public class CreditPacket extends ExtendedPacket {
+
+    private final long acknowledged;
+    private final int window;
+
+    /**
+     * Constructor
+     *
+     * @param acknowledged count of chat messages of the client which have been handled
+     * @param window count of further messages the client may send
+     */
+    public CreditPacket(long acknowledged, int window) {
+        super(ExtendedPacketType.Credit);
+        this.acknowledged = acknowledged;
+        this.window = window;
+    }
+
+    /**
+     * Getter for the acknowledged messages
+     *
+     * @return count of chat messages of the client which have been handled
+     */
+    public long getAcknowledged() {
+        return acknowledged;
+    }
+
+    /**
+     * Getter for the window
+     *
+     * @return count of further messages the client may send
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Getter for the limit of the client
+     *
+     * @return count of chat messages the client may have sent in total
+     */
+    public long getLimit() {
+        return acknowledged + window;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.networklib.packets.Packet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Credit of a client for its chat messages
+ *
+ * The client numbers the chat messages it sends, the server acknowledges them cumulatively with CreditPackets and tells up to which number the client may send. Messages beyond that wait here until
+ * the server grants more credit. Sent messages are kept until they have been acknowledged, so the client knows which of them the server has not confirmed. A server without flow control never
+ * acknowledges, so in unlimited mode nothing is kept
+ *
+ * @author Manuel Schmid
+ */
+public final class CreditWindow {
+
+    private final AbstractNetworkProtocol protocol;
+
+    // Guarded by this
+    private long sent = 0;
+    private long acknowledged = 0;
+    private long limit = 0;
+    private boolean unlimited = false;
+    private final ArrayDeque<Packet> unacknowledged = new ArrayDeque<>();
+    private final ArrayDeque<Packet> waiting = new ArrayDeque<>();
+
+    /**
+     * Constructor, nothing may be sent before the first CreditPacket
+     *
+     * @param protocol connection to send the messages on
+     */
+    public CreditWindow(AbstractNetworkProtocol protocol) {
+        this.protocol = protocol;
+    }
+
+    /**
+     * Sends a chat message or keeps it until there is credit
+     *
+     * @param packet chat message
+     * @return false if sending has failed
+     */
+    public boolean send(Packet packet) {
+        return sendAll(Collections.singletonList(packet));
+    }
+
+    /**
+     * Sends chat messages, as far as the credit allows, and keeps the others until there is credit
+     *
+     * @param packets chat messages in this order
+     * @return false if sending has failed
+     */
+    public synchronized boolean sendAll(List<Packet> packets) {
+        waiting.addAll(packets);
+        return flush();
+    }
+
+    /**
+     * Takes an acknowledgment and sends the messages the new credit allows
+     *
+     * @param credit credit of the server
+     * @return false if sending has failed
+     */
+    public synchronized boolean update(CreditPacket credit) {
+        while (acknowledged < credit.getAcknowledged() && !unacknowledged.isEmpty()) {
+            unacknowledged.removeFirst();
+            acknowledged++;
+        }
+        // The limit never shrinks, the server keeps to the credit it has granted
+        limit = Math.max(limit, credit.getLimit());
+        return flush();
+    }
+
+    /**
+     * Lifts the limit for a server which does not grant credit, all messages are sent right away
+     *
+     * @return false if sending has failed
+     */
+    public synchronized boolean unlimited() {
+        limit = Long.MAX_VALUE;
+        unlimited = true;
+        // No acknowledgment will come for them
+        unacknowledged.clear();
+        return flush();
+    }
+
+    /**
+     * Getter for the messages which are waiting for credit
+     *
+     * @return count of messages
+     */
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * Getter for the messages which have been sent but not acknowledged
+     *
+     * @return messages in the order they have been sent
+     */
+    public synchronized List<Packet> getUnacknowledged() {
+        return new ArrayList<>(unacknowledged);
+    }
+
+    /**
+     * Takes the messages which have to be sent again on a new connection, the window is not used anymore afterwards
+     *
+     * @param acknowledged count of messages the server has received on the lost connection
+     * @return messages beyond that count and those which were waiting for credit, in this order
+     */
+    public synchronized List<Packet> takeUnsent(long acknowledged) {
+        List<Packet> packets = new ArrayList<>();
+        long number = this.acknowledged;
+        for (Packet packet : unacknowledged) {
+            if (number++ >= acknowledged) {
+                packets.add(packet);
+            }
+        }
+        packets.addAll(waiting);
+        unacknowledged.clear();
+        waiting.clear();
+        return packets;
+    }
+
+    private boolean flush() {
+        if (waiting.isEmpty() || sent >= limit) {
+            return true;
+        }
+        List<Packet> packets = new ArrayList<>();
+        while (!waiting.isEmpty() && sent < limit) {
+            Packet packet = waiting.removeFirst();
+            if (!unlimited) {
+                unacknowledged.addLast(packet);
+            }
+            packets.add(packet);
+            sent++;
+        }
+        // Sent while holding the lock, so messages released by a credit cannot overtake earlier ones
+        return protocol.sendAll(packets);
+    }
+}
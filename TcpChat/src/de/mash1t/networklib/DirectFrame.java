@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.networklib.packets.Packet;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Frame queued for one connection, consisting of its own header and a payload shared with all other recipients
+ *
+ * There is one payload per wire format for the whole server, used by the connections of all event loops. It is a pooled direct buffer and written without copying. The header only has 4 bytes and
+ * is a small heap buffer, the smallest pooled buffer would waste most of its 64 bytes. Has to be released when it has been written or dropped
+ *
+ * @author Manuel Schmid
+ */
+public final class DirectFrame {
+
+    private final Packet packet;
+    private final SharedPayload payload;
+    private final ByteBuffer headerView;
+    private final ByteBuffer payloadView;
+    private boolean released = false;
+
+    private DirectFrame(Packet packet, ByteBuffer header, SharedPayload payload) {
+        this.packet = packet;
+        this.payload = payload;
+        this.headerView = header;
+        this.payloadView = payload.view();
+    }
+
+    /**
+     * Creates the frame of one connection
+     *
+     * @param frame frame to send
+     * @param format format of the connection
+     * @return frame for the connection
+     * @throws IOException if the packet cannot be encoded
+     */
+    public static DirectFrame of(PacketFrame frame, WireFormat format) throws IOException {
+        return of(frame, format, null);
+    }
+
+    /**
+     * Creates the frame of one connection, large payloads are compressed if the connection has negotiated Compression
+     *
+     * @param frame frame to send
+     * @param format format of the connection
+     * @param compressor compressor of the connection or null
+     * @return frame for the connection
+     * @throws IOException if the packet cannot be encoded
+     */
+    public static DirectFrame of(PacketFrame frame, WireFormat format, FrameCompressor compressor) throws IOException {
+        SharedPayload payload = frame.retainPayload(format, compressor);
+        ByteBuffer header = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH);
+        header.putInt(0, payload.view().remaining());
+        return new DirectFrame(frame.getPacket(), header, payload);
+    }
+
+    /**
+     * Getter for the packet of the frame
+     *
+     * @return packet
+     */
+    public Packet getPacket() {
+        return packet;
+    }
+
+    /**
+     * Getter for the length of the whole frame
+     *
+     * @return length in bytes including the header
+     */
+    public int length() {
+        return headerView.limit() + payloadView.limit();
+    }
+
+    /**
+     * Getter for the header with the position of this connection
+     *
+     * @return header
+     */
+    public ByteBuffer header() {
+        return headerView;
+    }
+
+    /**
+     * Getter for the payload with the position of this connection
+     *
+     * @return payload
+     */
+    public ByteBuffer payload() {
+        return payloadView;
+    }
+
+    /**
+     * Checks if the frame has been written completely
+     *
+     * @return true if nothing remains
+     */
+    public boolean isWritten() {
+        return !headerView.hasRemaining() && !payloadView.hasRemaining();
+    }
+
+    /**
+     * Gives the payload back, further calls are ignored
+     */
+    public void release() {
+        if (!released) {
+            released = true;
+            payload.release();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.networklib.packets.Packet;
+import de.mash1t.networklib.packets.PacketType;
+
+/**
+ * Base class of the packets which are not part of PacketType
+ *
+ * PacketType belongs to the NetworkLib and cannot be extended, so these packets report Invalid as their type and carry an ExtendedPacketType. Receivers have to check for them with instanceof before
+ * switching over getType(), the ChatServer only sends them to clients which have shown that they understand them
+ *
+ * @author Manuel Schmid
+ */
+public abstract class ExtendedPacket extends Packet {
+
+    private final ExtendedPacketType extendedType;
+
+    /**
+     * Constructor
+     *
+     * @param extendedType type of the packet
+     */
+    protected ExtendedPacket(ExtendedPacketType extendedType) {
+        this.packetType = PacketType.Invalid;
+        this.extendedType = extendedType;
+    }
+
+    /**
+     * Getter for the type of the packet
+     *
+     * @return extended type
+     */
+    public ExtendedPacketType getExtendedType() {
+        return extendedType;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+/**
+ * Types of the packets which are defined next to the packets of the NetworkLib
+ *
+ * @author Manuel Schmid
+ */
+public enum ExtendedPacketType {
+
+    /**
+     * Asks the other side for a sign of life
+     */
+    Ping,
+    /**
+     * Answer to a Ping
+     */
+    Pong,
+    /**
+     * Several users which have joined or left, moves the roster from one version to another
+     */
+    UserListDelta,
+    /**
+     * All users together with the version of the roster
+     */
+    Roster,
+    /**
+     * Asks for the changes since a known roster version
+     */
+    RosterRequest,
+    /**
+     * Asks for a part of the sorted roster
+     */
+    RosterPageRequest,
+    /**
+     * Part of the sorted roster
+     */
+    RosterPage,
+    /**
+     * A user enters a channel
+     */
+    ChannelJoin,
+    /**
+     * A user leaves a channel
+     */
+    ChannelLeave,
+    /**
+     * Message to the members of a channel
+     */
+    ChannelMessage,
+    /**
+     * Opens a private conversation or tells its members
+     */
+    Conversation,
+    /**
+     * Message to the members of a private conversation
+     */
+    ConversationMessage,
+    /**
+     * Leaves a private conversation
+     */
+    ConversationLeave,
+    /**
+     * Several packets in one frame
+     */
+    Batch,
+    /**
+     * Acknowledges received chat messages
+     */
+    Ack,
+    /**
+     * Acknowledges chat messages and grants credit for further ones
+     */
+    Credit,
+    /**
+     * Resume token of a session
+     */
+    Session,
+    /**
+     * Resumes a session after a reconnect
+     */
+    Resume,
+    /**
+     * Protocol version and capabilities of a connection
+     */
+    Hello
+}
@@ -24,11 +24,13 @@
 package de.mash1t.networklib;
 
 import de.mash1t.chat.core.RoleType;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.util.concurrent.locks.ReentrantLock;
 import de.mash1t.chat.logging.Counters;
 import de.mash1t.chat.server.console.ClientThread;
 import de.mash1t.networklib.methods.NetworkProtocol;
@@ -44,11 +46,14 @@ import de.mash1t.networklib.packets.InvalidPacket;
 public class ExtendedTCP extends AbstractNetworkProtocol implements NetworkProtocol {
 
     public ObjectInputStream inStream = null;
-    public ObjectOutputStream outStream = null;
+    // Wraps the ObjectOutputStream and resets it regularly
+    private final SerializationSession outSession;
     private Socket clientSocket = null;
     private final InetAddress ip;
     private final String ipString;
     private final RoleType type;
+    // Broadcasts of several ClientThreads write to the same stream
+    private final ReentrantLock writeLock = new ReentrantLock();
 
     /**
      * Creates input and output streams
@@ -58,12 +63,28 @@ public class ExtendedTCP extends AbstractNetworkProtocol implements NetworkProto
      * @throws IOException
      */
     public ExtendedTCP(Socket clientSocket, RoleType type) throws IOException {
+        this(clientSocket, clientSocket.getInputStream(), type);
+    }
+
+    /**
+     * Creates input and output streams, reading from an already opened input stream
+     *
+     * @param clientSocket Socket for client
+     * @param inputStream stream to read from, e.g. when first bytes have already been inspected
+     * @param type
+     * @throws IOException
+     */
+    public ExtendedTCP(Socket clientSocket, InputStream inputStream, RoleType type) throws IOException {
         this.clientSocket = clientSocket;
-        inStream = new ObjectInputStream(clientSocket.getInputStream());
-        outStream = new ObjectOutputStream(clientSocket.getOutputStream());
+        if (type == RoleType.Server) {
+            clientSocket.setTcpNoDelay(TransportSettings.isTcpNoDelay());
+        }
+        inStream = new ObjectInputStream(inputStream);
+        outSession = new SerializationSession(new BufferedOutputStream(clientSocket.getOutputStream(), WRITE_BUFFER_SIZE));
         ip = clientSocket.getInetAddress();
         ipString = ip.toString();
         this.type = type;
+        initOutboundQueue();
     }
 
     /**
@@ -73,14 +94,58 @@ public class ExtendedTCP extends AbstractNetworkProtocol implements NetworkProto
      * @return result of sending
      */
     @Override
-    public boolean send(Packet packet) {
+    protected boolean write(Packet packet) {
+        writeLock.lock();
+        try {
+            Counters.connection();
+            outSession.write(packet);
+            return true;
+        } catch (IOException ex) {
+            Counters.exception();
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes an already encoded frame into the ObjectOutputStream
+     *
+     * @param frame frame to send
+     * @return result of sending
+     */
+    @Override
+    protected boolean write(PacketFrame frame) {
+        writeLock.lock();
         try {
             Counters.connection();
-            outStream.writeObject(packet);
+            outSession.inject(frame);
             return true;
         } catch (IOException ex) {
             Counters.exception();
             return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Pushes the written packets to the socket
+     *
+     * @return result of flushing
+     */
+    @Override
+    protected boolean flush() {
+        writeLock.lock();
+        try {
+            outSession.flush();
+            Counters.outboundFlushed();
+            return true;
+        } catch (IOException ex) {
+            Counters.exception();
+            return false;
+        } finally {
+            writeLock.unlock();
         }
     }
 
@@ -101,6 +166,22 @@ public class ExtendedTCP extends AbstractNetworkProtocol implements NetworkProto
         }
     }
 
+    /**
+     * Writes an already encoded frame to a specific connection
+     *
+     * @param frame frame to send
+     * @param thread ClientThread to send frame to
+     * @return result of sending
+     */
+    public static boolean send(PacketFrame frame, ClientThread thread) {
+        try {
+            return thread.conLib.send(frame);
+        } catch (Exception ex) {
+            Counters.exception();
+            return false;
+        }
+    }
+
     /**
      * Reads a Packet from the ObjectInputStream
      *
@@ -117,6 +198,7 @@ public class ExtendedTCP extends AbstractNetworkProtocol implements NetworkProto
             }
         } catch (IOException | ClassNotFoundException ex) {
             Counters.exception();
+            lost = true;
         }
         return new InvalidPacket();
     }
@@ -127,11 +209,11 @@ public class ExtendedTCP extends AbstractNetworkProtocol implements NetworkProto
     }
 
     @Override
-    public boolean close() {
+    protected boolean closeNow() {
         try {
             // Close streams and socket
             inStream.close();
-            outStream.close();
+            outSession.close();
             clientSocket.close();
             return true;
         } catch (IOException ex) {
@@ -0,0 +1,261 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.packets.InvalidPacket;
+import de.mash1t.networklib.packets.MessagePacket;
+import de.mash1t.networklib.packets.Packet;
+import de.mash1t.networklib.packets.UserListPacket;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Encodes and decodes length-prefixed frames
+ *
+ * Every frame consists of a 4 byte length followed by one self-contained packet, either serialized or encoded by the BinaryCodec, so a reader can find the frame boundaries without knowing anything about the content
+ *
+ * @author Manuel Schmid
+ */
+public final class FrameCodec {
+
+    /**
+     * Size of the length prefix in bytes
+     */
+    public static final int HEADER_LENGTH = 4;
+
+    /**
+     * Biggest accepted payload, bigger frames are treated as invalid
+     */
+    public static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+    /**
+     * Approximate size of a small packet in a fresh object stream, mostly class descriptors
+     */
+    private static final int ESTIMATED_OVERHEAD = 256;
+
+    /**
+     * First two bytes of a java object stream (ObjectStreamConstants.STREAM_MAGIC)
+     */
+    private static final byte MAGIC_HIGH = (byte) 0xAC;
+    private static final byte MAGIC_LOW = (byte) 0xED;
+
+    private FrameCodec() {
+    }
+
+    /**
+     * Checks if the first bytes of a connection belong to a legacy object stream
+     *
+     * @param first first byte received
+     * @param second second byte received
+     * @return true if the peer uses the legacy object stream, false if it sends frames
+     */
+    public static boolean isObjectStream(byte first, byte second) {
+        return first == MAGIC_HIGH && second == MAGIC_LOW;
+    }
+
+    /**
+     * Detects the format of a payload by its first byte
+     *
+     * @param first first byte of the payload
+     * @return format of the payload
+     */
+    public static WireFormat formatOf(byte first) {
+        return BinaryCodec.isBinary(first) ? WireFormat.Binary : WireFormat.Serialized;
+    }
+
+    /**
+     * Encodes a packet with java serialization into a complete frame including its length prefix
+     *
+     * @param packet packet to encode
+     * @return frame
+     * @throws IOException
+     */
+    public static byte[] encode(Packet packet) throws IOException {
+        return encode(packet, WireFormat.Serialized);
+    }
+
+    /**
+     * Encodes a packet into a complete frame including its length prefix
+     *
+     * @param packet packet to encode
+     * @param format format of the payload
+     * @return frame
+     * @throws IOException
+     */
+    public static byte[] encode(Packet packet, WireFormat format) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(format == WireFormat.Binary ? 64 : 256);
+        // Reserve space for the length prefix
+        bytes.write(new byte[HEADER_LENGTH]);
+        if (format == WireFormat.Binary) {
+            BinaryCodec.encode(packet, bytes);
+        } else {
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(packet);
+            out.close();
+        }
+
+        byte[] frame = bytes.toByteArray();
+        writeLength(frame, 0, frame.length - HEADER_LENGTH);
+        return frame;
+    }
+
+    /**
+     * Decodes the payload of a frame in whichever format it has been written
+     *
+     * @param payload buffer containing the payload
+     * @param offset start of the payload
+     * @param length length of the payload
+     * @return decoded packet or an InvalidPacket
+     */
+    public static Packet decode(byte[] payload, int offset, int length) {
+        return decode(payload, offset, length, formatOf(payload[offset]));
+    }
+
+    /**
+     * Decodes the payload of a frame, payloads of another format are invalid
+     *
+     * @param payload buffer containing the payload
+     * @param offset start of the payload
+     * @param length length of the payload
+     * @param format negotiated format of the connection
+     * @return decoded packet or an InvalidPacket
+     */
+    public static Packet decode(byte[] payload, int offset, int length, WireFormat format) {
+        if (formatOf(payload[offset]) != format) {
+            return new InvalidPacket();
+        }
+        if (format == WireFormat.Binary) {
+            return BinaryCodec.decode(payload, offset, length);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload, offset, length))) {
+            Object obj = in.readObject();
+            if (obj instanceof Packet) {
+                return (Packet) obj;
+            }
+        } catch (IOException | ClassNotFoundException ex) {
+            Counters.exception();
+        }
+        return new InvalidPacket();
+    }
+
+    /**
+     * Estimates the encoded length of a packet without encoding it
+     *
+     * @param packet packet to estimate
+     * @return estimated length in bytes
+     */
+    public static int estimateLength(Packet packet) {
+        int length = ESTIMATED_OVERHEAD;
+        if (packet instanceof MessagePacket) {
+            length += lengthOf(((MessagePacket) packet).getMessage());
+        }
+        if (packet instanceof ChannelMessagePacket) {
+            length += lengthOf(((ChannelMessagePacket) packet).getMessage());
+        }
+        if (packet instanceof ConversationMessagePacket) {
+            length += lengthOf(((ConversationMessagePacket) packet).getMessage());
+        }
+        if (packet instanceof UserListPacket) {
+            UserListPacket userListPacket = (UserListPacket) packet;
+            length += lengthOf(userListPacket.getUser());
+            if (userListPacket.getUserList() != null) {
+                for (String user : userListPacket.getUserList()) {
+                    length += lengthOf(user) + 3;
+                }
+            }
+        }
+        if (packet instanceof UserListDeltaPacket) {
+            UserListDeltaPacket delta = (UserListDeltaPacket) packet;
+            for (String user : delta.getJoined()) {
+                length += lengthOf(user) + 3;
+            }
+            for (String user : delta.getLeft()) {
+                length += lengthOf(user) + 3;
+            }
+        }
+        if (packet instanceof RosterPacket) {
+            for (String user : ((RosterPacket) packet).getNames()) {
+                length += lengthOf(user) + 3;
+            }
+        }
+        if (packet instanceof RosterPagePacket) {
+            for (String user : ((RosterPagePacket) packet).getNames()) {
+                length += lengthOf(user) + 3;
+            }
+        }
+        if (packet instanceof BatchPacket) {
+            for (Packet nested : ((BatchPacket) packet).getPackets()) {
+                length += estimateLength(nested);
+            }
+        }
+        return length;
+    }
+
+    private static int lengthOf(String value) {
+        // UTF-8, most nicknames and messages are ASCII
+        return value == null ? 0 : value.length() + 2;
+    }
+
+    /**
+     * Checks if a length read from the wire can be accepted
+     *
+     * @param length length from the prefix
+     * @return validity of the length
+     */
+    public static boolean isValidLength(int length) {
+        return length > 0 && length <= MAX_FRAME_LENGTH;
+    }
+
+    /**
+     * Reads a big endian length prefix
+     *
+     * @param buffer source
+     * @param offset position of the prefix
+     * @return length
+     */
+    public static int readLength(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 24)
+                | ((buffer[offset + 1] & 0xFF) << 16)
+                | ((buffer[offset + 2] & 0xFF) << 8)
+                | (buffer[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Writes a big endian length prefix
+     *
+     * @param buffer target
+     * @param offset position of the prefix
+     * @param length length to write
+     */
+    public static void writeLength(byte[] buffer, int offset, int length) {
+        buffer[offset] = (byte) (length >>> 24);
+        buffer[offset + 1] = (byte) (length >>> 16);
+        buffer[offset + 2] = (byte) (length >>> 8);
+        buffer[offset + 3] = (byte) length;
+    }
+}
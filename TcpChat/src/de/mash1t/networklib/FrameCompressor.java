@@ -0,0 +1,196 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.chat.logging.Counters;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses large binary payloads of one connection with Deflate and inflates the ones it receives
+ *
+ * Every payload is compressed on its own, so a compressed frame can be shared by all connections which have negotiated Compression. Deflater and Inflater hold native memory, they are only created
+ * when the connection needs them and are reused for all its frames
+ *
+ * @author Manuel Schmid
+ */
+public final class FrameCompressor {
+
+    /**
+     * Smallest payload which is compressed, Deflate does not pay off below and a HelloPacket is never compressed
+     */
+    public static final int MIN_LENGTH = 64;
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private final int threshold;
+    private Deflater deflater = null;
+    private Inflater inflater = null;
+    private final byte[] deflateChunk = new byte[CHUNK_SIZE];
+    private boolean released = false;
+
+    /**
+     * Constructor
+     *
+     * @param threshold length of a payload from which on it is compressed, raised to MIN_LENGTH
+     */
+    public FrameCompressor(int threshold) {
+        this.threshold = Math.max(threshold, MIN_LENGTH);
+    }
+
+    /**
+     * Getter for the length of a payload from which on it is compressed
+     *
+     * @return length in bytes
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Checks if a frame is worth compressing
+     *
+     * @param frame complete frame including the length prefix
+     * @return true for binary payloads from the threshold on
+     */
+    public boolean shouldCompress(byte[] frame) {
+        if (frame.length - FrameCodec.HEADER_LENGTH < threshold) {
+            return false;
+        }
+        byte first = frame[FrameCodec.HEADER_LENGTH];
+        return BinaryCodec.isBinary(first) && !BinaryCodec.isDeflated(first);
+    }
+
+    /**
+     * Compresses the payload of a frame
+     *
+     * @param frame complete frame including the length prefix
+     * @return complete frame with the deflated payload, or the given frame if Deflate does not make it smaller
+     */
+    public byte[] compress(byte[] frame) {
+        int length = frame.length - FrameCodec.HEADER_LENGTH;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 32);
+        out.write(new byte[FrameCodec.HEADER_LENGTH], 0, FrameCodec.HEADER_LENGTH);
+        BinaryCodec.writeDeflatedHeader(out, length);
+        long start = System.nanoTime();
+        synchronized (this) {
+            if (released) {
+                return frame;
+            }
+            if (deflater == null) {
+                // Raw Deflate, the header of the payload already tells the original length
+                deflater = new Deflater(Deflater.BEST_SPEED, true);
+            }
+            deflater.reset();
+            deflater.setInput(frame, FrameCodec.HEADER_LENGTH, length);
+            deflater.finish();
+            while (!deflater.finished() && out.size() < frame.length) {
+                int count = deflater.deflate(deflateChunk);
+                out.write(deflateChunk, 0, count);
+            }
+        }
+        Counters.payloadDeflated(System.nanoTime() - start);
+        if (out.size() >= frame.length) {
+            Counters.payloadIncompressible();
+            return frame;
+        }
+        byte[] compressed = out.toByteArray();
+        FrameCodec.writeLength(compressed, 0, compressed.length - FrameCodec.HEADER_LENGTH);
+        return compressed;
+    }
+
+    /**
+     * Restores a deflated payload
+     *
+     * @param payload buffer containing the payload
+     * @param offset start of the payload
+     * @param length length of the payload
+     * @return original payload
+     * @throws IOException if the payload is malformed or its original exceeds the maximum frame length
+     */
+    public byte[] inflate(byte[] payload, int offset, int length) throws IOException {
+        if (length < BinaryCodec.DEFLATED_HEADER_LENGTH || !BinaryCodec.isDeflated(payload[offset])) {
+            throw new IOException("Payload is not deflated");
+        }
+        int inflatedLength = FrameCodec.readLength(payload, offset + 1);
+        if (!FrameCodec.isValidLength(inflatedLength)) {
+            throw new IOException("Deflated payload exceeds the maximum frame length: " + inflatedLength);
+        }
+        byte[] inflated = new byte[inflatedLength];
+        long start = System.nanoTime();
+        synchronized (this) {
+            if (released) {
+                throw new IOException("Compressor has been released");
+            }
+            if (inflater == null) {
+                inflater = new Inflater(true);
+            }
+            inflater.reset();
+            inflater.setInput(payload, offset + BinaryCodec.DEFLATED_HEADER_LENGTH, length - BinaryCodec.DEFLATED_HEADER_LENGTH);
+            int position = 0;
+            try {
+                while (position < inflatedLength) {
+                    int count = inflater.inflate(inflated, position, inflatedLength - position);
+                    if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    position += count;
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("Malformed deflated payload", ex);
+            }
+            // Raw Deflate needs one more call to see the end of the stream
+            if (position == inflatedLength && !inflater.finished()) {
+                try {
+                    inflater.inflate(deflateChunk, 0, 1);
+                } catch (DataFormatException ex) {
+                    throw new IOException("Malformed deflated payload", ex);
+                }
+            }
+            if (position != inflatedLength || !inflater.finished() || inflater.getRemaining() != 0) {
+                throw new IOException("Deflated payload does not match its length");
+            }
+        }
+        Counters.payloadInflated(System.nanoTime() - start);
+        return inflated;
+    }
+
+    /**
+     * Frees the native memory of Deflater and Inflater, afterwards frames are neither compressed nor inflated
+     */
+    public synchronized void release() {
+        released = true;
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+}
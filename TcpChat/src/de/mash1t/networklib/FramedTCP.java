@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.chat.core.RoleType;
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.methods.NetworkProtocol;
+import de.mash1t.networklib.packets.InvalidPacket;
+import de.mash1t.networklib.packets.Packet;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class for the network protocol FramedTCP
+ *
+ * Sends every packet as a length-prefixed frame (see FrameCodec) instead of one endless object stream, so the server can read it without blocking. Payloads are serialized unless the binary WireFormat
+ * has been set
+ *
+ * @author Manuel Schmid
+ */
+public class FramedTCP extends AbstractNetworkProtocol implements NetworkProtocol {
+
+    private final DataInputStream inStream;
+    private final OutputStream outStream;
+    private final Socket clientSocket;
+    private final String ipString;
+    private final RoleType type;
+    // Guards the output stream without pinning virtual threads
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * Creates input and output streams
+     *
+     * @param clientSocket Socket for client
+     * @param type
+     * @throws IOException
+     */
+    public FramedTCP(Socket clientSocket, RoleType type) throws IOException {
+        this(clientSocket, clientSocket.getInputStream(), type);
+    }
+
+    /**
+     * Creates input and output streams, reading from an already opened input stream
+     *
+     * @param clientSocket Socket for client
+     * @param inputStream stream to read from, e.g. when first bytes have already been inspected
+     * @param type
+     * @throws IOException
+     */
+    public FramedTCP(Socket clientSocket, InputStream inputStream, RoleType type) throws IOException {
+        this.clientSocket = clientSocket;
+        if (type == RoleType.Server) {
+            clientSocket.setTcpNoDelay(TransportSettings.isTcpNoDelay());
+        }
+        this.inStream = new DataInputStream(inputStream);
+        // Frames are collected until the writer flushes
+        this.outStream = new BufferedOutputStream(clientSocket.getOutputStream(), WRITE_BUFFER_SIZE);
+        this.ipString = clientSocket.getInetAddress().toString();
+        this.type = type;
+        initOutboundQueue();
+    }
+
+    /**
+     * Writes a Packet as one frame
+     *
+     * @param packet stands for itself
+     * @return result of sending
+     */
+    @Override
+    protected boolean write(Packet packet) {
+        writeLock.lock();
+        try {
+            Counters.connection();
+            PacketFrame.of(packet).writeTo(outStream, wireFormat, compressor);
+            return true;
+        } catch (IOException ex) {
+            Counters.exception();
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes an already encoded frame
+     *
+     * @param frame frame to send
+     * @return result of sending
+     */
+    @Override
+    protected boolean write(PacketFrame frame) {
+        writeLock.lock();
+        try {
+            Counters.connection();
+            frame.writeTo(outStream, wireFormat, compressor);
+            return true;
+        } catch (IOException ex) {
+            Counters.exception();
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Pushes the written frames to the socket
+     *
+     * @return result of flushing
+     */
+    @Override
+    protected boolean flush() {
+        writeLock.lock();
+        try {
+            outStream.flush();
+            Counters.outboundFlushed();
+            return true;
+        } catch (IOException ex) {
+            Counters.exception();
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Reads one frame and decodes the Packet
+     *
+     * @return read packet
+     */
+    @Override
+    public Packet read() {
+        try {
+            int length = inStream.readInt();
+            Counters.connection();
+            if (FrameCodec.isValidLength(length)) {
+                byte[] payload = new byte[length];
+                inStream.readFully(payload);
+                return decodeFrame(payload, 0, length);
+            }
+        } catch (IOException ex) {
+            Counters.exception();
+            lost = true;
+        }
+        return new InvalidPacket();
+    }
+
+    @Override
+    protected boolean closeNow() {
+        try {
+            // Close streams and socket
+            inStream.close();
+            outStream.close();
+            clientSocket.close();
+            releaseCompressor();
+            return true;
+        } catch (IOException ex) {
+            Counters.exception();
+            return false;
+        }
+    }
+
+    @Override
+    public String getIP() {
+        return ipString;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+/**
+ * Versioned handshake, sent by a client in front of its ConnectPacket and answered by the server
+ *
+ * The client offers the features it supports, the server answers with its own version and the features it has selected for this connection
+ *
+ * @author Manuel Schmid
+ */
+public class HelloPacket extends ExtendedPacket {
+
+    /**
+     * Version of the protocol spoken by this side
+     */
+    public static final int VERSION = 1;
+
+    private final int version;
+    private final int capabilities;
+    private final int heartbeatInterval;
+
+    /**
+     * Constructor
+     *
+     * @param version protocol version of the sender
+     * @param capabilities offered or, from the server, selected capabilities
+     * @param heartbeatInterval milliseconds between heartbeats, only sent by the server, 0 if there are none
+     */
+    public HelloPacket(int version, int capabilities, int heartbeatInterval) {
+        super(ExtendedPacketType.Hello);
+        this.version = version;
+        this.capabilities = capabilities;
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    /**
+     * Getter for the version
+     *
+     * @return protocol version of the sender
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Getter for the capabilities
+     *
+     * @return bits of Capability
+     */
+    public int getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Getter for the heartbeat interval
+     *
+     * @return milliseconds, 0 if the server does not check for silence
+     */
+    public int getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+}
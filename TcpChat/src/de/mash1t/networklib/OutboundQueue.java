@@ -0,0 +1,286 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.packets.KickPacket;
+import de.mash1t.networklib.packets.Packet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Outbound queue of one connection
+ *
+ * Sending only adds the packet to the bounded Outbox, a writer task on the executor writes all queued packets in order. At most one writer runs per connection, so a slow client only blocks its own writer and never the
+ * thread which sent the packet. Everything the writer finds in one run is flushed to the socket at once, on binary connections as BatchPackets so the client reads fewer frames
+ *
+ * @author Manuel Schmid
+ */
+public final class OutboundQueue implements Runnable {
+
+    /**
+     * Reason sent to clients which are dropped by the Kick policy
+     */
+    public static final String SLOW_CONSUMER_MESSAGE = "Your connection is too slow to keep up with the chat";
+
+    /**
+     * Bytes up to which queued packets are combined into one batch
+     */
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    private final AbstractNetworkProtocol protocol;
+    private final Executor executor;
+    private final Outbox outbox = new Outbox();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile boolean closeRequested = false;
+    private volatile boolean closed = false;
+    private volatile boolean failed = false;
+    // Only used by the running writer
+    private final List<PacketFrame> batch = new ArrayList<>();
+    private int batchBytes = 0;
+
+    /**
+     * Constructor
+     *
+     * @param protocol protocol which writes the queued packets
+     * @param executor executor to run the writer on
+     */
+    public OutboundQueue(AbstractNetworkProtocol protocol, Executor executor) {
+        this.protocol = protocol;
+        this.executor = executor;
+    }
+
+    /**
+     * Queues a packet
+     *
+     * @param packet packet to send
+     * @return false if the packet has been dropped, the connection is closing or writing has failed
+     */
+    public boolean offer(Packet packet) {
+        return add(packet);
+    }
+
+    /**
+     * Queues an encoded frame
+     *
+     * @param frame frame to send
+     * @return false if the frame has been dropped, the connection is closing or writing has failed
+     */
+    public boolean offer(PacketFrame frame) {
+        return add(frame);
+    }
+
+    /**
+     * Queues several encoded frames and starts the writer only once, so they are written in one run and flushed together
+     *
+     * @param frames frames to send in this order
+     * @return false if a frame has been dropped, the connection is closing or writing has failed
+     */
+    public boolean offerAll(PacketFrame... frames) {
+        boolean queued = true;
+        for (PacketFrame frame : frames) {
+            queued &= queue(frame);
+        }
+        schedule();
+        return queued;
+    }
+
+    /**
+     * Closes the connection after all queued packets have been written
+     */
+    public void close() {
+        closeRequested = true;
+        schedule();
+    }
+
+    /**
+     * Getter for the number of packets waiting to be written
+     *
+     * @return depth of the queue
+     */
+    public int depth() {
+        return outbox.depth();
+    }
+
+    private boolean add(Object entry) {
+        if (!queue(entry)) {
+            return false;
+        }
+        schedule();
+        return true;
+    }
+
+    private boolean queue(Object entry) {
+        if (closeRequested || failed) {
+            return false;
+        }
+        if (!outbox.offer(entry)) {
+            if (outbox.takeOverflow()) {
+                // Nothing queued is worth waiting for, only tell the client why it is dropped
+                outbox.clear();
+                outbox.force(new KickPacket(SLOW_CONSUMER_MESSAGE));
+                close();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException ex) {
+                // Executor has been shut down, write on the current thread
+                run();
+            }
+        }
+    }
+
+    /**
+     * Writes queued packets until the queue is empty and flushes them together
+     *
+     * With a flush window the writer waits for further packets of the same burst, at most the window after its first unflushed write
+     */
+    @Override
+    public void run() {
+        long window = TimeUnit.MICROSECONDS.toNanos(TransportSettings.getFlushWindowMicros());
+        do {
+            boolean unflushed = false;
+            long flushAt = 0;
+            while (true) {
+                if (drain() && !unflushed) {
+                    unflushed = true;
+                    flushAt = System.nanoTime() + window;
+                }
+                long remaining = flushAt - System.nanoTime();
+                if (!unflushed || closeRequested || remaining <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(remaining);
+                if (outbox.depth() <= 0) {
+                    break;
+                }
+            }
+            if (unflushed && !closed && !failed && !protocol.flush()) {
+                failed = true;
+            }
+            // Packets queued before close() might have arrived after the last poll
+            if (closeRequested && !closed && outbox.depth() <= 0) {
+                closed = true;
+                protocol.closeNow();
+            }
+            scheduled.set(false);
+            // Check for packets which have been added after the last poll
+        } while ((outbox.depth() > 0 || (closeRequested && !closed)) && scheduled.compareAndSet(false, true));
+    }
+
+    /**
+     * Writes everything in the outbox, consecutive packets of a connection which supports batches are combined
+     *
+     * @return true if anything has been written
+     */
+    private boolean drain() {
+        boolean batching = protocol.supports(Capability.Batching);
+        boolean written = false;
+        Object entry;
+        while ((entry = outbox.poll()) != null || outbox.resume()) {
+            if (entry != null) {
+                // Numbered even if it cannot be written anymore, so it can be replayed to a resumed session
+                protocol.dequeued(entry instanceof PacketFrame ? ((PacketFrame) entry).getPacket() : (Packet) entry);
+            }
+            if (entry == null || closed || failed) {
+                // Catch-up has been queued or nobody will read this anymore
+                continue;
+            }
+            if (!batching) {
+                boolean sent = entry instanceof PacketFrame
+                        ? protocol.write((PacketFrame) entry)
+                        : protocol.write((Packet) entry);
+                failed = !sent;
+                written |= sent;
+                continue;
+            }
+            PacketFrame frame = entry instanceof PacketFrame ? (PacketFrame) entry : PacketFrame.of((Packet) entry);
+            int length = frame.length();
+            if (frame.getPacket() instanceof BatchPacket) {
+                // Already a batch of its own, keep the order
+                if (!batch.isEmpty()) {
+                    written |= writeBatch();
+                }
+                boolean sent = !failed && protocol.write(frame);
+                failed = !sent;
+                written |= sent;
+                continue;
+            }
+            if (!batch.isEmpty() && batchBytes + length > MAX_BATCH_BYTES) {
+                written |= writeBatch();
+            }
+            batch.add(frame);
+            batchBytes += length;
+            if (batch.size() >= BatchPacket.MAX_PACKETS) {
+                written |= writeBatch();
+            }
+        }
+        if (!batch.isEmpty()) {
+            written |= writeBatch();
+        }
+        return written;
+    }
+
+    /**
+     * Writes the collected frames, a single frame is written as it is
+     *
+     * @return result of writing
+     */
+    private boolean writeBatch() {
+        try {
+            if (failed) {
+                return false;
+            }
+            PacketFrame frame = batch.size() == 1 ? batch.get(0) : PacketFrame.batch(batch);
+            if (!protocol.write(frame)) {
+                failed = true;
+                return false;
+            }
+            if (batch.size() > 1) {
+                Counters.batchSent(batch.size());
+            }
+            return true;
+        } catch (IOException ex) {
+            Counters.exception();
+            failed = true;
+            return false;
+        } finally {
+            batch.clear();
+            batchBytes = 0;
+        }
+    }
+}
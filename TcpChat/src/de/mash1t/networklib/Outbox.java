@@ -0,0 +1,324 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.packets.InfoPacket;
+import de.mash1t.networklib.packets.Packet;
+import de.mash1t.networklib.packets.PacketType;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of Packets, PacketFrames and DirectFrames waiting to be written to one connection
+ *
+ * Any thread may add entries, only the writer of the connection removes them. When the queued bytes exceed the budget, the SlowConsumerPolicy decides what happens. Only group messages are ever dropped,
+ * all other packets are needed to keep the client consistent
+ *
+ * @author Manuel Schmid
+ */
+public final class Outbox {
+
+    /**
+     * Number of group messages which are delivered after a pause of the CatchUp policy
+     */
+    private static final int CATCH_UP_MESSAGES = 10;
+
+    private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger(0);
+    private final AtomicLong bytes = new AtomicLong(0);
+    private final long budget;
+    private final SlowConsumerPolicy policy;
+    // Serializes the decisions of adding threads, the writer polls without it
+    private final ReentrantLock admission = new ReentrantLock();
+    private final AtomicBoolean kickPending = new AtomicBoolean(false);
+    private boolean overflowed = false;
+
+    // State of the CatchUp policy, guarded by admission
+    private boolean paused = false;
+    private int missed = 0;
+    private final ArrayDeque<Object> latest = new ArrayDeque<>();
+
+    /**
+     * Creates an outbox with budget and policy of the TransportSettings
+     */
+    public Outbox() {
+        this(TransportSettings.getOutboundBudget(), TransportSettings.getSlowConsumerPolicy());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param budget bytes which may be queued, 0 for no limit
+     * @param policy policy applied when the budget is exceeded
+     */
+    public Outbox(long budget, SlowConsumerPolicy policy) {
+        this.budget = budget;
+        this.policy = policy;
+    }
+
+    /**
+     * Adds an entry within the budget, a DirectFrame which is not queued stays with the caller
+     *
+     * @param entry Packet, PacketFrame or DirectFrame
+     * @return true if the entry has been queued or is kept for a later catch-up
+     */
+    public boolean offer(Object entry) {
+        long size = sizeOf(entry);
+        admission.lock();
+        try {
+            if (overflowed) {
+                return false;
+            }
+            if (paused && isGroupMessage(entry)) {
+                skip(entry);
+                return true;
+            }
+            if (budget > 0 && bytes.get() + size > budget) {
+                switch (policy) {
+                    case DropOldest:
+                        dropGroupMessages(bytes.get() + size - budget);
+                        if (bytes.get() + size > budget && isGroupMessage(entry)) {
+                            Counters.slowConsumerDropped();
+                            return false;
+                        }
+                        break;
+                    case Kick:
+                        overflowed = true;
+                        kickPending.set(true);
+                        Counters.slowConsumerKicked();
+                        return false;
+                    case CatchUp:
+                        paused = true;
+                        Counters.slowConsumerPaused();
+                        skipGroupMessages();
+                        if (isGroupMessage(entry)) {
+                            skip(entry);
+                            return true;
+                        }
+                        break;
+                }
+            }
+            add(entry, size);
+            return true;
+        } finally {
+            admission.unlock();
+        }
+    }
+
+    /**
+     * Adds an entry regardless of the budget, e.g. the KickPacket telling a slow client why it is dropped
+     *
+     * @param entry Packet, PacketFrame or DirectFrame
+     */
+    public void force(Object entry) {
+        add(entry, sizeOf(entry));
+    }
+
+    /**
+     * Removes the next entry
+     *
+     * @return Packet, PacketFrame, DirectFrame or null if the outbox is empty
+     */
+    public Object poll() {
+        Entry entry = entries.poll();
+        if (entry == null) {
+            return null;
+        }
+        removed(entry);
+        return entry.item;
+    }
+
+    /**
+     * Ends a pause of the CatchUp policy, only called by the writer once the outbox is empty
+     *
+     * @return true if a summary or the latest group messages have been queued
+     */
+    public boolean resume() {
+        admission.lock();
+        try {
+            if (!paused) {
+                return false;
+            }
+            paused = false;
+            int skipped = missed - latest.size();
+            if (skipped > 0) {
+                force(new InfoPacket("*** Your connection was too slow, " + skipped + " group messages have been skipped ***"));
+            }
+            // Only the latest messages are delivered, the older ones are already in the summary
+            for (Object entry : latest) {
+                force(entry);
+            }
+            latest.clear();
+            missed = 0;
+            return true;
+        } finally {
+            admission.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries
+     */
+    public void clear() {
+        Object entry;
+        while ((entry = poll()) != null) {
+            release(entry);
+        }
+        admission.lock();
+        try {
+            for (Object skipped : latest) {
+                release(skipped);
+            }
+            latest.clear();
+            missed = 0;
+        } finally {
+            admission.unlock();
+        }
+    }
+
+    /**
+     * Checks once if the Kick policy has been triggered
+     *
+     * @return true for exactly one caller after the budget has been exceeded
+     */
+    public boolean takeOverflow() {
+        return kickPending.compareAndSet(true, false);
+    }
+
+    /**
+     * Getter for the number of queued entries
+     *
+     * @return depth
+     */
+    public int depth() {
+        return depth.get();
+    }
+
+    /**
+     * Getter for the queued bytes
+     *
+     * @return bytes, estimated for packets which have not been encoded yet
+     */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    private void add(Object item, long size) {
+        entries.offer(new Entry(item, size));
+        bytes.addAndGet(size);
+        Counters.queued(depth.incrementAndGet());
+    }
+
+    private void removed(Entry entry) {
+        bytes.addAndGet(-entry.size);
+        Counters.dequeued(depth.decrementAndGet());
+    }
+
+    private void dropGroupMessages(long needed) {
+        long freed = 0;
+        Iterator<Entry> iterator = entries.iterator();
+        while (freed < needed && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            // The writer might have taken it in the meantime
+            if (isGroupMessage(entry.item) && entries.remove(entry)) {
+                removed(entry);
+                release(entry.item);
+                freed += entry.size;
+                Counters.slowConsumerDropped();
+            }
+        }
+    }
+
+    private void skipGroupMessages() {
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (isGroupMessage(entry.item) && entries.remove(entry)) {
+                removed(entry);
+                skip(entry.item);
+            }
+        }
+    }
+
+    private void skip(Object entry) {
+        missed++;
+        latest.addLast(entry);
+        if (latest.size() > CATCH_UP_MESSAGES) {
+            release(latest.removeFirst());
+        }
+    }
+
+    private static boolean isGroupMessage(Object entry) {
+        return packetOf(entry).getType() == PacketType.GM;
+    }
+
+    private static Packet packetOf(Object entry) {
+        if (entry instanceof PacketFrame) {
+            return ((PacketFrame) entry).getPacket();
+        }
+        if (entry instanceof DirectFrame) {
+            return ((DirectFrame) entry).getPacket();
+        }
+        return (Packet) entry;
+    }
+
+    private static long sizeOf(Object entry) {
+        if (entry instanceof PacketFrame) {
+            return ((PacketFrame) entry).length();
+        }
+        if (entry instanceof DirectFrame) {
+            return ((DirectFrame) entry).length();
+        }
+        return FrameCodec.estimateLength((Packet) entry);
+    }
+
+    private static void release(Object entry) {
+        // Pooled buffers of dropped frames go back to the pool
+        if (entry instanceof DirectFrame) {
+            ((DirectFrame) entry).release();
+        }
+    }
+
+    /**
+     * Queued Packet, PacketFrame or DirectFrame with the size it has been charged with
+     */
+    private static final class Entry {
+
+        final Object item;
+        // The length of a frame changes once it has been encoded
+        final long size;
+
+        Entry(Object item, long size) {
+            this.item = item;
+            this.size = size;
+        }
+    }
+}
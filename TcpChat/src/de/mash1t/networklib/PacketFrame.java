@@ -0,0 +1,274 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.packets.Packet;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable, lazily encoded frame of a packet
+ *
+ * A broadcast creates only one PacketFrame for its packet, which is encoded at most once per WireFormat and then written to every recipient without encoding the packet again. The same holds for
+ * the compressed frame, which is deflated by the first connection that has negotiated Compression
+ *
+ * @author Manuel Schmid
+ */
+public final class PacketFrame {
+
+    /**
+     * Length of the header of a java object stream (magic and version)
+     */
+    private static final int STREAM_HEADER_LENGTH = 4;
+
+    private final Packet packet;
+    // Complete frames including the length prefix, must not be changed once set
+    private volatile byte[] serialized = null;
+    private volatile byte[] binary = null;
+    // Binary frame with the deflated payload, or the binary frame itself if it does not get smaller
+    private volatile byte[] deflated = null;
+    // Direct copies of the payloads, only kept while connections use them
+    private final AtomicReference<SharedPayload> serializedPayload = new AtomicReference<>();
+    private final AtomicReference<SharedPayload> binaryPayload = new AtomicReference<>();
+    private final AtomicReference<SharedPayload> deflatedPayload = new AtomicReference<>();
+
+    /**
+     * Constructor
+     *
+     * @param packet packet to encode
+     */
+    private PacketFrame(Packet packet) {
+        this.packet = packet;
+    }
+
+    /**
+     * Creates a frame for a packet, the packet is encoded when it is written the first time
+     *
+     * @param packet packet to encode
+     * @return frame
+     */
+    public static PacketFrame of(Packet packet) {
+        return new PacketFrame(packet);
+    }
+
+    /**
+     * Creates the binary frame of a BatchPacket from frames of single packets
+     *
+     * Frames which have already been encoded, e.g. for a broadcast, are copied into the batch as they are
+     *
+     * @param frames frames to combine in this order, must not contain batches
+     * @return frame which has already been encoded in the binary format
+     * @throws IOException if there are too many frames or the batch exceeds the maximum frame length
+     */
+    public static PacketFrame batch(List<PacketFrame> frames) throws IOException {
+        List<Packet> packets = new ArrayList<>(frames.size());
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        out.write(new byte[FrameCodec.HEADER_LENGTH]);
+        BinaryCodec.writeBatchHeader(out, frames.size());
+        for (PacketFrame frame : frames) {
+            if (frame.packet instanceof BatchPacket) {
+                throw new IOException("Batches cannot be nested");
+            }
+            byte[] nested = frame.frame(WireFormat.Binary);
+            BinaryCodec.writeBatchEntry(out, nested, FrameCodec.HEADER_LENGTH, nested.length - FrameCodec.HEADER_LENGTH);
+            packets.add(frame.packet);
+        }
+        byte[] bytes = out.toByteArray();
+        int length = bytes.length - FrameCodec.HEADER_LENGTH;
+        if (!FrameCodec.isValidLength(length)) {
+            throw new IOException("Batch exceeds the maximum frame length: " + length);
+        }
+        FrameCodec.writeLength(bytes, 0, length);
+        PacketFrame batch = new PacketFrame(new BatchPacket(packets));
+        batch.binary = bytes;
+        return batch;
+    }
+
+    /**
+     * Getter for the encoded packet
+     *
+     * @return packet
+     */
+    public Packet getPacket() {
+        return packet;
+    }
+
+    /**
+     * Getter for the length of the whole frame
+     *
+     * @return length in bytes including the length prefix, estimated if the packet has not been encoded yet
+     */
+    public int length() {
+        byte[] frame = binary;
+        if (frame == null) {
+            frame = serialized;
+        }
+        return frame != null ? frame.length : FrameCodec.HEADER_LENGTH + FrameCodec.estimateLength(packet);
+    }
+
+    /**
+     * Creates a read-only view of the frame with its own position, so it can be written to several channels at once
+     *
+     * @param format format of the payload
+     * @return buffer positioned at the start of the frame
+     * @throws IOException
+     */
+    public ByteBuffer buffer(WireFormat format) throws IOException {
+        return ByteBuffer.wrap(frame(format)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the whole frame including the length prefix
+     *
+     * @param out target stream
+     * @param format format of the payload
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out, WireFormat format) throws IOException {
+        out.write(frame(format));
+    }
+
+    /**
+     * Writes the whole frame including the length prefix, compressed if the connection compresses it
+     *
+     * @param out target stream
+     * @param format format of the payload
+     * @param compressor compressor of the connection, null if it has not negotiated Compression
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out, WireFormat format, FrameCompressor compressor) throws IOException {
+        out.write(frame(format, compressor));
+    }
+
+    /**
+     * Writes the serialized object without length prefix and stream header, as it would appear inside an object stream
+     *
+     * Only valid if the receiving object stream has been reset right before
+     *
+     * @param out target stream
+     * @throws IOException
+     */
+    public void writeObjectTo(OutputStream out) throws IOException {
+        byte[] frame = frame(WireFormat.Serialized);
+        int offset = FrameCodec.HEADER_LENGTH + STREAM_HEADER_LENGTH;
+        out.write(frame, offset, frame.length - offset);
+    }
+
+    /**
+     * Takes a reference to the payload in a pooled direct buffer, which is created by the first caller and shared by all others, whichever event loop they run on
+     *
+     * @param format format of the payload
+     * @return payload without length prefix, has to be released
+     * @throws IOException
+     */
+    public SharedPayload retainPayload(WireFormat format) throws IOException {
+        return retainPayload(format, null);
+    }
+
+    /**
+     * Takes a reference to the payload in a pooled direct buffer, compressed if the connection compresses it
+     *
+     * @param format format of the payload
+     * @param compressor compressor of the connection, null if it has not negotiated Compression
+     * @return payload without length prefix, has to be released
+     * @throws IOException
+     */
+    public SharedPayload retainPayload(WireFormat format, FrameCompressor compressor) throws IOException {
+        byte[] frame = frame(format, compressor);
+        AtomicReference<SharedPayload> reference;
+        if (BinaryCodec.isDeflated(frame[FrameCodec.HEADER_LENGTH])) {
+            reference = deflatedPayload;
+        } else {
+            reference = format == WireFormat.Binary ? binaryPayload : serializedPayload;
+        }
+        while (true) {
+            SharedPayload current = reference.get();
+            if (current != null && current.tryRetain()) {
+                return current;
+            }
+            PooledBuffer pooled = BufferPool.shared().acquire(frame.length - FrameCodec.HEADER_LENGTH);
+            pooled.buffer().put(frame, FrameCodec.HEADER_LENGTH, frame.length - FrameCodec.HEADER_LENGTH).flip();
+            SharedPayload created = new SharedPayload(pooled);
+            if (reference.compareAndSet(current, created)) {
+                return created;
+            }
+            // Another connection has been faster
+            created.release();
+        }
+    }
+
+    /**
+     * Picks the frame for a connection, a payload above the threshold of the compressor is deflated once and then shared
+     *
+     * @param format format of the payload
+     * @param compressor compressor of the connection, null if it has not negotiated Compression
+     * @return complete frame
+     * @throws IOException
+     */
+    private byte[] frame(WireFormat format, FrameCompressor compressor) throws IOException {
+        byte[] frame = frame(format);
+        if (compressor == null || format != WireFormat.Binary || !compressor.shouldCompress(frame)) {
+            return frame;
+        }
+        byte[] compressed = deflated;
+        if (compressed == null) {
+            compressed = compressor.compress(frame);
+            deflated = compressed;
+        }
+        if (compressed.length < frame.length) {
+            Counters.compressedSent(frame.length - compressed.length);
+        }
+        return compressed;
+    }
+
+    /**
+     * Encodes the packet once per format, concurrent callers may both encode but get equal bytes
+     *
+     * @param format format of the payload
+     * @return complete frame
+     * @throws IOException
+     */
+    private byte[] frame(WireFormat format) throws IOException {
+        if (format == WireFormat.Binary) {
+            byte[] frame = binary;
+            if (frame == null) {
+                frame = FrameCodec.encode(packet, WireFormat.Binary);
+                binary = frame;
+            }
+            return frame;
+        }
+        byte[] frame = serialized;
+        if (frame == null) {
+            frame = FrameCodec.encode(packet, WireFormat.Serialized);
+            serialized = frame;
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.chat.logging.Counters;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Direct ByteBuffer borrowed from a BufferPool
+ *
+ * @author Manuel Schmid
+ */
+public final class PooledBuffer {
+
+    private final BufferPool pool;
+    final ByteBuffer buffer;
+    final int sizeClass;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+    // Only set when the pool detects leaks
+    BufferPool.LeakTracker tracker = null;
+
+    /**
+     * Constructor
+     *
+     * @param pool pool the buffer belongs to
+     * @param buffer borrowed buffer
+     * @param sizeClass index of the size class, -1 for unpooled buffers
+     */
+    PooledBuffer(BufferPool pool, ByteBuffer buffer, int sizeClass) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+        Counters.bufferAcquired();
+    }
+
+    /**
+     * Getter for the buffer, must not be used after release()
+     *
+     * @return buffer
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Gives the buffer back to its pool
+     *
+     * @throws IllegalStateException if the buffer has already been released
+     */
+    public void release() {
+        if (!released.compareAndSet(false, true)) {
+            throw new IllegalStateException("Buffer has already been released");
+        }
+        Counters.bufferReleased();
+        pool.release(this);
+    }
+}
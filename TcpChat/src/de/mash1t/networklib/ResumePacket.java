@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+/**
+ * Asks the server to resume a session, sent in front of the ConnectPacket of a reconnecting client
+ *
+ * @author Manuel Schmid
+ */
+public class ResumePacket extends ExtendedPacket {
+
+    private final String token;
+    private final long received;
+
+    /**
+     * Constructor
+     *
+     * @param token token of the session
+     * @param received count of chat messages received on the earlier connection
+     */
+    public ResumePacket(String token, long received) {
+        super(ExtendedPacketType.Resume);
+        this.token = token;
+        this.received = received;
+    }
+
+    /**
+     * Getter for the token
+     *
+     * @return token of the session
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Getter for the chat messages received on the earlier connection, the server replays the later ones
+     *
+     * @return count of chat messages
+     */
+    public long getReceived() {
+        return received;
+    }
+}
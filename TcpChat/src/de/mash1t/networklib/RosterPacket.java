@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import java.util.List;
+
+/**
+ * User list of a client which understands extended packets, together with the version of the roster
+ *
+ * The names of a very large roster are only the first page, the rest is loaded with RosterPageRequestPackets
+ *
+ * @author Manuel Schmid
+ */
+public class RosterPacket extends ExtendedPacket {
+
+    private final long epoch;
+    private final long version;
+    private final int total;
+    private final List<String> names;
+
+    /**
+     * Constructor
+     *
+     * @param epoch identifies the server run, versions of different runs cannot be compared
+     * @param version version of the roster
+     * @param total count of all users
+     * @param names nicknames of all users, or of the first page if there are less than total
+     */
+    public RosterPacket(long epoch, long version, int total, List<String> names) {
+        super(ExtendedPacketType.Roster);
+        this.epoch = epoch;
+        this.version = version;
+        this.total = total;
+        this.names = names;
+    }
+
+    /**
+     * Getter for the server run
+     *
+     * @return epoch
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Getter for the version of the roster
+     *
+     * @return version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Getter for the count of all users
+     *
+     * @return total
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Checks if only the first page of the roster has been sent
+     *
+     * @return true if there are more users than names
+     */
+    public boolean isPaged() {
+        return total > names.size();
+    }
+
+    /**
+     * Getter for the users
+     *
+     * @return nicknames
+     */
+    public List<String> getNames() {
+        return names;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import java.util.List;
+
+/**
+ * Part of the sorted user list, answer to a RosterPageRequestPacket
+ *
+ * @author Manuel Schmid
+ */
+public class RosterPagePacket extends ExtendedPacket {
+
+    private final String prefix;
+    private final int offset;
+    private final int total;
+    private final List<String> names;
+
+    /**
+     * Constructor
+     *
+     * @param prefix prefix of the request
+     * @param offset index of the first nickname
+     * @param total count of all nicknames starting with the prefix
+     * @param names nicknames of the page, sorted
+     */
+    public RosterPagePacket(String prefix, int offset, int total, List<String> names) {
+        super(ExtendedPacketType.RosterPage);
+        this.prefix = prefix;
+        this.offset = offset;
+        this.total = total;
+        this.names = names;
+    }
+
+    /**
+     * Getter for the prefix of the request
+     *
+     * @return prefix
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Getter for the index of the first nickname
+     *
+     * @return offset
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Getter for the count of all nicknames starting with the prefix
+     *
+     * @return total
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Getter for the nicknames of the page
+     *
+     * @return nicknames
+     */
+    public List<String> getNames() {
+        return names;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+/**
+ * Asks the server for a part of the sorted user list
+ *
+ * @author Manuel Schmid
+ */
+public class RosterPageRequestPacket extends ExtendedPacket {
+
+    private final String prefix;
+    private final int offset;
+    private final int limit;
+
+    /**
+     * Constructor
+     *
+     * @param prefix only nicknames starting with it, empty for all
+     * @param offset index of the first nickname
+     * @param limit maximum count of nicknames
+     */
+    public RosterPageRequestPacket(String prefix, int offset, int limit) {
+        super(ExtendedPacketType.RosterPageRequest);
+        this.prefix = prefix;
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    /**
+     * Getter for the prefix
+     *
+     * @return prefix, empty for all nicknames
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Getter for the index of the first nickname
+     *
+     * @return offset
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Getter for the maximum count of nicknames
+     *
+     * @return limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+}
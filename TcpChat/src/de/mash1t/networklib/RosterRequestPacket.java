@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+/**
+ * Asks the server for the changes since a known roster version
+ *
+ * Sent after a gap in the deltas and by a reconnecting client in front of its ConnectPacket. The server answers with a delta from the known version if it still has the changes, otherwise with a
+ * RosterPacket
+ *
+ * @author Manuel Schmid
+ */
+public class RosterRequestPacket extends ExtendedPacket {
+
+    private final long epoch;
+    private final long version;
+
+    /**
+     * Constructor
+     *
+     * @param epoch server run of the known version
+     * @param version roster version the client has
+     */
+    public RosterRequestPacket(long epoch, long version) {
+        super(ExtendedPacketType.RosterRequest);
+        this.epoch = epoch;
+        this.version = version;
+    }
+
+    /**
+     * Getter for the server run of the known version
+     *
+     * @return epoch
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Getter for the roster version the client has
+     *
+     * @return version
+     */
+    public long getVersion() {
+        return version;
+    }
+}
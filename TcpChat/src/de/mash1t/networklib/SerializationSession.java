@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.packets.Packet;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Long-lived ObjectOutputStream of a legacy connection with bounded back-reference tables
+ *
+ * An ObjectOutputStream keeps every object it has written reachable until reset() is called. The session resets the stream after a number of packets or bytes, so a connection only retains the
+ * packets since the last reset. Between resets the class descriptors are written only once, after a reset the receiver gets them again with the next packet
+ *
+ * Not thread-safe, the owner has to serialize the calls
+ *
+ * @author Manuel Schmid
+ */
+public final class SerializationSession {
+
+    private final CountingOutputStream counter;
+    private final ObjectOutputStream out;
+    private final int resetPackets;
+    private final long resetBytes;
+
+    private int packetsSinceReset = 0;
+    private volatile long bytesAtReset = 0;
+    // Retained bytes last added to the counters
+    private long published = 0;
+
+    /**
+     * Creates a session with the reset cadence of the TransportSettings
+     *
+     * @param rawOut stream of the socket
+     * @throws IOException
+     */
+    public SerializationSession(OutputStream rawOut) throws IOException {
+        this(rawOut, TransportSettings.getStreamResetPackets(), TransportSettings.getStreamResetBytes());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param rawOut stream of the socket
+     * @param resetPackets packets after which the stream is reset, 0 for no limit
+     * @param resetBytes bytes after which the stream is reset, 0 for no limit
+     * @throws IOException
+     */
+    public SerializationSession(OutputStream rawOut, int resetPackets, long resetBytes) throws IOException {
+        this.counter = new CountingOutputStream(rawOut);
+        this.out = new ObjectOutputStream(counter);
+        this.resetPackets = resetPackets;
+        this.resetBytes = resetBytes;
+        // The stream header is no packet
+        this.bytesAtReset = counter.count;
+        // The receiver blocks in its ObjectInputStream until it has the header
+        flush();
+    }
+
+    /**
+     * Writes a packet into the stream
+     *
+     * The packet itself is written unshared, so it never becomes a back reference, only its fields are kept until the next reset
+     *
+     * @param packet packet to write
+     * @throws IOException
+     */
+    public void write(Packet packet) throws IOException {
+        out.writeUnshared(packet);
+        packetsSinceReset++;
+        if ((resetPackets > 0 && packetsSinceReset >= resetPackets)
+                || (resetBytes > 0 && retainedBytes() >= resetBytes)) {
+            reset();
+        }
+        publish();
+    }
+
+    /**
+     * Injects an already encoded frame into the stream
+     *
+     * The frame was serialized by its own stream, so both sides reset their handle tables before and after the injected object
+     *
+     * @param frame frame to write
+     * @throws IOException
+     */
+    public void inject(PacketFrame frame) throws IOException {
+        if (packetsSinceReset > 0) {
+            reset();
+        }
+        out.flush();
+        frame.writeObjectTo(counter);
+        reset();
+        publish();
+    }
+
+    /**
+     * Getter for the bytes written since the last reset, which bounds what the stream keeps reachable
+     *
+     * @return bytes since the last reset
+     */
+    public long retainedBytes() {
+        return counter.count - bytesAtReset;
+    }
+
+    /**
+     * Pushes all written packets through to the socket
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        out.flush();
+        counter.push();
+    }
+
+    /**
+     * Closes the stream
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        Counters.streamRetained(-published, 0);
+        published = 0;
+        out.close();
+    }
+
+    private void publish() {
+        long retained = retainedBytes();
+        Counters.streamRetained(retained - published, retained);
+        published = retained;
+    }
+
+    private void reset() throws IOException {
+        out.reset();
+        packetsSinceReset = 0;
+        bytesAtReset = counter.count;
+        Counters.streamReset();
+    }
+
+    /**
+     * Counts the bytes written to the socket and keeps them buffered until the session is flushed
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        volatile long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        /**
+         * The ObjectOutputStream flushes on its own, e.g. before an injected frame, so only push() reaches the socket
+         */
+        @Override
+        public void flush() {
+        }
+
+        void push() throws IOException {
+            out.flush();
+        }
+    }
+}
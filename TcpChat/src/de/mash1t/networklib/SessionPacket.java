@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+/**
+ * Resume token of a session, sent by the server after the login of a client which acknowledges chat messages
+ *
+ * @author Manuel Schmid
+ */
+public class SessionPacket extends ExtendedPacket {
+
+    private final String token;
+    private final boolean resumed;
+    private final long acknowledged;
+
+    /**
+     * Constructor
+     *
+     * @param token token which resumes the session after the connection has dropped
+     * @param resumed true if an earlier connection of the session has been resumed
+     * @param acknowledged count of chat messages the server has handled on the earlier connection
+     */
+    public SessionPacket(String token, boolean resumed, long acknowledged) {
+        super(ExtendedPacketType.Session);
+        this.token = token;
+        this.resumed = resumed;
+        this.acknowledged = acknowledged;
+    }
+
+    /**
+     * Getter for the token
+     *
+     * @return token which resumes the session
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Checks if an earlier connection has been resumed
+     *
+     * @return true if the session has been resumed, false for a new one
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * Getter for the chat messages of the earlier connection which have been handled, the client sends the others again
+     *
+     * @return count of chat messages
+     */
+    public long getAcknowledged() {
+        return acknowledged;
+    }
+}
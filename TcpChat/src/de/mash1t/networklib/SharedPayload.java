@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Payload of a PacketFrame in a pooled direct buffer, shared by all connections which send the frame in the same format, whichever event loop serves them
+ *
+ * Reference counted, the buffer goes back to the pool when the last connection has released it
+ *
+ * @author Manuel Schmid
+ */
+public final class SharedPayload {
+
+    private final PooledBuffer pooled;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * Constructor, the creator holds the first reference
+     *
+     * @param pooled buffer containing the payload between position and limit
+     */
+    SharedPayload(PooledBuffer pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * Adds a reference unless the payload has already been given back
+     *
+     * @return false if the payload must not be used anymore
+     */
+    boolean tryRetain() {
+        while (true) {
+            int current = references.get();
+            if (current == 0) {
+                return false;
+            }
+            if (references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Creates a view with its own position
+     *
+     * @return read-only view of the payload
+     */
+    public ByteBuffer view() {
+        return pooled.buffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * Drops one reference
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            pooled.release();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+/**
+ * What happens to a connection whose outbound queue exceeds its byte budget
+ *
+ * @author Manuel Schmid
+ */
+public enum SlowConsumerPolicy {
+
+    /**
+     * Drops the oldest queued group messages to make room
+     */
+    DropOldest("drop_oldest"),
+    /**
+     * Sends a KickPacket and closes the connection
+     */
+    Kick("kick"),
+    /**
+     * Stops queueing group messages until the queue is empty, then sends a summary and the latest messages
+     */
+    CatchUp("catch_up");
+
+    private final String configString;
+
+    private SlowConsumerPolicy(String configString) {
+        this.configString = configString;
+    }
+
+    /**
+     * Getter for the value used in the config file
+     *
+     * @return config value
+     */
+    public String getConfigString() {
+        return configString;
+    }
+
+    /**
+     * Finds the policy for a config value
+     *
+     * @param configString value from the config file
+     * @return policy, DropOldest for unknown values
+     */
+    public static SlowConsumerPolicy fromConfigString(String configString) {
+        for (SlowConsumerPolicy policy : values()) {
+            if (policy.configString.equals(configString)) {
+                return policy;
+            }
+        }
+        return DropOldest;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+ * Settings of the protocols which are provided by the application, e.g. read from the server config
+ *
+ * @author Manuel Schmid
+ */
+public final class TransportSettings {
+
+    // Runs the writers of outbound queues, null lets the calling thread write
+    private static volatile Executor writerExecutor = null;
+    // Bytes which may wait in the outbound queue of one connection, 0 for no limit
+    private static volatile long outboundBudget = 0;
+    private static volatile SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DropOldest;
+    // Cadence of resetting long-lived object streams, 0 for no limit
+    private static volatile int streamResetPackets = 0;
+    private static volatile long streamResetBytes = 0;
+    // Receives problems which cannot be reported to a caller, e.g. leaked buffers
+    private static volatile Logger logger = null;
+    // Time a writer waits for further packets of a burst before flushing, 0 flushes as soon as the queue is empty
+    private static volatile long flushWindowMicros = 0;
+    // Writers flush whole bursts themselves, Nagle's algorithm would only delay the last segment
+    private static volatile boolean tcpNoDelay = true;
+    // Payloads from this length on are compressed on connections which have negotiated Compression
+    private static volatile int compressionThreshold = 1024;
+
+    private TransportSettings() {
+    }
+
+    /**
+     * Getter for the executor of outbound writers
+     *
+     * @return executor or null if packets are written on the calling thread
+     */
+    public static Executor getWriterExecutor() {
+        return writerExecutor;
+    }
+
+    /**
+     * Setter for the executor of outbound writers, only affects protocols created afterwards
+     *
+     * @param executor executor or null to write on the calling thread
+     */
+    public static void setWriterExecutor(Executor executor) {
+        writerExecutor = executor;
+    }
+
+    /**
+     * Getter for the outbound budget of a connection
+     *
+     * @return budget in bytes, 0 for no limit
+     */
+    public static long getOutboundBudget() {
+        return outboundBudget;
+    }
+
+    /**
+     * Setter for the outbound budget of a connection, only affects connections created afterwards
+     *
+     * @param budget budget in bytes, 0 for no limit
+     */
+    public static void setOutboundBudget(long budget) {
+        outboundBudget = budget;
+    }
+
+    /**
+     * Getter for the policy applied when a connection exceeds its outbound budget
+     *
+     * @return policy
+     */
+    public static SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    /**
+     * Setter for the policy applied when a connection exceeds its outbound budget
+     *
+     * @param policy policy
+     */
+    public static void setSlowConsumerPolicy(SlowConsumerPolicy policy) {
+        slowConsumerPolicy = policy;
+    }
+
+    /**
+     * Getter for the number of packets after which an object stream is reset
+     *
+     * @return packets, 0 for no limit
+     */
+    public static int getStreamResetPackets() {
+        return streamResetPackets;
+    }
+
+    /**
+     * Getter for the number of bytes after which an object stream is reset
+     *
+     * @return bytes, 0 for no limit
+     */
+    public static long getStreamResetBytes() {
+        return streamResetBytes;
+    }
+
+    /**
+     * Setter for the cadence of resetting object streams, only affects connections created afterwards
+     *
+     * @param packets packets after which a stream is reset, 0 for no limit
+     * @param bytes bytes after which a stream is reset, 0 for no limit
+     */
+    public static void setStreamReset(int packets, long bytes) {
+        streamResetPackets = packets;
+        streamResetBytes = bytes;
+    }
+
+    /**
+     * Getter for the time a writer waits for further packets before flushing
+     *
+     * @return window in microseconds, 0 for no waiting
+     */
+    public static long getFlushWindowMicros() {
+        return flushWindowMicros;
+    }
+
+    /**
+     * Setter for the time a writer waits for further packets before flushing
+     *
+     * @param micros window in microseconds, 0 for no waiting
+     */
+    public static void setFlushWindowMicros(long micros) {
+        flushWindowMicros = micros;
+    }
+
+    /**
+     * Getter for TCP_NODELAY of accepted sockets
+     *
+     * @return true if Nagle's algorithm is disabled
+     */
+    public static boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Setter for TCP_NODELAY of accepted sockets, only affects connections created afterwards
+     *
+     * @param noDelay true to disable Nagle's algorithm
+     */
+    public static void setTcpNoDelay(boolean noDelay) {
+        tcpNoDelay = noDelay;
+    }
+
+    /**
+     * Getter for the length from which on payloads are compressed
+     *
+     * @return length in bytes, 0 if a server does not offer Compression
+     */
+    public static int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Setter for the length from which on payloads are compressed, only affects connections negotiated afterwards
+     *
+     * @param threshold length in bytes, 0 to not offer Compression
+     */
+    public static void setCompressionThreshold(int threshold) {
+        compressionThreshold = threshold;
+    }
+
+    /**
+     * Getter for the logger of the protocols
+     *
+     * @return logger or null if nothing is logged
+     */
+    public static Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Setter for the logger of the protocols
+     *
+     * @param protocolLogger logger or null to log nothing
+     */
+    public static void setLogger(Logger protocolLogger) {
+        logger = protocolLogger;
+    }
+}
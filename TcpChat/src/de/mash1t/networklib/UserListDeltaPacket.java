@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import java.util.List;
+
+/**
+ * Users which have joined or left within one presence window, sent instead of one UserListPacket per user
+ *
+ * A delta moves the roster of the receiver from one version to another, a receiver at another version has missed a delta and asks for a resync
+ *
+ * @author Manuel Schmid
+ */
+public class UserListDeltaPacket extends ExtendedPacket {
+
+    private final long fromVersion;
+    private final long toVersion;
+    private final List<String> joined;
+    private final List<String> left;
+
+    /**
+     * Constructor
+     *
+     * @param fromVersion roster version the delta applies to
+     * @param toVersion roster version after the delta
+     * @param joined nicknames of the users which have joined
+     * @param left nicknames of the users which have left
+     */
+    public UserListDeltaPacket(long fromVersion, long toVersion, List<String> joined, List<String> left) {
+        super(ExtendedPacketType.UserListDelta);
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        this.joined = joined;
+        this.left = left;
+    }
+
+    /**
+     * Getter for the roster version the delta applies to
+     *
+     * @return version
+     */
+    public long getFromVersion() {
+        return fromVersion;
+    }
+
+    /**
+     * Getter for the roster version after the delta
+     *
+     * @return version
+     */
+    public long getToVersion() {
+        return toVersion;
+    }
+
+    /**
+     * Getter for the users which have joined
+     *
+     * @return nicknames
+     */
+    public List<String> getJoined() {
+        return joined;
+    }
+
+    /**
+     * Getter for the users which have left
+     *
+     * @return nicknames
+     */
+    public List<String> getLeft() {
+        return left;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for opening, joining and closing channels
+ *
+ * @author Manuel Schmid
+ */
+public class ChannelRegistryTest {
+
+    /**
+     * Makes a client which is not connected to anything
+     *
+     * @param name nickname of the client
+     * @return client
+     */
+    private ClientThread makeClient(String name) {
+        ClientThread client = new ClientThread((de.mash1t.networklib.AbstractNetworkProtocol) null);
+        client.clientName = name;
+        return client;
+    }
+
+    /**
+     * Names start with '#' and contain no whitespace
+     */
+    @Test
+    public void namesAreChecked() {
+        assertTrue(ChannelRegistry.isValidName("#java"));
+        assertFalse(ChannelRegistry.isValidName("java"));
+        assertFalse(ChannelRegistry.isValidName("#"));
+        assertFalse(ChannelRegistry.isValidName("#two words"));
+        assertFalse(ChannelRegistry.isValidName("#0123456789012345678901234567890123"));
+        assertFalse(ChannelRegistry.isValidName(null));
+    }
+
+    /**
+     * The first join opens a channel, the last leave closes it
+     */
+    @Test
+    public void membershipOpensAndClosesChannels() {
+        ChannelRegistry registry = new ChannelRegistry();
+        ClientThread alice = makeClient("alice");
+        ClientThread bobby = makeClient("bobby");
+
+        assertTrue(registry.join("#java", alice));
+        assertFalse(registry.join("#java", alice));
+        assertTrue(registry.join("#java", bobby));
+        Channel channel = registry.get("#java");
+        assertEquals(2, channel.members().length);
+        assertEquals(2, channel.getJoins());
+        assertTrue(alice.memberships.contains("#java"));
+
+        ClientThread[] before = channel.members();
+        assertTrue(registry.leave("#java", alice));
+        assertFalse(registry.leave("#java", alice));
+        assertEquals(2, before.length);
+        assertEquals(1, channel.members().length);
+        assertFalse(channel.isMember(alice));
+
+        registry.leave("#java", bobby);
+        assertNull(registry.get("#java"));
+        assertEquals(0, registry.size());
+    }
+
+    /**
+     * A disconnected client leaves all its channels
+     */
+    @Test
+    public void leaveAllRemovesEveryMembership() {
+        ChannelRegistry registry = new ChannelRegistry();
+        ClientThread alice = makeClient("alice");
+        ClientThread bobby = makeClient("bobby");
+        registry.join("#java", alice);
+        registry.join("#chat", alice);
+        registry.join("#chat", bobby);
+
+        registry.leaveAll(alice);
+        assertTrue(alice.memberships.isEmpty());
+        assertNull(registry.get("#java"));
+        assertEquals(1, registry.get("#chat").size());
+    }
+}
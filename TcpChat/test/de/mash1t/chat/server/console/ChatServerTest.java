@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.chat.logging.LoggingController;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import static de.mash1t.chat.server.console.ChatServer.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for choosing the threads the clients run on
+ *
+ * @author Manuel Schmid
+ */
+public class ChatServerTest {
+
+    /**
+     * Makes sure the executor can log its choice
+     */
+    private static void initLogging() {
+        synchronized (ChatServer.class) {
+            if (logControl == null) {
+                logControl = new LoggingController(false, false, false);
+                initLoggers();
+            }
+        }
+    }
+
+    /**
+     * Runs a task on the executor and shuts it down
+     *
+     * @param executor executor to try
+     * @return thread the task has run on
+     */
+    private static Thread runOn(ExecutorService executor) throws Exception {
+        final AtomicReference<Thread> ranOn = new AtomicReference<>();
+        try {
+            Future<?> done = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    ranOn.set(Thread.currentThread());
+                }
+            });
+            done.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+        return ranOn.get();
+    }
+
+    /**
+     * Platform threads come from a cached pool
+     */
+    @Test
+    public void platformModeUsesCachedPool() throws Exception {
+        initLogging();
+        ExecutorService executor = createClientExecutor("platform");
+
+        assertTrue(executor instanceof ThreadPoolExecutor);
+        assertEquals(0, ((ThreadPoolExecutor) executor).getCorePoolSize());
+        assertNotNull(runOn(executor));
+    }
+
+    /**
+     * Virtual threads are used where the runtime has them, older runtimes fall back to the cached pool
+     */
+    @Test
+    public void virtualModeFallsBack() throws Exception {
+        initLogging();
+        // "1.7" up to Java 8, then "9", "10" and so on
+        String[] version = System.getProperty("java.specification.version").split("\\.");
+        int feature = Integer.parseInt(version[0].equals("1") ? version[1] : version[0]);
+        ExecutorService executor = createClientExecutor("virtual");
+
+        Thread thread = runOn(executor);
+        if (feature >= 21) {
+            assertEquals(Boolean.TRUE, Thread.class.getMethod("isVirtual").invoke(thread));
+        } else {
+            assertTrue(executor instanceof ThreadPoolExecutor);
+            assertEquals(0, ((ThreadPoolExecutor) executor).getCorePoolSize());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.networklib.PacketFrame;
+import de.mash1t.networklib.RosterPagePacket;
+import de.mash1t.networklib.packets.UserListPacket;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for claiming nicknames and iterating the registry
+ *
+ * @author Manuel Schmid
+ */
+public class ClientRegistryTest {
+
+    /**
+     * Makes a client which is not connected to anything
+     *
+     * @return client
+     */
+    private ClientThread makeClient() {
+        return new ClientThread((de.mash1t.networklib.AbstractNetworkProtocol) null);
+    }
+
+    /**
+     * A nickname can only be claimed once
+     */
+    @Test
+    public void claimIsUnique() {
+        ClientRegistry registry = new ClientRegistry();
+        ClientThread first = makeClient();
+        ClientThread second = makeClient();
+
+        assertTrue(registry.claim("alice", first));
+        assertFalse(registry.claim("alice", second));
+        assertSame(first, registry.get("alice"));
+        assertEquals(1, registry.size());
+    }
+
+    /**
+     * Releasing frees the nickname, but only for the client which owns it
+     */
+    @Test
+    public void releaseFreesName() {
+        ClientRegistry registry = new ClientRegistry();
+        ClientThread first = makeClient();
+        ClientThread second = makeClient();
+
+        registry.register(first);
+        registry.claim("alice", first);
+        first.clientName = "alice";
+
+        // A client which only tried to use the name must not release it
+        second.clientName = "alice";
+        registry.release(second);
+        assertSame(first, registry.get("alice"));
+
+        registry.unregister(first);
+        assertNull(registry.get("alice"));
+        assertEquals(0, registry.connectionCount());
+        assertTrue(registry.claim("alice", second));
+    }
+
+    /**
+     * Snapshots are not changed by later logins and are rebuilt afterwards
+     */
+    @Test
+    public void snapshotIsStable() {
+        ClientRegistry registry = new ClientRegistry();
+        ClientThread first = makeClient();
+        ClientThread second = makeClient();
+
+        registry.claim("alice", first);
+        ClientThread[] before = registry.snapshot();
+        assertSame(before, registry.snapshot());
+
+        registry.claim("bobby", second);
+        assertEquals(1, before.length);
+        assertEquals(2, registry.snapshot().length);
+        assertEquals(2, registry.getNames().size());
+    }
+
+    /**
+     * The user list frame is shared between logins until the membership changes
+     */
+    @Test
+    public void userListFrameIsCached() {
+        ClientRegistry registry = new ClientRegistry();
+        registry.claim("alice", makeClient());
+        PacketFrame frame = registry.userListFrame();
+        assertSame(frame, registry.userListFrame());
+
+        registry.claim("bobby", makeClient());
+        PacketFrame rebuilt = registry.userListFrame();
+        assertNotSame(frame, rebuilt);
+        assertEquals(2, ((UserListPacket) rebuilt.getPacket()).getUserList().size());
+    }
+
+    /**
+     * Pages are sorted, can be filtered by a prefix and follow releases
+     */
+    @Test
+    public void pagesAreSorted() {
+        ClientRegistry registry = new ClientRegistry();
+        ClientThread carol = makeClient();
+        for (String name : new String[]{"dave", "bobby", "bob", "alice", "bobbie"}) {
+            registry.claim(name, makeClient());
+        }
+        registry.claim("carol", carol);
+
+        RosterPagePacket page = registry.page("", 1, 3);
+        assertEquals(6, page.getTotal());
+        assertEquals(Arrays.asList("bob", "bobbie", "bobby"), page.getNames());
+
+        page = registry.page("bob", 1, 100);
+        assertEquals(3, page.getTotal());
+        assertEquals(Arrays.asList("bobbie", "bobby"), page.getNames());
+
+        carol.clientName = "carol";
+        registry.release(carol);
+        page = registry.page("", 4, 100);
+        assertEquals(5, page.getTotal());
+        assertEquals(Arrays.asList("dave"), page.getNames());
+        assertTrue(registry.page("zed", 0, 100).getNames().isEmpty());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for opening, leaving and expiring private conversations
+ *
+ * @author Manuel Schmid
+ */
+public class ConversationRegistryTest {
+
+    /**
+     * Opening the same conversation again returns the existing one
+     */
+    @Test
+    public void openReusesSameMembers() {
+        ConversationRegistry registry = new ConversationRegistry(null, 0);
+        Conversation first = registry.open("alice", Arrays.asList("bobby", "carol"));
+        assertNotNull(first);
+        assertEquals(3, first.getMembers().length);
+        assertSame(first, registry.open("alice", Arrays.asList("carol", "bobby", "alice")));
+        assertNotSame(first, registry.open("alice", Arrays.asList("bobby")));
+        assertNull(registry.open("alice", Collections.<String>emptyList()));
+        assertEquals(2, registry.of("alice").size());
+        assertEquals(1, registry.of("carol").size());
+    }
+
+    /**
+     * Members are kept by name until they leave, the last leave drops the conversation
+     */
+    @Test
+    public void leaveDropsEmptyConversation() {
+        ConversationRegistry registry = new ConversationRegistry(null, 0);
+        Conversation conversation = registry.open("alice", Arrays.asList("bobby"));
+        long id = conversation.getId();
+
+        assertSame(conversation, registry.leave(id, "alice"));
+        assertNull(registry.leave(id, "alice"));
+        assertFalse(conversation.isMember("alice"));
+        assertTrue(registry.of("alice").isEmpty());
+        assertSame(conversation, registry.get(id));
+
+        registry.leave(id, "bobby");
+        assertNull(registry.get(id));
+        assertEquals(0, registry.size());
+    }
+
+    /**
+     * A conversation without online members is dropped when its retention has passed
+     */
+    @Test
+    public void expireDropsOfflineConversation() {
+        ConversationRegistry registry = new ConversationRegistry(null, 0);
+        Conversation conversation = registry.open("alice", Arrays.asList("bobby"));
+
+        registry.expire(conversation);
+        assertNull(registry.get(conversation.getId()));
+        assertTrue(registry.of("bobby").isEmpty());
+    }
+
+    /**
+     * A user can only be member of a limited count of conversations
+     */
+    @Test
+    public void conversationsPerUserAreLimited() {
+        ConversationRegistry registry = new ConversationRegistry(null, 0);
+        for (int i = 0; i < ConversationRegistry.MAX_CONVERSATIONS_PER_USER; i++) {
+            assertNotNull(registry.open("alice", Arrays.asList("user" + i)));
+        }
+        assertNull(registry.open("alice", Arrays.asList("bobby")));
+        // Others can not add the user any more
+        Conversation conversation = registry.open("bobby", Arrays.asList("alice", "carol"));
+        assertFalse(conversation.isMember("alice"));
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.chat.core.RoleType;
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.chat.logging.LoggingController;
+import de.mash1t.networklib.AbstractNetworkProtocol;
+import de.mash1t.networklib.AckPacket;
+import de.mash1t.networklib.Capability;
+import de.mash1t.networklib.FrameCodec;
+import de.mash1t.networklib.FramedTCP;
+import de.mash1t.networklib.HashedTimerWheel;
+import de.mash1t.networklib.HelloPacket;
+import de.mash1t.networklib.WireFormat;
+import de.mash1t.networklib.packets.ConnectPacket;
+import de.mash1t.networklib.packets.DisconnectPacket;
+import de.mash1t.networklib.packets.InfoPacket;
+import de.mash1t.networklib.packets.KickPacket;
+import de.mash1t.networklib.packets.Packet;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static de.mash1t.chat.server.console.ChatServer.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the handshake of the classic engine over loopback sockets
+ *
+ * @author Manuel Schmid
+ */
+public class HandshakeStageTest {
+
+    private static final long TIMEOUT_MILLIS = 300;
+
+    /**
+     * Protocol of a client which is registered but never sends anything
+     */
+    private static class IdleProtocol extends AbstractNetworkProtocol {
+
+        @Override
+        protected boolean write(Packet packet) {
+            return true;
+        }
+
+        @Override
+        protected boolean closeNow() {
+            return true;
+        }
+    }
+
+    /**
+     * Makes sure the stage can log
+     */
+    private static void initLogging() {
+        synchronized (ChatServer.class) {
+            if (logControl == null) {
+                logControl = new LoggingController(false, false, false);
+                initLoggers();
+            }
+        }
+    }
+
+    /**
+     * Accepts one connection on a loopback port and submits it to the stage, like the accept loop
+     *
+     * @param stage stage under test
+     * @param server listening socket
+     * @return client side of the connection
+     */
+    private static Socket connect(HandshakeStage stage, ServerSocket server) throws IOException {
+        Socket client = new Socket("localhost", server.getLocalPort());
+        client.setSoTimeout(5000);
+        stage.submit(server.accept());
+        return client;
+    }
+
+    /**
+     * Waits until the server has closed the connection
+     *
+     * @param client client side of the connection
+     * @return true if the connection has ended within a few seconds
+     */
+    private static boolean isClosedByServer(Socket client) {
+        try {
+            while (client.getInputStream().read() != -1) {
+                // Skip whatever is sent before the end
+            }
+            return true;
+        } catch (SocketTimeoutException ex) {
+            return false;
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * A socket which never sends anything is closed at the deadline and does not keep its thread
+     */
+    @Test
+    public void silentSocketIsClosed() throws Exception {
+        initLogging();
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+        HashedTimerWheel wheel = new HashedTimerWheel(10, TimeUnit.MILLISECONDS, 8, "TestWheel");
+        HandshakeStage stage = new HandshakeStage(executor, wheel, TIMEOUT_MILLIS);
+        try (ServerSocket server = new ServerSocket(0)) {
+            int timedOut = Counters.Handshakes.timedOut.get();
+            long start = System.currentTimeMillis();
+            try (Socket client = connect(stage, server)) {
+                assertTrue(isClosedByServer(client));
+            }
+            assertTrue(System.currentTimeMillis() - start >= TIMEOUT_MILLIS / 2);
+            assertTrue(Counters.Handshakes.timedOut.get() > timedOut);
+
+            // The blocked read has ended with the socket
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+            wheel.stop();
+        }
+    }
+
+    /**
+     * A legacy client which stops within the header of its object stream is closed at the deadline
+     */
+    @Test
+    public void incompleteHeaderIsClosed() throws Exception {
+        initLogging();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        HashedTimerWheel wheel = new HashedTimerWheel(10, TimeUnit.MILLISECONDS, 8, "TestWheel");
+        HandshakeStage stage = new HandshakeStage(executor, wheel, TIMEOUT_MILLIS);
+        try (ServerSocket server = new ServerSocket(0)) {
+            int timedOut = Counters.Handshakes.timedOut.get();
+            try (Socket client = connect(stage, server)) {
+                // Magic number of an object stream without its version
+                OutputStream out = client.getOutputStream();
+                out.write(new byte[]{(byte) 0xAC, (byte) 0xED});
+                out.flush();
+
+                assertTrue(isClosedByServer(client));
+            }
+            assertTrue(Counters.Handshakes.timedOut.get() > timedOut);
+        } finally {
+            executor.shutdownNow();
+            wheel.stop();
+        }
+    }
+
+    /**
+     * A client which logs in within the deadline keeps its connection after the deadline
+     */
+    @Test
+    public void punctualClientIsAdmitted() throws Exception {
+        initLogging();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        HashedTimerWheel wheel = new HashedTimerWheel(10, TimeUnit.MILLISECONDS, 8, "TestWheel");
+        HandshakeStage stage = new HandshakeStage(executor, wheel, TIMEOUT_MILLIS);
+        try (ServerSocket server = new ServerSocket(0)) {
+            try (Socket client = connect(stage, server)) {
+                OutputStream out = client.getOutputStream();
+                out.write(FrameCodec.encode(new ConnectPacket("classic"), WireFormat.Binary));
+                out.flush();
+
+                DataInputStream in = new DataInputStream(client.getInputStream());
+                Packet packet;
+                do {
+                    byte[] payload = new byte[in.readInt()];
+                    in.readFully(payload);
+                    packet = FrameCodec.decode(payload, 0, payload.length);
+                } while (!(packet instanceof InfoPacket));
+                Thread.sleep(2 * TIMEOUT_MILLIS);
+
+                out.write(FrameCodec.encode(new DisconnectPacket(), WireFormat.Binary));
+                out.flush();
+                // Disconnect is answered before the server closes
+                assertTrue(in.readInt() > 0);
+            }
+        } finally {
+            executor.shutdownNow();
+            wheel.stop();
+        }
+    }
+
+    /**
+     * A full server answers a current client, which sends Hello and Ack before its ConnectPacket, with the reason
+     */
+    @Test
+    public void fullServerRejectsCurrentClient() throws Exception {
+        initLogging();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        HashedTimerWheel wheel = new HashedTimerWheel(10, TimeUnit.MILLISECONDS, 8, "TestWheel");
+        // Takes the only place
+        ClientThread occupant = new ClientThread(new IdleProtocol());
+        clients.register(occupant);
+        HandshakeStage stage = new HandshakeStage(executor, wheel, TIMEOUT_MILLIS, 1);
+        try (ServerSocket server = new ServerSocket(0)) {
+            try (Socket socket = connect(stage, server)) {
+                FramedTCP client = new FramedTCP(socket, RoleType.Client);
+                client.setWireFormat(WireFormat.Binary);
+                client.send(new HelloPacket(HelloPacket.VERSION, Capability.of(Capability.BinaryCodec, Capability.FlowControl), 0));
+                client.send(new AckPacket(0));
+                client.send(new ConnectPacket("latecomer"));
+
+                Packet answer = client.read();
+                assertTrue(answer instanceof KickPacket);
+                assertTrue(((KickPacket) answer).getMessage().contains("too many clients"));
+                assertTrue(isClosedByServer(socket));
+            }
+        } finally {
+            clients.unregister(occupant);
+            executor.shutdownNow();
+            wheel.stop();
+        }
+    }
+}
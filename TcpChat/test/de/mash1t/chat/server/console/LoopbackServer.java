@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.chat.logging.LoggingController;
+import de.mash1t.networklib.BatchPacket;
+import de.mash1t.networklib.FrameCodec;
+import de.mash1t.networklib.HashedTimerWheel;
+import de.mash1t.networklib.packets.Packet;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import static de.mash1t.chat.server.console.ChatServer.*;
+
+/**
+ * Non-blocking server on a free loopback port, shared by the tests of one JVM
+ *
+ * @author Manuel Schmid
+ */
+final class LoopbackServer {
+
+    /**
+     * Deadline of the handshake, short enough for the tests to wait for it
+     */
+    static final long HANDSHAKE_TIMEOUT_MILLIS = 500;
+
+    /**
+     * Number of event loops, more than one so that broadcasts cross shards
+     */
+    static final int EVENT_LOOPS = 2;
+
+    private static final int SO_TIMEOUT_MILLIS = 5000;
+
+    private static int port = 0;
+
+    private LoopbackServer() {
+    }
+
+    /**
+     * Starts the server with the settings of ChatServer.runServer unless it is running already
+     *
+     * @return port of the server
+     * @throws IOException
+     */
+    static synchronized int start() throws IOException {
+        if (port != 0) {
+            return port;
+        }
+        if (logControl == null) {
+            logControl = new LoggingController(false, false, false);
+            initLoggers();
+        }
+        clientExecutor = Executors.newCachedThreadPool();
+        timers = new HashedTimerWheel(10, TimeUnit.MILLISECONDS, 8, "LoopbackWheel");
+        handshakes = new HandshakeStage(clientExecutor, timers, HANDSHAKE_TIMEOUT_MILLIS);
+
+        int freePort;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            freePort = probe.getLocalPort();
+        }
+        nioServer = new NioServer(freePort, EVENT_LOOPS);
+        Thread acceptThread = new Thread(nioServer, "LoopbackServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        // Wait until the accept loop has bound the port
+        long giveUp = System.currentTimeMillis() + SO_TIMEOUT_MILLIS;
+        while (true) {
+            Socket probe = null;
+            try {
+                probe = new Socket("localhost", freePort);
+                break;
+            } catch (IOException ex) {
+                if (System.currentTimeMillis() > giveUp) {
+                    throw ex;
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ie) {
+                    throw new IOException(ie);
+                }
+            } finally {
+                if (probe != null) {
+                    probe.close();
+                }
+            }
+        }
+        port = freePort;
+        return port;
+    }
+
+    /**
+     * Client side of a loopback connection which reads frames like a current client
+     */
+    static final class Peer implements AutoCloseable {
+
+        final Socket socket;
+        private final DataInputStream in;
+        // Packets of a batch which have not been looked at yet
+        private final Queue<Packet> pending = new ArrayDeque<>();
+
+        /**
+         * Opens a connection to the server which gives up reading after a few seconds
+         *
+         * @throws IOException
+         */
+        Peer() throws IOException {
+            socket = new Socket("localhost", start());
+            socket.setSoTimeout(SO_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(socket.getInputStream());
+        }
+
+        /**
+         * Sends raw bytes and waits a little so that the server reads them on their own
+         *
+         * @param bytes bytes to send
+         * @param from first byte
+         * @param to end of the bytes, exclusive
+         * @throws IOException
+         */
+        void send(byte[] bytes, int from, int to) throws IOException {
+            socket.getOutputStream().write(bytes, from, to - from);
+            socket.getOutputStream().flush();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+        }
+
+        /**
+         * Reads frames until a packet of the given type arrives, batches are unpacked
+         *
+         * @param type expected type of packet
+         * @return first packet of the type
+         * @throws IOException if the connection ends first
+         */
+        <T extends Packet> T await(Class<T> type) throws IOException {
+            while (true) {
+                if (pending.isEmpty()) {
+                    int length = in.readInt();
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    Packet packet = FrameCodec.decode(payload, 0, length);
+                    if (packet instanceof BatchPacket) {
+                        pending.addAll(((BatchPacket) packet).getPackets());
+                    } else {
+                        pending.add(packet);
+                    }
+                }
+                Packet packet = pending.poll();
+                if (type.isInstance(packet)) {
+                    return type.cast(packet);
+                }
+            }
+        }
+
+        /**
+         * Checks if the server ends the connection within a few seconds, whatever it sends before
+         *
+         * @return true if the server has closed the connection
+         */
+        boolean isClosedByServer() {
+            try {
+                while (in.read() != -1) {
+                    // Skip whatever is sent before the end
+                }
+                return true;
+            } catch (SocketTimeoutException ex) {
+                return false;
+            } catch (IOException ex) {
+                // Reset by the server
+                return true;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.FrameCodec;
+import de.mash1t.networklib.RosterPacket;
+import de.mash1t.networklib.WireFormat;
+import de.mash1t.networklib.packets.ConnectPacket;
+import de.mash1t.networklib.packets.DisconnectPacket;
+import de.mash1t.networklib.packets.GroupMessagePacket;
+import de.mash1t.networklib.packets.InfoPacket;
+import de.mash1t.networklib.packets.Packet;
+import de.mash1t.networklib.packets.UserListPacket;
+import de.mash1t.networklib.packets.UserListPacketType;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for telling frames from object streams, for reading length-prefixed frames and for the handshake deadline on the
+ * event loop
+ *
+ * @author Manuel Schmid
+ */
+public class NioEventLoopTest {
+
+    /**
+     * Joins two frames into the bytes of one write
+     *
+     * @param first first frame
+     * @param second second frame
+     * @return both frames
+     */
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] both = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+        return both;
+    }
+
+    /**
+     * A frame which arrives in pieces is put together, also across the sniffed bytes and the length prefix
+     */
+    @Test
+    public void splitFramesAreReassembled() throws Exception {
+        byte[] connect = FrameCodec.encode(new ConnectPacket("splitter"), WireFormat.Binary);
+        byte[] message = FrameCodec.encode(new GroupMessagePacket("in pieces", "splitter"), WireFormat.Binary);
+        byte[] bytes = concat(connect, message);
+
+        try (LoopbackServer.Peer peer = new LoopbackServer.Peer()) {
+            // Not enough to sniff, then not enough for the length prefix, then the rest with a second frame
+            peer.send(bytes, 0, 1);
+            peer.send(bytes, 1, 3);
+            peer.send(bytes, 3, 6);
+            peer.send(bytes, 6, bytes.length);
+
+            // Binary clients get the roster instead of the old user list
+            assertTrue(peer.await(RosterPacket.class).getNames().contains("splitter"));
+            peer.await(InfoPacket.class);
+            assertEquals("in pieces", peer.await(GroupMessagePacket.class).getMessage());
+
+            byte[] disconnect = FrameCodec.encode(new DisconnectPacket(), WireFormat.Binary);
+            peer.send(disconnect, 0, disconnect.length);
+        }
+    }
+
+    /**
+     * Serialized frames are read like binary ones
+     */
+    @Test
+    public void serializedFramesAreRead() throws Exception {
+        byte[] connect = FrameCodec.encode(new ConnectPacket("serial"), WireFormat.Serialized);
+        byte[] message = FrameCodec.encode(new GroupMessagePacket("serialized", "serial"), WireFormat.Serialized);
+        byte[] bytes = concat(connect, message);
+
+        try (LoopbackServer.Peer peer = new LoopbackServer.Peer()) {
+            peer.send(bytes, 0, bytes.length);
+
+            UserListPacket userList = peer.await(UserListPacket.class);
+            assertEquals(UserListPacketType.Full, userList.getUserListType());
+            assertTrue(userList.getUserList().contains("serial"));
+            peer.await(InfoPacket.class);
+            assertEquals("serialized", peer.await(GroupMessagePacket.class).getMessage());
+        }
+    }
+
+    /**
+     * A length prefix outside of the allowed range ends the connection
+     */
+    @Test
+    public void invalidLengthClosesConnection() throws Exception {
+        byte[] connect = FrameCodec.encode(new ConnectPacket("toolong"), WireFormat.Binary);
+        byte[] tooLong = new byte[FrameCodec.HEADER_LENGTH];
+        FrameCodec.writeLength(tooLong, 0, FrameCodec.MAX_FRAME_LENGTH + 1);
+
+        try (LoopbackServer.Peer peer = new LoopbackServer.Peer()) {
+            peer.send(connect, 0, connect.length);
+            peer.await(InfoPacket.class);
+            peer.send(tooLong, 0, tooLong.length);
+
+            assertTrue(peer.isClosedByServer());
+        }
+    }
+
+    /**
+     * A client which starts an object stream is handed to a classic ClientThread and served as before
+     */
+    @Test
+    public void objectStreamIsHandedOff() throws Exception {
+        try (LoopbackServer.Peer peer = new LoopbackServer.Peer()) {
+            ObjectOutputStream out = new ObjectOutputStream(peer.socket.getOutputStream());
+            out.writeObject(new ConnectPacket("legacy"));
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(peer.socket.getInputStream());
+
+            Packet packet = (Packet) in.readObject();
+            assertTrue(packet instanceof UserListPacket);
+            assertTrue(((UserListPacket) packet).getUserList().contains("legacy"));
+            assertTrue(in.readObject() instanceof InfoPacket);
+
+            out.writeObject(new DisconnectPacket());
+            out.flush();
+        }
+    }
+
+    /**
+     * A socket which sends nothing is closed once the handshake deadline has passed
+     */
+    @Test
+    public void silentSocketMissesDeadline() throws Exception {
+        try (LoopbackServer.Peer peer = new LoopbackServer.Peer()) {
+            int timedOut = Counters.Handshakes.timedOut.get();
+            long start = System.currentTimeMillis();
+
+            assertTrue(peer.isClosedByServer());
+            assertTrue(System.currentTimeMillis() - start >= LoopbackServer.HANDSHAKE_TIMEOUT_MILLIS / 2);
+            assertTrue(Counters.Handshakes.timedOut.get() > timedOut);
+        }
+    }
+
+    /**
+     * A single byte is not enough to tell the protocol, the deadline still applies
+     */
+    @Test
+    public void partialSniffMissesDeadline() throws Exception {
+        try (LoopbackServer.Peer peer = new LoopbackServer.Peer()) {
+            int timedOut = Counters.Handshakes.timedOut.get();
+            peer.send(new byte[]{(byte) 0xAC}, 0, 1);
+
+            assertTrue(peer.isClosedByServer());
+            assertTrue(Counters.Handshakes.timedOut.get() > timedOut);
+        }
+    }
+
+    /**
+     * A client which has logged in within the deadline keeps its connection
+     */
+    @Test
+    public void sniffedConnectionOutlivesDeadline() throws Exception {
+        byte[] connect = FrameCodec.encode(new ConnectPacket("punctual"), WireFormat.Binary);
+
+        try (LoopbackServer.Peer peer = new LoopbackServer.Peer()) {
+            peer.send(connect, 0, connect.length);
+            peer.await(InfoPacket.class);
+            Thread.sleep(2 * LoopbackServer.HANDSHAKE_TIMEOUT_MILLIS);
+
+            byte[] message = FrameCodec.encode(new GroupMessagePacket("still here", "punctual"), WireFormat.Binary);
+            peer.send(message, 0, message.length);
+            assertEquals("still here", peer.await(GroupMessagePacket.class).getMessage());
+        }
+    }
+}
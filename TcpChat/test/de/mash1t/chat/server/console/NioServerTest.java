@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.networklib.FrameCodec;
+import de.mash1t.networklib.WireFormat;
+import de.mash1t.networklib.packets.ConnectPacket;
+import de.mash1t.networklib.packets.GroupMessagePacket;
+import de.mash1t.networklib.packets.InfoPacket;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for spreading connections over the event loops and broadcasting across them
+ *
+ * @author Manuel Schmid
+ */
+public class NioServerTest {
+
+    /**
+     * Connections of one host only differ in the port and are still spread evenly, also if all ports are even
+     */
+    @Test
+    public void portsAreSpreadOverShards() {
+        int shards = 4;
+        int connections = 4000;
+        int[] perShard = new int[shards];
+        for (int port = 40000; port < 40000 + 2 * connections; port += 2) {
+            int shard = NioServer.shardOf(new InetSocketAddress("127.0.0.1", port), shards);
+            assertTrue(shard >= 0 && shard < shards);
+            perShard[shard]++;
+        }
+        for (int count : perShard) {
+            assertTrue(count > connections / shards / 2);
+        }
+    }
+
+    /**
+     * A connection always lands on the same shard
+     */
+    @Test
+    public void shardIsStable() {
+        InetSocketAddress address = new InetSocketAddress("10.0.0.7", 51234);
+        assertEquals(NioServer.shardOf(address, 3), NioServer.shardOf(new InetSocketAddress("10.0.0.7", 51234), 3));
+        assertEquals(0, NioServer.shardOf(address, 1));
+    }
+
+    /**
+     * A message reaches the clients of all event loops, not only those of the sender's loop
+     */
+    @Test
+    public void broadcastCrossesShards() throws Exception {
+        List<LoopbackServer.Peer> peers = new ArrayList<>();
+        boolean[] covered = new boolean[LoopbackServer.EVENT_LOOPS];
+        int coveredCount = 0;
+        try {
+            // The server sees the local address of the client as its remote address
+            while (coveredCount < covered.length && peers.size() < 32) {
+                LoopbackServer.Peer peer = new LoopbackServer.Peer();
+                // Log in right away, the handshake deadline is short
+                byte[] connect = FrameCodec.encode(new ConnectPacket("sharded" + peers.size()), WireFormat.Binary);
+                peer.send(connect, 0, connect.length);
+                peers.add(peer);
+                int shard = NioServer.shardOf(peer.socket.getLocalSocketAddress(), covered.length);
+                if (!covered[shard]) {
+                    covered[shard] = true;
+                    coveredCount++;
+                }
+            }
+            assertEquals(covered.length, coveredCount);
+
+            for (LoopbackServer.Peer peer : peers) {
+                peer.await(InfoPacket.class);
+            }
+            byte[] message = FrameCodec.encode(new GroupMessagePacket("to every loop", "sharded0"), WireFormat.Binary);
+            peers.get(0).send(message, 0, message.length);
+
+            for (LoopbackServer.Peer peer : peers) {
+                assertEquals("to every loop", peer.await(GroupMessagePacket.class).getMessage());
+            }
+        } finally {
+            for (LoopbackServer.Peer peer : peers) {
+                peer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.chat.server.console;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.AbstractNetworkProtocol;
+import de.mash1t.networklib.HashedTimerWheel;
+import de.mash1t.networklib.RosterPacket;
+import de.mash1t.networklib.UserListDeltaPacket;
+import de.mash1t.networklib.WireFormat;
+import de.mash1t.networklib.packets.Packet;
+import de.mash1t.networklib.packets.UserListPacket;
+import de.mash1t.networklib.packets.UserListPacketType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static de.mash1t.chat.server.console.ChatServer.clients;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for coalescing joins and leaves and for catching clients up on the roster
+ *
+ * @author Manuel Schmid
+ */
+public class PresenceBroadcasterTest {
+
+    // Long enough that the windows are only ended by the tests
+    private static final long WINDOW_MILLIS = 60000;
+
+    private final List<ClientThread> online = new ArrayList<>();
+
+    /**
+     * Protocol which remembers sent packets
+     */
+    private static class RecordingProtocol extends AbstractNetworkProtocol {
+
+        final List<Packet> written = new ArrayList<>();
+
+        RecordingProtocol(WireFormat format) {
+            setWireFormat(format);
+        }
+
+        @Override
+        protected boolean write(Packet packet) {
+            written.add(packet);
+            return true;
+        }
+
+        @Override
+        protected boolean closeNow() {
+            return true;
+        }
+    }
+
+    /**
+     * Removes the clients of a test from the registry and stops its timer wheel
+     *
+     * @param timers timer wheel of the test
+     */
+    private void finish(HashedTimerWheel timers) {
+        for (ClientThread client : online) {
+            clients.unregister(client);
+        }
+        timers.stop();
+    }
+
+    /**
+     * Makes an online client which has seen the roster up to the given version
+     *
+     * @param name nickname of the client
+     * @param format Binary for clients which understand extended packets, Serialized for older ones
+     * @param seen presence sequence of the client
+     * @return connection of the client
+     */
+    private RecordingProtocol connect(String name, WireFormat format, long seen) {
+        RecordingProtocol connection = new RecordingProtocol(format);
+        ClientThread client = new ClientThread(connection);
+        client.clientName = name;
+        client.state = ConnectionState.Online;
+        client.presenceSequence = seen;
+        clients.register(client);
+        clients.claim(name, client);
+        online.add(client);
+        return connection;
+    }
+
+    /**
+     * A user who joins and leaves within a window is not announced, the others are sent once per window
+     */
+    @Test
+    public void windowIsCoalesced() {
+        HashedTimerWheel timers = new HashedTimerWheel(10, TimeUnit.MILLISECONDS, 8, "TestWheel");
+        try {
+            PresenceBroadcaster presence = new PresenceBroadcaster(timers, WINDOW_MILLIS, 4 * WINDOW_MILLIS, 0);
+            RecordingProtocol binary = connect("watcher", WireFormat.Binary, 0);
+            RecordingProtocol legacy = connect("oldie", WireFormat.Serialized, 0);
+            long cancelled = Counters.Presence.cancelled.get();
+
+            presence.joined("carol");
+            presence.left("carol");
+            presence.joined("dave");
+            presence.left("erin");
+            assertTrue(binary.written.isEmpty());
+            presence.flush();
+
+            assertEquals(cancelled + 1, Counters.Presence.cancelled.get());
+            assertEquals(1, binary.written.size());
+            UserListDeltaPacket delta = (UserListDeltaPacket) binary.written.get(0);
+            assertEquals(0, delta.getFromVersion());
+            assertEquals(4, delta.getToVersion());
+            assertEquals(Collections.singletonList("dave"), delta.getJoined());
+            assertEquals(Collections.singletonList("erin"), delta.getLeft());
+
+            assertEquals(2, legacy.written.size());
+            UserListPacket joined = (UserListPacket) legacy.written.get(0);
+            assertEquals("dave", joined.getUser());
+            assertEquals(UserListPacketType.Connected, joined.getUserListType());
+            assertEquals(UserListPacketType.Disconnected, ((UserListPacket) legacy.written.get(1)).getUserListType());
+        } finally {
+            finish(timers);
+        }
+    }
+
+    /**
+     * The window doubles while batches are large and shrinks back once the churn is over
+     */
+    @Test
+    public void windowGrowsAndShrinks() {
+        HashedTimerWheel timers = new HashedTimerWheel(10, TimeUnit.MILLISECONDS, 8, "TestWheel");
+        try {
+            PresenceBroadcaster presence = new PresenceBroadcaster(timers, WINDOW_MILLIS, 4 * WINDOW_MILLIS, 0);
+            for (int i = 0; i < 32; i++) {
+                presence.joined("user" + i);
+            }
+            presence.flush();
+            assertEquals(2 * WINDOW_MILLIS, Counters.Presence.windowMillis.get());
+
+            presence.joined("late");
+            presence.flush();
+            assertEquals(WINDOW_MILLIS, Counters.Presence.windowMillis.get());
+        } finally {
+            finish(timers);
+        }
+    }
+
+    /**
+     * A client which has missed a delta gets the changes since its version, a client of another server run the whole roster
+     */
+    @Test
+    public void gapIsCaughtUp() {
+        HashedTimerWheel timers = new HashedTimerWheel(10, TimeUnit.MILLISECONDS, 8, "TestWheel");
+        try {
+            PresenceBroadcaster presence = new PresenceBroadcaster(timers, WINDOW_MILLIS, 4 * WINDOW_MILLIS, 0);
+            presence.joined("carol");
+            presence.flush();
+            long known = presence.sequence();
+            presence.joined("dave");
+            presence.left("carol");
+            presence.flush();
+
+            ClientThread client = new ClientThread(new RecordingProtocol(WireFormat.Binary));
+            long epoch = ((RosterPacket) presence.sync(client, 0, 0).getPacket()).getEpoch();
+
+            Packet caughtUp = presence.sync(client, epoch, known).getPacket();
+            UserListDeltaPacket delta = (UserListDeltaPacket) caughtUp;
+            assertEquals(known, delta.getFromVersion());
+            assertEquals(presence.sequence(), delta.getToVersion());
+            assertEquals(Collections.singletonList("dave"), delta.getJoined());
+            assertEquals(Collections.singletonList("carol"), delta.getLeft());
+            assertEquals(presence.sequence(), client.presenceSequence);
+
+            assertTrue(presence.sync(client, epoch + 1, known).getPacket() instanceof RosterPacket);
+            // Versions which have not been sent yet are unknown
+            assertTrue(presence.sync(client, epoch, presence.sequence() + 1).getPacket() instanceof RosterPacket);
+        } finally {
+            finish(timers);
+        }
+    }
+
+    /**
+     * Once a change has left the history, versions before it get the whole roster, even if a later window changed the same user
+     */
+    @Test
+    public void forgottenChangesAreNotCaughtUp() {
+        HashedTimerWheel timers = new HashedTimerWheel(10, TimeUnit.MILLISECONDS, 8, "TestWheel");
+        try {
+            PresenceBroadcaster presence = new PresenceBroadcaster(timers, WINDOW_MILLIS, 4 * WINDOW_MILLIS, 0);
+            // "early" changes first and last in the window, so the history is not ordered by the last sequence
+            presence.joined("early");
+            presence.joined("middle");
+            presence.left("early");
+            presence.flush();
+            // Evicts "early", whose last change had sequence 3
+            for (int i = 0; i < 4095; i++) {
+                presence.joined("user" + i);
+            }
+            presence.flush();
+            // Evicts "middle" with sequence 2
+            presence.joined("last");
+            presence.flush();
+
+            ClientThread client = new ClientThread(new RecordingProtocol(WireFormat.Binary));
+            long epoch = ((RosterPacket) presence.sync(client, 0, 0).getPacket()).getEpoch();
+            assertTrue(presence.sync(client, epoch, 2).getPacket() instanceof RosterPacket);
+            assertTrue(presence.sync(client, epoch, 3).getPacket() instanceof UserListDeltaPacket);
+            assertEquals(Arrays.asList("last"), ((UserListDeltaPacket) presence.sync(client, epoch, 4098).getPacket()).getJoined());
+        } finally {
+            finish(timers);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.networklib.packets.ConnectPacket;
+import de.mash1t.networklib.packets.GroupMessagePacket;
+import de.mash1t.networklib.packets.Packet;
+import de.mash1t.networklib.packets.PacketType;
+import de.mash1t.networklib.packets.PrivateMessagePacket;
+import de.mash1t.networklib.packets.UserListPacket;
+import de.mash1t.networklib.packets.UserListPacketType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the binary wire format
+ *
+ * @author Manuel Schmid
+ */
+public class BinaryCodecTest {
+
+    private static Packet roundTrip(Packet packet) throws Exception {
+        byte[] frame = FrameCodec.encode(packet, WireFormat.Binary);
+        return FrameCodec.decode(frame, FrameCodec.HEADER_LENGTH, frame.length - FrameCodec.HEADER_LENGTH, WireFormat.Binary);
+    }
+
+    /**
+     * Packets keep all their fields
+     *
+     * @throws Exception
+     */
+    @Test
+    public void packetsRoundTrip() throws Exception {
+        assertEquals("alice", ((ConnectPacket) roundTrip(new ConnectPacket("alice"))).getName());
+
+        PrivateMessagePacket pm = (PrivateMessagePacket) roundTrip(new PrivateMessagePacket("gr\u00fc\u00dfe", "alice", "bobby"));
+        assertEquals("gr\u00fc\u00dfe", pm.getMessage());
+        assertEquals("alice", pm.getSender());
+        assertEquals("bobby", pm.getReceiver());
+
+        UserListPacket full = (UserListPacket) roundTrip(new UserListPacket(Arrays.asList("alice", "bobby")));
+        assertEquals(UserListPacketType.Full, full.getUserListType());
+        assertEquals(Arrays.asList("alice", "bobby"), full.getUserList());
+
+        UserListPacket delta = (UserListPacket) roundTrip(new UserListPacket("bobby", UserListPacketType.Disconnected));
+        assertEquals(UserListPacketType.Disconnected, delta.getUserListType());
+        assertEquals("bobby", delta.getUser());
+    }
+
+    /**
+     * A short group message is much smaller than its serialized form
+     *
+     * @throws Exception
+     */
+    @Test
+    public void binaryIsCompact() throws Exception {
+        Packet packet = new GroupMessagePacket("hi", "alice");
+        int binary = FrameCodec.encode(packet, WireFormat.Binary).length;
+        int serialized = FrameCodec.encode(packet, WireFormat.Serialized).length;
+        assertTrue(binary < 16);
+        assertTrue(binary * 5 < serialized);
+    }
+
+    /**
+     * Heartbeats are not part of PacketType and keep their extended type
+     *
+     * @throws Exception
+     */
+    @Test
+    public void heartbeatsRoundTrip() throws Exception {
+        assertEquals(ExtendedPacketType.Ping, ((ExtendedPacket) roundTrip(new PingPacket())).getExtendedType());
+        PongPacket pong = (PongPacket) roundTrip(new PongPacket(15000));
+        assertEquals(15000, pong.getInterval());
+        assertEquals(PacketType.Invalid, pong.getType());
+    }
+
+    /**
+     * Presence deltas and rosters keep their versions and the order of the names
+     *
+     * @throws Exception
+     */
+    @Test
+    public void rosterPacketsRoundTrip() throws Exception {
+        UserListDeltaPacket delta = (UserListDeltaPacket) roundTrip(new UserListDeltaPacket(41, 300, Arrays.asList("alice", "bobby"), Arrays.asList("carol")));
+        assertEquals(41, delta.getFromVersion());
+        assertEquals(300, delta.getToVersion());
+        assertEquals(Arrays.asList("alice", "bobby"), delta.getJoined());
+        assertEquals(Arrays.asList("carol"), delta.getLeft());
+
+        long epoch = 1760000000000L;
+        RosterPacket roster = (RosterPacket) roundTrip(new RosterPacket(epoch, 7, 3000, Arrays.asList("alice")));
+        assertEquals(epoch, roster.getEpoch());
+        assertEquals(7, roster.getVersion());
+        assertEquals(3000, roster.getTotal());
+        assertTrue(roster.isPaged());
+        assertEquals(Arrays.asList("alice"), roster.getNames());
+
+        RosterRequestPacket request = (RosterRequestPacket) roundTrip(new RosterRequestPacket(epoch, Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, request.getVersion());
+
+        RosterPageRequestPacket pageRequest = (RosterPageRequestPacket) roundTrip(new RosterPageRequestPacket("bo", 200, 100));
+        assertEquals("bo", pageRequest.getPrefix());
+        assertEquals(200, pageRequest.getOffset());
+        assertEquals(100, pageRequest.getLimit());
+
+        RosterPagePacket page = (RosterPagePacket) roundTrip(new RosterPagePacket("bo", 200, 201, Arrays.asList("bobby")));
+        assertEquals(200, page.getOffset());
+        assertEquals(201, page.getTotal());
+        assertEquals(Arrays.asList("bobby"), page.getNames());
+    }
+
+    /**
+     * Channel packets keep the channel, the request of a client has no user
+     *
+     * @throws Exception
+     */
+    @Test
+    public void channelPacketsRoundTrip() throws Exception {
+        ChannelJoinPacket join = (ChannelJoinPacket) roundTrip(new ChannelJoinPacket("#java", null));
+        assertEquals("#java", join.getChannel());
+        assertNull(join.getUser());
+
+        ChannelLeavePacket leave = (ChannelLeavePacket) roundTrip(new ChannelLeavePacket("#java", "alice"));
+        assertEquals("alice", leave.getUser());
+
+        ChannelMessagePacket message = (ChannelMessagePacket) roundTrip(new ChannelMessagePacket("#java", "hello", "alice"));
+        assertEquals(ExtendedPacketType.ChannelMessage, message.getExtendedType());
+        assertEquals("#java", message.getChannel());
+        assertEquals("hello", message.getMessage());
+        assertEquals("alice", message.getSender());
+    }
+
+    /**
+     * Conversations are identified by their id
+     *
+     * @throws Exception
+     */
+    @Test
+    public void conversationPacketsRoundTrip() throws Exception {
+        ConversationPacket conversation = (ConversationPacket) roundTrip(new ConversationPacket(0, Arrays.asList("bobby", "carol")));
+        assertEquals(0, conversation.getId());
+        assertEquals(Arrays.asList("bobby", "carol"), conversation.getMembers());
+
+        ConversationMessagePacket message = (ConversationMessagePacket) roundTrip(new ConversationMessagePacket(1L << 40, "hello", "alice"));
+        assertEquals(1L << 40, message.getId());
+        assertEquals("hello", message.getMessage());
+
+        assertEquals(7, ((ConversationLeavePacket) roundTrip(new ConversationLeavePacket(7))).getId());
+    }
+
+    /**
+     * A batch keeps the order of its packets, a batch combined from frames has the same bytes as an encoded one
+     *
+     * @throws Exception
+     */
+    @Test
+    public void batchRoundTrip() throws Exception {
+        List<Packet> packets = Arrays.<Packet>asList(new GroupMessagePacket("one", "alice"), new PingPacket(), new PrivateMessagePacket("two", "alice", "bobby"));
+        BatchPacket batch = (BatchPacket) roundTrip(new BatchPacket(packets));
+        assertEquals(3, batch.getPackets().size());
+        assertEquals("one", ((GroupMessagePacket) batch.getPackets().get(0)).getMessage());
+        assertTrue(batch.getPackets().get(1) instanceof PingPacket);
+        assertEquals("bobby", ((PrivateMessagePacket) batch.getPackets().get(2)).getReceiver());
+
+        List<PacketFrame> frames = new ArrayList<>();
+        for (Packet packet : packets) {
+            frames.add(PacketFrame.of(packet));
+        }
+        ByteArrayOutputStream combined = new ByteArrayOutputStream();
+        PacketFrame.batch(frames).writeTo(combined, WireFormat.Binary);
+        assertArrayEquals(FrameCodec.encode(new BatchPacket(packets), WireFormat.Binary), combined.toByteArray());
+    }
+
+    /**
+     * Acknowledgments and credit keep their counts
+     *
+     * @throws Exception
+     */
+    @Test
+    public void flowPacketsRoundTrip() throws Exception {
+        assertEquals(1L << 33, ((AckPacket) roundTrip(new AckPacket(1L << 33))).getSequence());
+        CreditPacket credit = (CreditPacket) roundTrip(new CreditPacket(300, Integer.MAX_VALUE));
+        assertEquals(300, credit.getAcknowledged());
+        assertEquals(300L + Integer.MAX_VALUE, credit.getLimit());
+    }
+
+    /**
+     * Session tokens and the counts of a resume survive the binary format
+     *
+     * @throws Exception
+     */
+    @Test
+    public void sessionPacketsRoundTrip() throws Exception {
+        SessionPacket session = (SessionPacket) roundTrip(new SessionPacket("token", true, 70000));
+        assertEquals("token", session.getToken());
+        assertTrue(session.isResumed());
+        assertEquals(70000, session.getAcknowledged());
+        ResumePacket resume = (ResumePacket) roundTrip(new ResumePacket("token", 1L << 40));
+        assertEquals("token", resume.getToken());
+        assertEquals(1L << 40, resume.getReceived());
+    }
+
+    /**
+     * The handshake keeps version, capabilities and heartbeat interval
+     *
+     * @throws Exception
+     */
+    @Test
+    public void helloRoundTrip() throws Exception {
+        int offered = Capability.of(Capability.BinaryCodec, Capability.Batching, Capability.Resume);
+        HelloPacket hello = (HelloPacket) roundTrip(new HelloPacket(HelloPacket.VERSION, offered, 15000));
+        assertEquals(HelloPacket.VERSION, hello.getVersion());
+        assertEquals(offered, hello.getCapabilities());
+        assertEquals(15000, hello.getHeartbeatInterval());
+        assertTrue(Capability.Batching.isIn(hello.getCapabilities()));
+        assertFalse(Capability.Compression.isIn(hello.getCapabilities()));
+    }
+
+    /**
+     * Nested batches and entries which exceed the payload are rejected
+     *
+     * @throws Exception
+     */
+    @Test
+    public void malformedBatchesAreInvalid() throws Exception {
+        List<Packet> nested = Arrays.<Packet>asList(new BatchPacket(Arrays.<Packet>asList(new PingPacket())));
+        try {
+            FrameCodec.encode(new BatchPacket(nested), WireFormat.Binary);
+            fail("Nested batch has been encoded");
+        } catch (IOException ex) {
+            // expected
+        }
+
+        byte[] frame = FrameCodec.encode(new BatchPacket(Arrays.<Packet>asList(new PingPacket(), new PingPacket())), WireFormat.Binary);
+        // Tag, count, then the length of the first entry
+        frame[FrameCodec.HEADER_LENGTH + 2] = 100;
+        assertEquals(PacketType.Invalid, FrameCodec.decode(frame, FrameCodec.HEADER_LENGTH, frame.length - FrameCodec.HEADER_LENGTH, WireFormat.Binary).getType());
+        assertFalse(FrameCodec.decode(frame, FrameCodec.HEADER_LENGTH, frame.length - FrameCodec.HEADER_LENGTH, WireFormat.Binary) instanceof ExtendedPacket);
+    }
+
+    /**
+     * Truncated payloads, trailing bytes and the wrong format are rejected
+     *
+     * @throws Exception
+     */
+    @Test
+    public void malformedPayloadsAreInvalid() throws Exception {
+        byte[] frame = FrameCodec.encode(new GroupMessagePacket("hello", "alice"), WireFormat.Binary);
+        int length = frame.length - FrameCodec.HEADER_LENGTH;
+
+        assertEquals(PacketType.Invalid, FrameCodec.decode(frame, FrameCodec.HEADER_LENGTH, length - 1, WireFormat.Binary).getType());
+        byte[] longer = Arrays.copyOf(frame, frame.length + 1);
+        assertEquals(PacketType.Invalid, FrameCodec.decode(longer, FrameCodec.HEADER_LENGTH, length + 1, WireFormat.Binary).getType());
+        assertEquals(PacketType.Invalid, FrameCodec.decode(frame, FrameCodec.HEADER_LENGTH, length, WireFormat.Serialized).getType());
+
+        byte[] serialized = FrameCodec.encode(new GroupMessagePacket("hello", "alice"));
+        assertEquals(PacketType.Invalid, FrameCodec.decode(serialized, FrameCodec.HEADER_LENGTH, serialized.length - FrameCodec.HEADER_LENGTH, WireFormat.Binary).getType());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.packets.GroupMessagePacket;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the pooled direct buffers and the frames built from them
+ *
+ * @author Manuel Schmid
+ */
+public class BufferPoolTest {
+
+    /**
+     * A released buffer is handed out again, limited to the new request
+     */
+    @Test
+    public void releasedBufferIsReused() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer first = pool.acquire(100);
+        ByteBuffer buffer = first.buffer();
+        assertTrue(buffer.isDirect());
+        assertEquals(100, buffer.limit());
+        first.release();
+
+        long hits = Counters.Buffers.hits.get();
+        PooledBuffer second = pool.acquire(200);
+        assertSame(buffer, second.buffer());
+        assertEquals(200, second.buffer().limit());
+        assertEquals(hits + 1, Counters.Buffers.hits.get());
+        second.release();
+    }
+
+    /**
+     * Releasing twice would hand the same buffer to two owners
+     */
+    @Test
+    public void doubleReleaseFails() {
+        PooledBuffer buffer = new BufferPool().acquire(10);
+        buffer.release();
+        try {
+            buffer.release();
+            fail("Second release has been accepted");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Frames of the same PacketFrame share one payload but write it independently
+     */
+    @Test
+    public void directFramesSharePayload() throws Exception {
+        PacketFrame frame = PacketFrame.of(new GroupMessagePacket("hello", "alice"));
+        int outstanding = Counters.Buffers.outstanding.get();
+
+        DirectFrame first = DirectFrame.of(frame, WireFormat.Binary);
+        DirectFrame second = DirectFrame.of(frame, WireFormat.Binary);
+        // One payload, the headers are not pooled
+        assertEquals(outstanding + 1, Counters.Buffers.outstanding.get());
+        assertEquals(frame.length(), first.length());
+        assertEquals(first.payload().remaining(), first.header().getInt(0));
+        assertEquals(FrameCodec.HEADER_LENGTH, first.header().remaining());
+
+        first.header().position(first.header().limit());
+        first.payload().position(first.payload().limit());
+        assertTrue(first.isWritten());
+        assertFalse(second.isWritten());
+
+        first.release();
+        first.release();
+        second.release();
+        assertEquals(outstanding, Counters.Buffers.outstanding.get());
+    }
+}
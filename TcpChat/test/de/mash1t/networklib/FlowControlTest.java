@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.packets.GroupMessagePacket;
+import de.mash1t.networklib.packets.InfoPacket;
+import de.mash1t.networklib.packets.MessagePacket;
+import de.mash1t.networklib.packets.Packet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for numbering, acknowledging and crediting chat messages
+ *
+ * @author Manuel Schmid
+ */
+public class FlowControlTest {
+
+    /**
+     * Protocol which remembers sent messages
+     */
+    private static class RecordingProtocol extends AbstractNetworkProtocol {
+
+        final List<String> written = new ArrayList<>();
+
+        @Override
+        protected boolean write(Packet packet) {
+            written.add(((MessagePacket) packet).getMessage());
+            return true;
+        }
+
+        @Override
+        protected boolean closeNow() {
+            return true;
+        }
+    }
+
+    /**
+     * Only chat messages are numbered, also inside of batches, and acks cannot run ahead
+     */
+    @Test
+    public void chatMessagesAreNumbered() {
+        AckTracker tracker = new AckTracker();
+        long acks = Counters.Flow.acks.get();
+        tracker.dequeued(new GroupMessagePacket("one", "alice"));
+        tracker.dequeued(new InfoPacket("not counted"));
+        tracker.dequeued(new BatchPacket(Arrays.<Packet>asList(new GroupMessagePacket("two", "alice"), new PingPacket())));
+        assertEquals(2, tracker.outstanding());
+
+        assertFalse(tracker.acknowledge(3));
+        assertTrue(tracker.acknowledge(1));
+        assertTrue(tracker.acknowledge(1));
+        assertEquals(1, tracker.outstanding());
+        assertEquals(acks + 1, Counters.Flow.acks.get());
+
+        tracker.release();
+        tracker.dequeued(new GroupMessagePacket("three", "alice"));
+        assertEquals(0, tracker.outstanding());
+    }
+
+    /**
+     * Messages which have not been acknowledged are kept for a resumed session, as long as the ring holds them
+     */
+    @Test
+    public void unacknowledgedMessagesAreReplayed() {
+        AckTracker tracker = new AckTracker();
+        for (int i = 0; i < 5; i++) {
+            tracker.dequeued(new GroupMessagePacket("message " + i, "alice"));
+        }
+        tracker.acknowledge(2);
+        List<Packet> missed = tracker.unacknowledgedAfter(3);
+        assertEquals(2, missed.size());
+        assertEquals("message 3", ((MessagePacket) missed.get(0)).getMessage());
+        assertNull(tracker.unacknowledgedAfter(1));
+        assertNull(tracker.unacknowledgedAfter(6));
+
+        for (int i = 0; i < AckTracker.CAPACITY; i++) {
+            tracker.dequeued(new GroupMessagePacket("later", "alice"));
+        }
+        assertNull(tracker.unacknowledgedAfter(3));
+        assertEquals(AckTracker.CAPACITY, tracker.unacknowledgedAfter(5).size());
+        tracker.release();
+    }
+
+    /**
+     * Messages which the server has not received are taken from a lost window to be sent again
+     */
+    @Test
+    public void unsentMessagesAreTaken() {
+        RecordingProtocol protocol = new RecordingProtocol();
+        CreditWindow window = new CreditWindow(protocol);
+        window.update(new CreditPacket(0, 2));
+        window.sendAll(Arrays.<Packet>asList(new GroupMessagePacket("one", "alice"), new GroupMessagePacket("two", "alice"), new GroupMessagePacket("three", "alice")));
+        List<Packet> unsent = window.takeUnsent(1);
+        assertEquals(2, unsent.size());
+        assertEquals("two", ((MessagePacket) unsent.get(0)).getMessage());
+        assertEquals("three", ((MessagePacket) unsent.get(1)).getMessage());
+        assertEquals(0, window.getWaiting());
+        assertTrue(window.getUnacknowledged().isEmpty());
+    }
+
+    /**
+     * Messages beyond the credit wait and are sent in order once it grows, acknowledged ones are forgotten
+     */
+    @Test
+    public void messagesWaitForCredit() {
+        RecordingProtocol protocol = new RecordingProtocol();
+        CreditWindow window = new CreditWindow(protocol);
+        window.send(new GroupMessagePacket("one", "alice"));
+        assertTrue(protocol.written.isEmpty());
+
+        window.update(new CreditPacket(0, 2));
+        window.sendAll(Arrays.<Packet>asList(new GroupMessagePacket("two", "alice"), new GroupMessagePacket("three", "alice")));
+        assertEquals(Arrays.asList("one", "two"), protocol.written);
+        assertEquals(1, window.getWaiting());
+
+        // A smaller window does not take back granted credit
+        window.update(new CreditPacket(1, 0));
+        assertEquals(1, window.getWaiting());
+        assertEquals(1, window.getUnacknowledged().size());
+
+        window.update(new CreditPacket(2, 1));
+        assertEquals(Arrays.asList("one", "two", "three"), protocol.written);
+        assertEquals(0, window.getWaiting());
+    }
+
+    /**
+     * Without flow control the messages are sent right away and none is kept, no acknowledgment will remove them
+     */
+    @Test
+    public void unlimitedWindowKeepsNothing() {
+        RecordingProtocol protocol = new RecordingProtocol();
+        CreditWindow window = new CreditWindow(protocol);
+        window.send(new GroupMessagePacket("before hello", "alice"));
+        window.unlimited();
+        for (int i = 0; i < 1000; i++) {
+            window.send(new GroupMessagePacket("message " + i, "alice"));
+        }
+        assertEquals(1001, protocol.written.size());
+        assertEquals("before hello", protocol.written.get(0));
+        assertEquals(0, window.getWaiting());
+        assertTrue(window.getUnacknowledged().isEmpty());
+    }
+}
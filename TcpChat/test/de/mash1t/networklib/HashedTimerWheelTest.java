@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the timer wheel behind the login deadlines
+ *
+ * @author Manuel Schmid
+ */
+public class HashedTimerWheelTest {
+
+    /**
+     * Timeouts fire once, also those which need more than one round of the wheel
+     */
+    @Test
+    public void timeoutsExpire() throws Exception {
+        HashedTimerWheel wheel = new HashedTimerWheel(10, TimeUnit.MILLISECONDS, 8, "TestWheel");
+        try {
+            final CountDownLatch latch = new CountDownLatch(2);
+            HashedTimerWheel.Timeout shortTimeout = wheel.schedule(countDown(latch), 20, TimeUnit.MILLISECONDS);
+            HashedTimerWheel.Timeout longTimeout = wheel.schedule(countDown(latch), 200, TimeUnit.MILLISECONDS);
+            assertTrue(latch.await(2, TimeUnit.SECONDS));
+            assertTrue(shortTimeout.isExpired());
+            assertTrue(longTimeout.isExpired());
+            assertFalse(longTimeout.cancel());
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    /**
+     * A cancelled timeout never runs its task
+     */
+    @Test
+    public void cancelledTimeoutDoesNotRun() throws Exception {
+        HashedTimerWheel wheel = new HashedTimerWheel(10, TimeUnit.MILLISECONDS, 8, "TestWheel");
+        try {
+            final AtomicInteger runs = new AtomicInteger();
+            HashedTimerWheel.Timeout timeout = wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                }
+            }, 50, TimeUnit.MILLISECONDS);
+            assertTrue(timeout.cancel());
+            assertFalse(timeout.cancel());
+
+            CountDownLatch later = new CountDownLatch(1);
+            wheel.schedule(countDown(later), 100, TimeUnit.MILLISECONDS);
+            assertTrue(later.await(2, TimeUnit.SECONDS));
+            assertEquals(0, runs.get());
+            assertFalse(timeout.isExpired());
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    /**
+     * A task scheduled with an executor runs there, the worker only hands it over
+     */
+    @Test
+    public void taskRunsOnExecutor() throws Exception {
+        HashedTimerWheel wheel = new HashedTimerWheel(10, TimeUnit.MILLISECONDS, 8, "TestWheel");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final CountDownLatch latch = new CountDownLatch(1);
+            final AtomicReference<String> thread = new AtomicReference<>();
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    thread.set(Thread.currentThread().getName());
+                    latch.countDown();
+                }
+            }, 20, TimeUnit.MILLISECONDS, executor);
+            assertTrue(latch.await(2, TimeUnit.SECONDS));
+            assertFalse("TestWheel".equals(thread.get()));
+        } finally {
+            executor.shutdown();
+            wheel.stop();
+        }
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+}
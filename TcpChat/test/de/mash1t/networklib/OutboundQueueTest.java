@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.packets.InfoPacket;
+import de.mash1t.networklib.packets.MessagePacket;
+import de.mash1t.networklib.packets.Packet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for writing queued packets in order
+ *
+ * @author Manuel Schmid
+ */
+public class OutboundQueueTest {
+
+    /**
+     * Protocol which remembers written packets
+     */
+    private static class RecordingProtocol extends AbstractNetworkProtocol {
+
+        final List<String> written = new ArrayList<>();
+        final List<Integer> flushedAt = new ArrayList<>();
+        volatile boolean closed = false;
+
+        @Override
+        protected boolean write(Packet packet) {
+            written.add(((MessagePacket) packet).getMessage());
+            return !closed;
+        }
+
+        @Override
+        protected boolean flush() {
+            flushedAt.add(written.size());
+            return true;
+        }
+
+        @Override
+        protected boolean closeNow() {
+            closed = true;
+            return true;
+        }
+    }
+
+    /**
+     * Packets are written in order and the connection is closed after the last one
+     *
+     * @throws Exception
+     */
+    @Test
+    public void writesInOrderThenCloses() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        RecordingProtocol protocol = new RecordingProtocol();
+        protocol.outbound = new OutboundQueue(protocol, executor);
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(protocol.send(new InfoPacket(Integer.toString(i))));
+        }
+        protocol.close();
+        assertFalse(protocol.send(new InfoPacket("too late")));
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(protocol.closed);
+        assertEquals(0, protocol.getQueueDepth());
+        assertEquals(1000, protocol.written.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.toString(i), protocol.written.get(i));
+        }
+    }
+
+    /**
+     * A burst which is queued while the writer is busy is flushed once
+     *
+     * @throws Exception
+     */
+    @Test
+    public void burstIsFlushedOnce() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch busy = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    busy.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        RecordingProtocol protocol = new RecordingProtocol();
+        protocol.outbound = new OutboundQueue(protocol, executor);
+
+        for (int i = 0; i < 50; i++) {
+            protocol.send(new InfoPacket(Integer.toString(i)));
+        }
+        busy.countDown();
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(1, protocol.flushedAt.size());
+        assertEquals(Integer.valueOf(50), protocol.flushedAt.get(0));
+    }
+
+    /**
+     * Packets arriving within the flush window are flushed together with the first one
+     *
+     * @throws Exception
+     */
+    @Test
+    public void flushWindowMergesLatePackets() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        RecordingProtocol protocol = new RecordingProtocol();
+        protocol.outbound = new OutboundQueue(protocol, executor);
+
+        TransportSettings.setFlushWindowMicros(TimeUnit.MILLISECONDS.toMicros(300));
+        try {
+            protocol.send(new InfoPacket("first"));
+            Thread.sleep(50);
+            protocol.send(new InfoPacket("second"));
+
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        } finally {
+            TransportSettings.setFlushWindowMicros(0);
+        }
+        assertEquals(2, protocol.written.size());
+        assertEquals(1, protocol.flushedAt.size());
+    }
+
+    /**
+     * The depth of each queue is counted in the histogram, and leaves it when the queue has been written
+     */
+    @Test
+    public void depthIsCounted() {
+        final List<Runnable> writers = new ArrayList<>();
+        RecordingProtocol protocol = new RecordingProtocol();
+        // Holds the writer back until the test runs it
+        protocol.outbound = new OutboundQueue(protocol, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                writers.add(command);
+            }
+        });
+        int bucket = Counters.depthBucket(100);
+        int before = Counters.Outbound.depths.get(bucket);
+        int belowBefore = Counters.Outbound.depths.get(bucket - 1);
+
+        for (int i = 0; i < 100; i++) {
+            protocol.send(new InfoPacket(Integer.toString(i)));
+        }
+        assertEquals(100, protocol.getQueueDepth());
+        assertEquals(before + 1, Counters.Outbound.depths.get(bucket));
+        assertEquals(belowBefore, Counters.Outbound.depths.get(bucket - 1));
+        assertTrue(Counters.Outbound.maxDepth.get() >= 100);
+
+        assertEquals(1, writers.size());
+        writers.get(0).run();
+        assertEquals(0, protocol.getQueueDepth());
+        assertEquals(before, Counters.Outbound.depths.get(bucket));
+        assertEquals(belowBefore, Counters.Outbound.depths.get(bucket - 1));
+    }
+
+    /**
+     * Depths fall into buckets of powers of two
+     */
+    @Test
+    public void depthBuckets() {
+        assertEquals(-1, Counters.depthBucket(0));
+        assertEquals(0, Counters.depthBucket(1));
+        assertEquals(1, Counters.depthBucket(2));
+        assertEquals(1, Counters.depthBucket(3));
+        assertEquals(6, Counters.depthBucket(100));
+        assertEquals(Counters.Outbound.DEPTH_BUCKETS - 1, Counters.depthBucket(Integer.MAX_VALUE));
+    }
+}
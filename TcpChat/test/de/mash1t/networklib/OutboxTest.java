@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.networklib.packets.GroupMessagePacket;
+import de.mash1t.networklib.packets.InfoPacket;
+import de.mash1t.networklib.packets.MessagePacket;
+import de.mash1t.networklib.packets.Packet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the slow consumer policies
+ *
+ * @author Manuel Schmid
+ */
+public class OutboxTest {
+
+    private static Packet gm(int number) {
+        return new GroupMessagePacket(Integer.toString(number), "alice");
+    }
+
+    private static String messageOf(Object entry) {
+        return ((MessagePacket) entry).getMessage();
+    }
+
+    /**
+     * Old group messages make room for new ones, other packets are kept
+     */
+    @Test
+    public void dropOldestKeepsNewestMessages() {
+        long budget = 3 * FrameCodec.estimateLength(gm(0));
+        Outbox outbox = new Outbox(budget, SlowConsumerPolicy.DropOldest);
+
+        outbox.offer(new InfoPacket("info"));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(outbox.offer(gm(i)));
+        }
+
+        assertTrue(outbox.bytes() <= budget);
+        assertEquals("info", messageOf(outbox.poll()));
+        assertEquals("9", messageOf(outbox.poll()));
+        assertNull(outbox.poll());
+    }
+
+    /**
+     * Exceeding the budget is reported exactly once
+     */
+    @Test
+    public void kickIsReportedOnce() {
+        Outbox outbox = new Outbox(FrameCodec.estimateLength(gm(0)), SlowConsumerPolicy.Kick);
+
+        assertTrue(outbox.offer(gm(1)));
+        assertFalse(outbox.offer(gm(2)));
+        assertTrue(outbox.takeOverflow());
+        assertFalse(outbox.takeOverflow());
+        assertFalse(outbox.offer(new InfoPacket("info")));
+    }
+
+    /**
+     * After a pause the client gets a summary and the latest messages
+     */
+    @Test
+    public void catchUpSendsSummaryAndLatest() {
+        Outbox outbox = new Outbox(2 * FrameCodec.estimateLength(gm(0)), SlowConsumerPolicy.CatchUp);
+
+        for (int i = 0; i < 30; i++) {
+            assertTrue(outbox.offer(gm(i)));
+        }
+        assertEquals(0, outbox.depth());
+        assertTrue(outbox.resume());
+
+        assertTrue(messageOf(outbox.poll()).contains(" 20 "));
+        for (int i = 20; i < 30; i++) {
+            assertEquals(Integer.toString(i), messageOf(outbox.poll()));
+        }
+        assertNull(outbox.poll());
+        assertFalse(outbox.resume());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.packets.GroupMessagePacket;
+import de.mash1t.networklib.packets.InfoPacket;
+import de.mash1t.networklib.packets.MessagePacket;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for writing encoded frames to framed and legacy streams
+ *
+ * @author Manuel Schmid
+ */
+public class PacketFrameTest {
+
+    /**
+     * A frame decodes to the same packet
+     *
+     * @throws Exception
+     */
+    @Test
+    public void frameDecodes() throws Exception {
+        PacketFrame frame = PacketFrame.of(new GroupMessagePacket("hello", "alice"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        frame.writeTo(out, WireFormat.Serialized);
+        byte[] bytes = out.toByteArray();
+
+        assertEquals(frame.length(), bytes.length);
+        assertEquals(bytes.length - FrameCodec.HEADER_LENGTH, FrameCodec.readLength(bytes, 0));
+        MessagePacket packet = (MessagePacket) FrameCodec.decode(bytes, FrameCodec.HEADER_LENGTH, bytes.length - FrameCodec.HEADER_LENGTH);
+        assertEquals("hello", packet.getMessage());
+    }
+
+    /**
+     * A frame injected between reset() calls can be read by a legacy ObjectInputStream
+     *
+     * @throws Exception
+     */
+    @Test
+    public void frameCanBeInjectedIntoObjectStream() throws Exception {
+        PacketFrame frame = PacketFrame.of(new GroupMessagePacket("injected", "alice"));
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(raw);
+
+        out.writeObject(new InfoPacket("before"));
+        out.reset();
+        out.flush();
+        frame.writeObjectTo(raw);
+        out.reset();
+        out.writeObject(new InfoPacket("after"));
+        out.flush();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(raw.toByteArray()));
+        assertEquals("before", ((MessagePacket) in.readObject()).getMessage());
+        assertEquals("injected", ((MessagePacket) in.readObject()).getMessage());
+        assertEquals("after", ((MessagePacket) in.readObject()).getMessage());
+    }
+
+    /**
+     * A large frame is deflated once for all connections and inflated by the receiving one, small frames are sent as they are
+     *
+     * @throws Exception
+     */
+    @Test
+    public void largeFrameIsCompressedOnce() throws Exception {
+        StringBuilder paste = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            paste.append("at de.mash1t.chat.server.console.ClientThread.run(ClientThread.java:").append(i).append(")\n");
+        }
+        PacketFrame frame = PacketFrame.of(new GroupMessagePacket(paste.toString(), "alice"));
+        FrameCompressor first = new FrameCompressor(1024);
+        FrameCompressor second = new FrameCompressor(1024);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        frame.writeTo(out, WireFormat.Binary, first);
+        long deflated = Counters.Compression.deflated.get();
+        ByteArrayOutputStream again = new ByteArrayOutputStream();
+        frame.writeTo(again, WireFormat.Binary, second);
+        byte[] bytes = out.toByteArray();
+
+        assertEquals(deflated, Counters.Compression.deflated.get());
+        assertArrayEquals(bytes, again.toByteArray());
+        assertTrue(bytes.length < frame.length() / 4);
+        assertTrue(BinaryCodec.isDeflated(bytes[FrameCodec.HEADER_LENGTH]));
+        byte[] inflated = second.inflate(bytes, FrameCodec.HEADER_LENGTH, bytes.length - FrameCodec.HEADER_LENGTH);
+        MessagePacket packet = (MessagePacket) FrameCodec.decode(inflated, 0, inflated.length, WireFormat.Binary);
+        assertEquals(paste.toString(), packet.getMessage());
+
+        ByteArrayOutputStream small = new ByteArrayOutputStream();
+        PacketFrame.of(new GroupMessagePacket("hello", "alice")).writeTo(small, WireFormat.Binary, first);
+        assertFalse(BinaryCodec.isDeflated(small.toByteArray()[FrameCodec.HEADER_LENGTH]));
+        first.release();
+        second.release();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Manuel Schmid.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mash1t.networklib;
+
+import de.mash1t.chat.logging.Counters;
+import de.mash1t.networklib.packets.GroupMessagePacket;
+import de.mash1t.networklib.packets.InfoPacket;
+import de.mash1t.networklib.packets.MessagePacket;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for resetting long-lived object streams
+ *
+ * @author Manuel Schmid
+ */
+public class SerializationSessionTest {
+
+    /**
+     * A legacy reader gets all packets across resets and injected frames
+     *
+     * @throws Exception
+     */
+    @Test
+    public void readerFollowsResets() throws Exception {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        SerializationSession session = new SerializationSession(raw, 3, 0);
+
+        for (int i = 0; i < 10; i++) {
+            session.write(new InfoPacket(Integer.toString(i)));
+            if (i % 4 == 0) {
+                session.inject(PacketFrame.of(new GroupMessagePacket("frame " + i, "alice")));
+            }
+        }
+        session.close();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(raw.toByteArray()));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.toString(i), ((MessagePacket) in.readObject()).getMessage());
+            if (i % 4 == 0) {
+                assertEquals("frame " + i, ((MessagePacket) in.readObject()).getMessage());
+            }
+        }
+    }
+
+    /**
+     * Retained bytes drop back after the byte cadence has been reached
+     *
+     * @throws Exception
+     */
+    @Test
+    public void retainedBytesAreBounded() throws Exception {
+        SerializationSession session = new SerializationSession(new ByteArrayOutputStream(), 0, 1024);
+        SerializationSession unbounded = new SerializationSession(new ByteArrayOutputStream(), 0, 0);
+        long max = 0;
+        for (int i = 0; i < 1000; i++) {
+            session.write(new InfoPacket("message number " + i));
+            unbounded.write(new InfoPacket("message number " + i));
+            max = Math.max(max, session.retainedBytes());
+        }
+        assertTrue(max < 1024);
+        assertTrue(unbounded.retainedBytes() > 10 * 1024);
+    }
+
+    /**
+     * The retained bytes of open sessions are published to the counters and taken back on close
+     *
+     * @throws Exception
+     */
+    @Test
+    public void retainedBytesAreCounted() throws Exception {
+        long before = Counters.Streams.retainedBytes.get();
+        SerializationSession session = new SerializationSession(new ByteArrayOutputStream(), 0, 0);
+        for (int i = 0; i < 100; i++) {
+            session.write(new InfoPacket("message number " + i));
+        }
+        assertEquals(before + session.retainedBytes(), Counters.Streams.retainedBytes.get());
+        assertTrue(Counters.Streams.maxRetainedBytes.get() >= session.retainedBytes());
+
+        session.close();
+        assertEquals(before, Counters.Streams.retainedBytes.get());
+    }
+}